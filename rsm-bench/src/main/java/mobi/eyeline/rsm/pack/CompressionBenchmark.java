@@ -0,0 +1,123 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.storage.StorageClient;
+import mobi.eyeline.rsm.storage.StorageClients;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Payload compression at various thresholds, with and without a preset dictionary.
+ *
+ * <p>Compression ratio is printed on setup. End-to-end latency includes a Redis round trip
+ * if {@code redisUrl} is set, e.g. {@code -p redisUrl=redis://localhost:6379}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressionBenchmark {
+
+  private static final String KEY = "rsm-bench:compression";
+
+  @Param({"SCALARS", "NESTED", "SIZE_10K", "SIZE_100K"})
+  public SessionShape shape;
+
+  /** Minimal payload size to compress, {@code 0} for no compression. */
+  @Param({"0", "256", "1024", "16384"})
+  public int threshold;
+
+  @Param({"true", "false"})
+  public boolean dictionary;
+
+  @Param({""})
+  public String redisUrl;
+
+  private SessionSerializer serializer;
+  private StorageClient storageClient;
+
+  private PersistedSession session;
+  private PersistedSessionMetadata metadata;
+  private byte[] payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    serializer = new SessionSerializer(
+        null, false, new Compression(threshold, dictionary ? trainDictionary() : null));
+
+    session = shape.create();
+    metadata = new PersistedSessionMetadata();
+    payload = serializer.serialize(session, metadata);
+
+    final int plainSize = new SessionSerializer(null).serialize(session, metadata).length;
+    System.out.printf("%nPayload size: %d bytes, uncompressed: %d bytes, ratio: %.2f%n",
+        payload.length, plainSize, (double) plainSize / payload.length);
+
+    if (!redisUrl.isEmpty()) {
+      storageClient = StorageClients.create(redisUrl, 0, 0, false);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    if (storageClient != null) {
+      storageClient.close();
+    }
+  }
+
+  /**
+   * Dictionary trained on sessions of all the shapes.
+   */
+  private static byte[] trainDictionary() throws IOException {
+    final SessionSerializer plain = new SessionSerializer(null);
+
+    final DictionaryTrainer trainer = new DictionaryTrainer();
+    for (SessionShape sample : SessionShape.values()) {
+      trainer.add(plain.serialize(sample.create(), new PersistedSessionMetadata()));
+    }
+    return trainer.build(Compression.MAX_DICTIONARY_SIZE);
+  }
+
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    return serializer.serialize(session, metadata);
+  }
+
+  @Benchmark
+  public PersistedSession deserialize() throws IOException {
+    final PersistedSession loaded = new PersistedSession();
+    serializer.deserialize(payload, loaded, new PersistedSessionMetadata());
+    return loaded;
+  }
+
+  /** Save and load, through Redis if configured. */
+  @Benchmark
+  public PersistedSession endToEnd() throws Exception {
+    byte[] data = serializer.serialize(session, metadata);
+
+    if (storageClient != null) {
+      storageClient.set(KEY, 60, data).get();
+      data = storageClient.get(KEY).get();
+    }
+
+    final PersistedSession loaded = new PersistedSession();
+    serializer.deserialize(data, loaded, new PersistedSessionMetadata());
+    return loaded;
+  }
+}
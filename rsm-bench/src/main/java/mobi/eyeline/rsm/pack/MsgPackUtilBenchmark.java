@@ -0,0 +1,86 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attribute value encoding and decoding, per supported type.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MsgPackUtilBenchmark {
+
+  public enum ValueType {
+    INTEGER(42),
+    LONG(1_500_000_000_000L),
+    BOOLEAN(true),
+    STRING("Lorem ipsum dolor sit amet"),
+    STRING_UNICODE("Съешь же ещё этих мягких французских булок"),
+    UUID(new UUID(0x123456789abcdef0L, 0x0fedcba987654321L)),
+    STRING_LIST(Arrays.asList("ACTIVE", "PAUSED", "FINISHED", "DELETED")),
+    UUID_ARRAY(new UUID[] {
+        new UUID(1, 2), new UUID(3, 4), new UUID(5, 6), new UUID(7, 8)
+    }),
+    MAP(new HashMap<String, Object>() {{
+      put("theme", "dark");
+      put("pageSize", 50);
+      put("visible", true);
+      put("owner", new UUID(9, 10));
+    }});
+
+    final Object value;
+
+    ValueType(Object value) {
+      this.value = value;
+    }
+  }
+
+  @Param
+  public ValueType type;
+
+  private ReusablePacker packer;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() throws IOException {
+    packer = new ReusablePacker(new ReusableBufferOutput());
+    pack();
+    encoded = packer.output().toByteArray();
+  }
+
+  @Benchmark
+  public int pack() throws IOException {
+    packer.output().reset();
+    MsgPackUtil.pack(packer, type.value);
+    packer.flush();
+    return packer.output().size();
+  }
+
+  @Benchmark
+  public Object unpack() throws IOException {
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(encoded)) {
+      return MsgPackUtil.unpack(unpacker);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Complete session serialization, as done on each save and load.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionSerializerBenchmark {
+
+  @Param
+  public SessionShape shape;
+
+  private SessionSerializer serializer;
+  private SessionSerializer lazySerializer;
+
+  private PersistedSession session;
+  private PersistedSessionMetadata metadata;
+  private byte[] payload;
+
+  @Setup
+  public void setUp() throws IOException {
+    serializer = new SessionSerializer(null);
+    lazySerializer = new SessionSerializer(null, true);
+
+    session = shape.create();
+    metadata = new PersistedSessionMetadata();
+    metadata.setAttrHash(serializer.attributesHashFrom(session.attributes));
+    payload = serializer.serialize(session, metadata);
+  }
+
+  /** Save with dirty checking: attributes are hashed and serialized from the same encoding. */
+  @Benchmark
+  public byte[] serialize() throws IOException {
+    final EncodedSession encoded = serializer.encode(session, true);
+    return serializer.serialize(encoded, metadata);
+  }
+
+  /** Save with no dirty checking. */
+  @Benchmark
+  public byte[] serializeUnhashed() throws IOException {
+    return serializer.serialize(session, metadata);
+  }
+
+  @Benchmark
+  public PersistedSession deserialize() throws IOException {
+    final PersistedSession loaded = new PersistedSession();
+    serializer.deserialize(payload, loaded, new PersistedSessionMetadata());
+    return loaded;
+  }
+
+  /** Load with attributes left encoded until accessed. */
+  @Benchmark
+  public PersistedSession deserializeLazy() throws IOException {
+    final PersistedSession loaded = new PersistedSession();
+    lazySerializer.deserialize(payload, loaded, new PersistedSessionMetadata());
+    return loaded;
+  }
+
+  @Benchmark
+  public long attributesHashFrom() throws IOException {
+    return serializer.attributesHashFrom(session.attributes);
+  }
+}
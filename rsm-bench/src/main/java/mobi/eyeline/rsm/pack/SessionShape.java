@@ -0,0 +1,139 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Typical session contents used as benchmark input.
+ */
+public enum SessionShape {
+
+  /** A handful of scalar attributes, e.g. user ID and locale. */
+  SCALARS {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      attributes.put("userId", random.nextLong());
+      attributes.put("locale", "ru_RU");
+      attributes.put("authenticated", true);
+      attributes.put("loginCount", random.nextInt(1000));
+      attributes.put("javax.faces.request.charset", "UTF-8");
+    }
+  },
+
+  /** Nested maps and lists, e.g. user preferences and navigation history. */
+  NESTED {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      SCALARS.fill(attributes, random);
+
+      final Map<String, Object> preferences = new HashMap<>();
+      preferences.put("theme", "dark");
+      preferences.put("pageSize", 50);
+      preferences.put("columns", Arrays.asList("id", "name", "status", "created"));
+      preferences.put("filters", new HashMap<String, Object>() {{
+        put("status", Arrays.asList("ACTIVE", "PAUSED"));
+        put("owner", "Иванов");
+      }});
+      attributes.put("preferences", preferences);
+
+      final List<Object> history = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        history.add(Arrays.asList("/campaigns/" + random.nextInt(10_000), random.nextLong()));
+      }
+      attributes.put("history", history);
+    }
+  },
+
+  /** Mostly UUIDs, e.g. cached entity references. */
+  UUIDS {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      attributes.put("userId", randomUUID(random));
+
+      final UUID[] selected = new UUID[100];
+      for (int i = 0; i < selected.length; i++) {
+        selected[i] = randomUUID(random);
+      }
+      attributes.put("selected", selected);
+
+      final Map<String, Object> owners = new HashMap<>();
+      for (int i = 0; i < 50; i++) {
+        owners.put(randomUUID(random).toString(), randomUUID(random));
+      }
+      attributes.put("owners", owners);
+    }
+  },
+
+  SIZE_10K {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      fillUpTo(attributes, random, 10 * 1024);
+    }
+  },
+
+  SIZE_100K {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      fillUpTo(attributes, random, 100 * 1024);
+    }
+  },
+
+  SIZE_1M {
+    @Override
+    void fill(Map<String, Object> attributes, Random random) {
+      fillUpTo(attributes, random, 1024 * 1024);
+    }
+  };
+
+  abstract void fill(Map<String, Object> attributes, Random random);
+
+  /**
+   * @return New session of this shape, the same for each call.
+   */
+  public PersistedSession create() {
+    final Random random = new Random(ordinal());
+
+    final PersistedSession session = new PersistedSession();
+    session.id = Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong());
+    session.creationTime = 1_500_000_000_000L;
+    session.lastAccessedTime = session.creationTime + 60_000;
+    session.thisAccessedTime = session.lastAccessedTime + 1_000;
+    session.maxInactiveInterval = 1800;
+    session.isValid = true;
+    session.principalName = "operator";
+    session.principalRoles = new String[] {"ADMIN", "CLIENTS"};
+
+    session.attributes = new HashMap<>();
+    fill(session.attributes, random);
+    return session;
+  }
+
+  /**
+   * Mixes all the supported types, adding records until the approximate encoded size is reached.
+   */
+  private static void fillUpTo(Map<String, Object> attributes, Random random, int size) {
+    SCALARS.fill(attributes, random);
+
+    // Each record takes about 100 bytes encoded.
+    for (int i = 0; i < size / 100; i++) {
+      final Map<String, Object> record = new HashMap<>();
+      record.put("id", randomUUID(random));
+      record.put("name", "record-" + random.nextInt());
+      record.put("value", random.nextLong());
+      record.put("enabled", random.nextBoolean());
+      record.put("tags", Arrays.asList("t" + random.nextInt(100), "t" + random.nextInt(100)));
+      attributes.put("record." + i, record);
+    }
+  }
+
+  private static UUID randomUUID(Random random) {
+    return new UUID(random.nextLong(), random.nextLong());
+  }
+}
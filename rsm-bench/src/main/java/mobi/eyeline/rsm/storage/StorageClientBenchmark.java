@@ -0,0 +1,102 @@
+package mobi.eyeline.rsm.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Session save and load through the storage client, against a storage in the process
+ * ({@code mem}), a {@link RespServer} over loopback ({@code resp}), or the database at
+ * {@code dbUrl} if set, e.g. {@code -p dbUrl=redis://localhost:6379}.
+ *
+ * <p>Latency is injected per round trip, so {@code resp} shows the effect of pipelining
+ * on a slow network without one.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class StorageClientBenchmark {
+
+  @Param({"mem", "resp"})
+  public String backend;
+
+  /** Injected latency, milliseconds. */
+  @Param({"0", "1"})
+  public int latencyMillis;
+
+  @Param({"true", "false"})
+  public boolean pipelining;
+
+  @Param({"1024"})
+  public int payloadSize;
+
+  @Param({""})
+  public String dbUrl;
+
+  private RespServer server;
+  private StorageClient storageClient;
+
+  private byte[] payload;
+
+  private final AtomicInteger threads = new AtomicInteger();
+
+  @Setup
+  public void setUp() throws IOException {
+    payload = new byte[payloadSize];
+    new Random(0).nextBytes(payload);
+
+    if (!dbUrl.isEmpty()) {
+      storageClient = StorageClients.create(dbUrl, 0, 0, pipelining);
+
+    } else if ("mem".equals(backend)) {
+      storageClient = new MemoryStorageClient(latencyMillis);
+
+    } else {
+      server = new RespServer(0, latencyMillis);
+      storageClient = StorageClients.create(server.getUrl(), 0, 0, pipelining);
+    }
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    storageClient.close();
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Session {
+    String key;
+
+    @Setup
+    public void setUp(StorageClientBenchmark benchmark) {
+      key = "rsm-bench:session:" + benchmark.threads.incrementAndGet();
+    }
+  }
+
+  @Benchmark
+  public byte[] saveAndLoad(Session session) throws Exception {
+    storageClient.set(session.key, 60, payload).get();
+    return storageClient.get(session.key).get();
+  }
+}
@@ -1,11 +1,27 @@
 package mobi.eyeline.rsm;
 
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class DirtySessionTracker {
 
   private boolean dirty = false;
 
+  /** Names of the attributes set or removed, possibly by concurrent requests. */
+  private final Set<String> changedAttributes = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Names of the attributes with mutable values handed out to the application.
+   * Kept on {@linkplain #reset() reset}, as the values may still be modified in place.
+   */
+  private final Set<String> accessedAttributes = ConcurrentHashMap.newKeySet();
+
   public void reset() {
     dirty = false;
+    changedAttributes.clear();
   }
 
   public boolean isChanged(Object prevValue, Object value) {
@@ -17,6 +33,38 @@ public class DirtySessionTracker {
     dirty = true;
   }
 
+  public void markDirty(String attribute) {
+    dirty = true;
+    changedAttributes.add(attribute);
+  }
+
+  public Set<String> getChangedAttributes() {
+    return changedAttributes;
+  }
+
+  public void markAccessed(String attribute, Object value) {
+    if (value != null && !isImmutable(value)) {
+      accessedAttributes.add(attribute);
+    }
+  }
+
+  public Set<String> getAccessedAttributes() {
+    return accessedAttributes;
+  }
+
+  private static boolean isImmutable(Object value) {
+    return value instanceof String ||
+        value instanceof Long ||
+        value instanceof Integer ||
+        value instanceof Boolean ||
+        value instanceof Double ||
+        value instanceof Float ||
+        value instanceof BigDecimal ||
+        value instanceof Instant ||
+        value instanceof Enum ||
+        value instanceof UUID;
+  }
+
   public boolean isDirty() {
     return dirty;
   }
@@ -0,0 +1,246 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.pack.SessionSnapshot;
+import mobi.eyeline.rsm.storage.MessageListener;
+import mobi.eyeline.rsm.storage.StorageClient;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory cache of recently used sessions, to skip storage round trip and payload parsing
+ * when the same node serves a session repeatedly.
+ *
+ * <p>Entries are evicted in LRU order once the size limit is exceeded and expire after a fixed
+ * time since caching. Each node {@linkplain #saved announces} session updates and removals
+ * over a storage pub/sub channel, so that other nodes drop their outdated copies.
+ *
+ * <p>Note that invalidation is asynchronous, so a node may still serve the previous session
+ * state for a short time after it has been updated elsewhere. Entry lifetime bounds that window,
+ * including the case of lost notifications. While the subscription is down caching is disabled.
+ */
+public class NearCache implements Closeable, MessageListener {
+
+  /** Pub/sub channel for session change notifications. */
+  public static final String CHANNEL = "rsm:session-changes";
+
+  /** Version announced on session removal, never matches any cached entry. */
+  private static final long REMOVED = 0;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final StorageClient storageClient;
+  private final long ttlMillis;
+
+  // Guarded by `this'.
+  private final LinkedHashMap<String, CachedSession> entries;
+  private long invalidations;
+
+  private volatile boolean active;
+  private Closeable subscription;
+
+  /**
+   * @param maxSize   Maximal number of cached sessions.
+   * @param ttlMillis Entry lifetime.
+   */
+  public NearCache(StorageClient storageClient, final int maxSize, long ttlMillis) {
+    this.storageClient = storageClient;
+    this.ttlMillis = ttlMillis;
+
+    entries = new LinkedHashMap<String, CachedSession>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedSession> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
+  public void start() {
+    subscription = storageClient.subscribe(CHANNEL, this);
+  }
+
+  /**
+   * @return Token to pass to {@link #loaded}, taken before requesting the session from storage.
+   */
+  public synchronized long stamp() {
+    return invalidations;
+  }
+
+  /**
+   * @return Cached session or {@code null} if none.
+   */
+  public SessionSnapshot get(String id) {
+    if (!active) {
+      return null;
+    }
+
+    synchronized (this) {
+      final CachedSession entry = entries.get(id);
+      if (entry == null) {
+        return null;
+      }
+
+      if (System.currentTimeMillis() >= entry.expiresAt) {
+        entries.remove(id);
+        return null;
+      }
+
+      return entry.snapshot;
+    }
+  }
+
+  /**
+   * Caches the session read from the storage, unless any session has changed since
+   * the {@linkplain #stamp() stamp} was taken, as the data read might be already outdated.
+   */
+  public void loaded(SessionSnapshot snapshot, long stamp) {
+    if (!active) {
+      return;
+    }
+
+    synchronized (this) {
+      if (stamp == invalidations) {
+        put(snapshot);
+      }
+    }
+  }
+
+  /**
+   * Caches the session just written to the storage and notifies other nodes.
+   */
+  public void saved(SessionSnapshot snapshot) {
+    if (active) {
+      synchronized (this) {
+        put(snapshot);
+      }
+    }
+
+    publish(snapshot.getId(), snapshot.getVersion());
+  }
+
+  /**
+   * Drops the session removed from the storage and notifies other nodes.
+   */
+  public void removed(String id) {
+    synchronized (this) {
+      invalidate(id, REMOVED);
+    }
+
+    publish(id, REMOVED);
+  }
+
+  private void put(SessionSnapshot snapshot) {
+    entries.put(snapshot.getId(), new CachedSession(snapshot, System.currentTimeMillis() + ttlMillis));
+  }
+
+  private void invalidate(String id, long version) {
+    final CachedSession entry = entries.get(id);
+    if (entry != null && entry.snapshot.getVersion() == version) {
+      // Own notification or the same state anyway.
+      return;
+    }
+
+    invalidations++;
+    entries.remove(id);
+  }
+
+  private void publish(String id, long version) {
+    try (MessageBufferPacker packer = MessagePack.newDefaultBufferPacker()) {
+      packer.packArrayHeader(2);
+      packer.packString(id);
+      packer.packLong(version);
+
+      storageClient
+          .publish(CHANNEL, packer.toByteArray())
+          .whenComplete((receivers, e) -> {
+            if (e != null) {
+              log.log(Level.WARNING, "Failed publishing session change, ID = [" + id + "]", e);
+            }
+          });
+
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed encoding session change, ID = [" + id + "]", e);
+    }
+  }
+
+  @Override
+  public void onMessage(byte[] message) {
+    final String id;
+    final long version;
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(message)) {
+      unpacker.unpackArrayHeader();
+      id = unpacker.unpackString();
+      version = unpacker.unpackLong();
+
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Malformed session change notification", e);
+      return;
+    }
+
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest("Session changed: ID = [" + id + "], version = [" + version + "]");
+    }
+
+    synchronized (this) {
+      invalidate(id, version);
+    }
+  }
+
+  @Override
+  public synchronized void onSubscribe() {
+    log.fine("Subscribed to session changes");
+
+    // Notifications might have been lost while not subscribed.
+    clear();
+    active = true;
+  }
+
+  @Override
+  public synchronized void onUnsubscribe() {
+    log.fine("Unsubscribed from session changes");
+
+    active = false;
+    clear();
+  }
+
+  private void clear() {
+    invalidations++;
+    entries.clear();
+  }
+
+  @Override
+  public void close() {
+    if (subscription != null) {
+      try {
+        subscription.close();
+
+      } catch (IOException e) {
+        log.log(Level.FINE, "Failed closing subscription", e);
+      }
+    }
+
+    synchronized (this) {
+      active = false;
+      clear();
+    }
+  }
+
+  private static class CachedSession {
+    final SessionSnapshot snapshot;
+    final long expiresAt;
+
+    CachedSession(SessionSnapshot snapshot, long expiresAt) {
+      this.snapshot = snapshot;
+      this.expiresAt = expiresAt;
+    }
+  }
+}
@@ -8,7 +8,10 @@ public enum PersistenceStrategy {
   ON_CHANGE,
 
   /** Persist on every request. */
-  ALWAYS;
+  ALWAYS,
+
+  /** Persist on change, as {@link #ON_CHANGE}, but in background after the request completes. */
+  ASYNC;
 
   public static PersistenceStrategy fromName(String name) {
     return Arrays.stream(PersistenceStrategy.values())
@@ -0,0 +1,212 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.pack.NameTable;
+import mobi.eyeline.rsm.storage.StorageClient;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Attribute name table stored once in the storage and cached by each node.
+ *
+ * <p>A name is registered in the table after a node has written it {@value #REGISTER_AFTER}
+ * times, up to {@value #MAX_SIZE} names in total. The table is append-only, so its size serves
+ * as its version: indices known to a node never change, and a node only reloads the table on
+ * reading an index it doesn't know yet, i.e. one registered by another node.
+ *
+ * <p>Note that payloads refer to the table, so it should be neither deleted nor evicted.
+ */
+public class SharedNameTable implements NameTable {
+
+  /** Storage key, an {@linkplain StorageClient#addToIndex index} of the names. */
+  public static final String KEY = "rsm:attribute-names";
+
+  static final int MAX_SIZE = 1024;
+  static final int REGISTER_AFTER = 100;
+
+  /** Names counted for registration, bounds memory use for dynamically built names. */
+  private static final int MAX_CANDIDATES = 10_000;
+
+  /**
+   * Limits reloads in case a payload refers to an index missing in the storage.
+   * Indices not looked up by a reload yet are always reloaded for.
+   */
+  private static final long MIN_RELOAD_INTERVAL_MILLIS = 1000;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final StorageClient storageClient;
+
+  private volatile Table table = new Table(new String[0], Collections.emptyMap());
+
+  /** Use counts of the names not in the table. */
+  private final ConcurrentMap<String, AtomicInteger> candidates = new ConcurrentHashMap<>();
+
+  // Guarded by `reloadLock'. Not `this', which is taken by the reload completion.
+  private final Object reloadLock = new Object();
+  private long lastReload;
+
+  /** Highest index the last reload failed to resolve, {@code -1} if none. */
+  private int unresolved = -1;
+
+  public SharedNameTable(StorageClient storageClient) {
+    this.storageClient = storageClient;
+  }
+
+  public void start() {
+    try {
+      reload().get();
+
+    } catch (InterruptedException | ExecutionException e) {
+      log.log(Level.WARNING, "Failed loading attribute names, writing them literally until loaded", e);
+    }
+  }
+
+  /**
+   * @return Number of names known, which is also the table version.
+   */
+  public int size() {
+    return table.names.length;
+  }
+
+  @Override
+  public int indexOf(String name) {
+    final Integer index = table.indices.get(name);
+    if (index != null) {
+      return index;
+    }
+
+    count(name);
+    return -1;
+  }
+
+  @Override
+  public String nameAt(int index) {
+    if (index < 0) {
+      return null;
+    }
+
+    if (index >= table.names.length) {
+      reloadFor(index);
+    }
+
+    final Table current = table;
+    return index < current.names.length ? current.names[index] : null;
+  }
+
+  private void reloadFor(int index) {
+    synchronized (reloadLock) {
+      if (index < table.names.length) {
+        // Reloaded by a concurrent caller.
+        return;
+      }
+
+      final long now = System.currentTimeMillis();
+      if (index <= unresolved && now - lastReload < MIN_RELOAD_INTERVAL_MILLIS) {
+        // Missing as of the last reload, likely not registered at all.
+        return;
+      }
+      lastReload = now;
+
+      try {
+        reload().get();
+
+      } catch (InterruptedException | ExecutionException e) {
+        log.log(Level.WARNING, "Failed reloading attribute names", e);
+      }
+
+      unresolved = index < table.names.length ? -1 : Math.max(unresolved, index);
+    }
+  }
+
+  private void count(String name) {
+    AtomicInteger count = candidates.get(name);
+    if (count == null) {
+      if (candidates.size() >= MAX_CANDIDATES) {
+        return;
+      }
+      count = candidates.computeIfAbsent(name, k -> new AtomicInteger());
+    }
+
+    if (count.incrementAndGet() == REGISTER_AFTER) {
+      register(name);
+    }
+  }
+
+  private void register(String name) {
+    storageClient.addToIndex(KEY, name, MAX_SIZE)
+        .thenCompose(index -> {
+          if (index < 0) {
+            if (log.isLoggable(Level.FINE)) {
+              log.fine("Attribute name table is full, [" + name + "] is written literally");
+            }
+            return CompletableFuture.completedFuture(null);
+          }
+
+          candidates.remove(name);
+          return reload();
+        })
+        .exceptionally(e -> {
+          log.log(Level.WARNING, "Failed registering attribute name [" + name + "]", e);
+          // Count again from scratch.
+          candidates.remove(name);
+          return null;
+        });
+  }
+
+  private CompletableFuture<Void> reload() {
+    return storageClient.getFields(KEY).thenAccept(this::loaded);
+  }
+
+  private synchronized void loaded(Map<String, byte[]> fields) {
+    final Table current = table;
+
+    final Map<String, Integer> indices = new HashMap<>();
+    int size = 0;
+    if (fields != null) {
+      for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+        final int index = Integer.parseInt(new String(field.getValue(), UTF_8));
+        indices.put(field.getKey(), index);
+        size = Math.max(size, index + 1);
+      }
+    }
+
+    final String[] names = new String[size];
+    indices.forEach((name, index) -> names[index] = name);
+
+    for (int i = 0; i < current.names.length; i++) {
+      if (i >= names.length || !Objects.equals(current.names[i], names[i])) {
+        log.warning("Attribute name table has been replaced in the storage," +
+            " sessions written with the previous one may fail to load");
+        break;
+      }
+    }
+
+    if (names.length != current.names.length) {
+      log.info("Loaded " + names.length + " attribute names");
+    }
+
+    table = new Table(names, indices);
+  }
+
+  private static class Table {
+    final String[] names;
+    final Map<String, Integer> indices;
+
+    Table(String[] names, Map<String, Integer> indices) {
+      this.names = names;
+      this.indices = indices;
+    }
+  }
+}
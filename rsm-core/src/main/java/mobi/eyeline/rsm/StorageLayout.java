@@ -0,0 +1,22 @@
+package mobi.eyeline.rsm;
+
+import java.util.Arrays;
+
+public enum StorageLayout {
+
+  /** Session is stored as a single serialized value. */
+  BLOB,
+
+  /**
+   * Session is stored as a hash, with a field per attribute,
+   * so that changes are written without rewriting the whole session.
+   */
+  HASH;
+
+  public static StorageLayout fromName(String name) {
+    return Arrays.stream(StorageLayout.values())
+        .filter(layout -> layout.name().equalsIgnoreCase(name))
+        .findFirst()
+        .orElseThrow(() -> new IllegalArgumentException("Invalid storage layout: [" + name + "]"));
+  }
+}
@@ -0,0 +1,65 @@
+package mobi.eyeline.rsm;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of session "touches", i.e. lifetime refreshes of unchanged sessions.
+ *
+ * <p>Tracks the time each session's lifetime was last refreshed by this node,
+ * either by a touch or by a full save.
+ */
+public class TouchThrottle {
+
+  private final long intervalMillis;
+
+  private final ConcurrentMap<String, Long> lastRefreshed = new ConcurrentHashMap<>();
+  private final AtomicLong lastPurged = new AtomicLong(System.currentTimeMillis());
+
+  /**
+   * @param intervalMillis Minimal interval between two touches of the same session.
+   */
+  public TouchThrottle(long intervalMillis) {
+    this.intervalMillis = intervalMillis;
+  }
+
+  /**
+   * @return {@code true} if the session should be touched now.
+   */
+  public boolean tryTouch(String id) {
+    final long now = System.currentTimeMillis();
+    purgeIfNecessary(now);
+
+    final Long prev = lastRefreshed.get(id);
+    if (prev != null && now - prev < intervalMillis) {
+      return false;
+    }
+
+    // Lost race means someone else is touching the same session right now.
+    return prev == null ?
+        lastRefreshed.putIfAbsent(id, now) == null :
+        lastRefreshed.replace(id, prev, now);
+  }
+
+  /**
+   * Registers lifetime refresh by means other than touch, e.g. session save.
+   */
+  public void refreshed(String id) {
+    final long now = System.currentTimeMillis();
+    purgeIfNecessary(now);
+
+    lastRefreshed.put(id, now);
+  }
+
+  public void forget(String id) {
+    lastRefreshed.remove(id);
+  }
+
+  private void purgeIfNecessary(long now) {
+    final long prev = lastPurged.get();
+    if (now - prev >= intervalMillis && lastPurged.compareAndSet(prev, now)) {
+      lastRefreshed.values().removeIf(time -> now - time >= intervalMillis);
+    }
+  }
+}
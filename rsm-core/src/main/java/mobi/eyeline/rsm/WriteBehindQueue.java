@@ -0,0 +1,342 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.storage.StorageClient;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded queue of session writes, flushed to the storage by a background thread.
+ *
+ * <p>At most one write per session is pending: a newer write (or removal) of the same session
+ * replaces the queued one. Writes of the same session are never in flight concurrently,
+ * so they reach the storage in order.
+ *
+ * <p>Pending writes should be checked by {@link #pending(String)} before loading a session,
+ * as the storage doesn't reflect them yet.
+ */
+public class WriteBehindQueue implements Closeable {
+
+  /** What to do with a write when the queue is full. */
+  public enum OverflowPolicy {
+
+    /** Caller performs the write synchronously. */
+    SYNC,
+
+    /** Caller waits until the queue has room. */
+    BLOCK;
+
+    public static OverflowPolicy fromName(String name) {
+      return Arrays.stream(OverflowPolicy.values())
+          .filter(policy -> policy.name().equalsIgnoreCase(name))
+          .findFirst()
+          .orElseThrow(() -> new IllegalArgumentException("Invalid write-behind overflow policy: [" + name + "]"));
+    }
+  }
+
+  private static final int MAX_BATCH_SIZE = 256;
+  private static final int MAX_ATTEMPTS = 3;
+  private static final int CLOSE_TIMEOUT_SECONDS = 10;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final StorageClient storageClient;
+  private final int maxPending;
+  private final OverflowPolicy overflowPolicy;
+
+  private final Thread writer;
+
+  // Guarded by `this'.
+  private final LinkedHashMap<String, PendingWrite> pending = new LinkedHashMap<>();
+  private final Map<String, PendingWrite> inFlight = new HashMap<>();
+  private boolean closed;
+
+  // Metrics.
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong overflows = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private volatile long lastFlushLagMillis;
+
+  /**
+   * @param maxPending Maximal number of sessions with pending writes.
+   */
+  public WriteBehindQueue(StorageClient storageClient, int maxPending, OverflowPolicy overflowPolicy) {
+    this.storageClient = storageClient;
+    this.maxPending = maxPending;
+    this.overflowPolicy = overflowPolicy;
+
+    writer = new Thread(this::run, "rsm-write-behind");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Queues session write.
+   *
+   * @param onWritten Invoked on the writer thread once the write succeeds,
+   *                  unless superseded by another write of the same session.
+   *                  Runs under the queue lock, so should be short.
+   * @return {@code false} if the queue is full, and the caller should write synchronously.
+   */
+  public boolean set(String id, int lifetimeSeconds, byte[] payload, Runnable onWritten) {
+    return offer(new PendingWrite(id, lifetimeSeconds, payload, onWritten));
+  }
+
+  /**
+   * Queues session removal, discarding its pending write if any.
+   *
+   * @see #set(String, int, byte[], Runnable)
+   */
+  public boolean delete(String id, Runnable onDeleted) {
+    return offer(new PendingWrite(id, 0, null, onDeleted));
+  }
+
+  /**
+   * @return Latest queued or not yet completed write of the session, {@code null} if none.
+   */
+  public synchronized PendingWrite pending(String id) {
+    final PendingWrite write = pending.get(id);
+    return write != null ? write : inFlight.get(id);
+  }
+
+  private synchronized boolean offer(PendingWrite write) {
+    if (closed) {
+      return false;
+    }
+
+    final PendingWrite prev = pending.get(write.id);
+    if (prev != null) {
+      // Lag is measured since the first of the coalesced writes.
+      write.queuedAt = prev.queuedAt;
+      pending.put(write.id, write);
+      coalesced.incrementAndGet();
+      return true;
+    }
+
+    if (pending.size() >= maxPending) {
+      overflows.incrementAndGet();
+
+      // Synchronous write can't be issued while the previous one is in flight, as it may overtake.
+      while (!closed && pending.size() >= maxPending &&
+          (overflowPolicy == OverflowPolicy.BLOCK || inFlight.containsKey(write.id))) {
+        try {
+          wait();
+
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        }
+      }
+
+      if (closed || pending.size() >= maxPending) {
+        return false;
+      }
+    }
+
+    pending.put(write.id, write);
+    notifyAll();
+    return true;
+  }
+
+  private void run() {
+    while (true) {
+      final List<PendingWrite> batch = nextBatch();
+      if (batch == null) {
+        return;
+      }
+
+      flush(batch);
+    }
+  }
+
+  /**
+   * @return Pending writes moved to in-flight, {@code null} once closed and drained.
+   */
+  private synchronized List<PendingWrite> nextBatch() {
+    while (pending.isEmpty()) {
+      if (closed) {
+        return null;
+      }
+
+      try {
+        wait();
+
+      } catch (InterruptedException e) {
+        // Interrupted on close timeout, pending writes are lost.
+        return null;
+      }
+    }
+
+    final List<PendingWrite> batch = new ArrayList<>(Math.min(pending.size(), MAX_BATCH_SIZE));
+    final Iterator<PendingWrite> it = pending.values().iterator();
+    while (it.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+      final PendingWrite write = it.next();
+      it.remove();
+      inFlight.put(write.id, write);
+      batch.add(write);
+    }
+
+    // Room for new writes.
+    notifyAll();
+    return batch;
+  }
+
+  private void flush(List<PendingWrite> batch) {
+    final CompletableFuture<?>[] results = new CompletableFuture<?>[batch.size()];
+    for (int i = 0; i < batch.size(); i++) {
+      final PendingWrite write = batch.get(i);
+      final CompletableFuture<?> rc = write.isDelete() ?
+          storageClient.delete(write.id) :
+          storageClient.set(write.id, write.lifetimeSeconds, write.payload);
+
+      results[i] = rc.handle((ok, e) -> {
+        completed(write, e);
+        return null;
+      });
+    }
+
+    CompletableFuture.allOf(results).join();
+  }
+
+  private void completed(PendingWrite write, Throwable e) {
+    synchronized (this) {
+      inFlight.remove(write.id);
+
+      if (e == null) {
+        lastFlushLagMillis = System.currentTimeMillis() - write.queuedAt;
+
+        // Checked under the lock, so that a newer write is either seen here or queued afterwards.
+        if (write.onWritten != null && !pending.containsKey(write.id)) {
+          try {
+            write.onWritten.run();
+
+          } catch (Exception ce) {
+            log.log(Level.WARNING, "Write completion failed, ID = [" + write.id + "]", ce);
+          }
+        }
+
+      } else {
+        failures.incrementAndGet();
+
+        if (++write.attempts < MAX_ATTEMPTS && !pending.containsKey(write.id)) {
+          log.log(Level.WARNING, "Session write failed, retrying, ID = [" + write.id + "]", e);
+          pending.put(write.id, write);
+
+        } else {
+          log.log(Level.SEVERE, "Session write failed, ID = [" + write.id + "]", e);
+        }
+      }
+
+      notifyAll();
+    }
+  }
+
+  /**
+   * @return Number of sessions with queued or in-flight writes.
+   */
+  public synchronized int getDepth() {
+    return pending.size() + inFlight.size();
+  }
+
+  /**
+   * @return Age of the oldest write not completed yet, in milliseconds.
+   */
+  public synchronized long getFlushLagMillis() {
+    long oldest = Long.MAX_VALUE;
+    for (PendingWrite write : inFlight.values()) {
+      oldest = Math.min(oldest, write.queuedAt);
+    }
+    if (!pending.isEmpty()) {
+      oldest = Math.min(oldest, pending.values().iterator().next().queuedAt);
+    }
+
+    return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+  }
+
+  /**
+   * @return Time from queueing to completion of the last successful write, in milliseconds.
+   */
+  public long getLastFlushLagMillis() {
+    return lastFlushLagMillis;
+  }
+
+  /** @return Number of writes replaced by newer ones of the same session. */
+  public long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  /** @return Number of writes which found the queue full. */
+  public long getOverflowCount() {
+    return overflows.get();
+  }
+
+  /** @return Number of failed write attempts. */
+  public long getFailureCount() {
+    return failures.get();
+  }
+
+  /**
+   * Flushes the pending writes and stops the writer.
+   * New writes are rejected, i.e. should be done synchronously.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+
+    try {
+      writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+      if (writer.isAlive()) {
+        log.warning("Pending session writes not flushed in " + CLOSE_TIMEOUT_SECONDS + " seconds," +
+            " depth = " + getDepth());
+        writer.interrupt();
+      }
+
+    } catch (InterruptedException e) {
+      writer.interrupt();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  public static final class PendingWrite {
+    private final String id;
+    private final int lifetimeSeconds;
+    private final byte[] payload;
+    private final Runnable onWritten;
+
+    // Guarded by the queue.
+    private long queuedAt = System.currentTimeMillis();
+    private int attempts;
+
+    private PendingWrite(String id, int lifetimeSeconds, byte[] payload, Runnable onWritten) {
+      this.id = id;
+      this.lifetimeSeconds = lifetimeSeconds;
+      this.payload = payload;
+      this.onWritten = onWritten;
+    }
+
+    /**
+     * @return Serialized session, {@code null} for removal.
+     */
+    public byte[] getPayload() {
+      return payload;
+    }
+
+    public boolean isDelete() {
+      return payload == null;
+    }
+  }
+}
@@ -1,15 +1,19 @@
 package mobi.eyeline.rsm.model;
 
 import java.io.Serializable;
+import java.util.Map;
 
 /**
  * Internal {@linkplain PersistedSession session} metadata.
  */
 public class PersistedSessionMetadata implements Serializable {
 
-  /** Attributes hash, for dirty checking. */
+  /** Hash of all the encoded attributes. */
   private long attrHash;
 
+  /** Per-attribute hashes of the stored values, for dirty checking and partial updates. */
+  private Map<String, Long> attrHashes;
+
   public PersistedSessionMetadata() {
     this(0);
   }
@@ -26,4 +30,12 @@ public class PersistedSessionMetadata implements Serializable {
     this.attrHash = attrHash;
   }
 
+  public Map<String, Long> getAttrHashes() {
+    return attrHashes;
+  }
+
+  public void setAttrHashes(Map<String, Long> attrHashes) {
+    this.attrHashes = attrHashes;
+  }
+
 }
@@ -0,0 +1,30 @@
+package mobi.eyeline.rsm.pack;
+
+import java.io.IOException;
+
+/**
+ * Encoding of an application-specific attribute type, stored as a MessagePack extension value.
+ *
+ * <p>Codecs are discovered with {@link java.util.ServiceLoader} using the web application
+ * class loader, i.e. listed in {@code META-INF/services/mobi.eyeline.rsm.pack.AttributeCodec}.
+ * Implementations should be thread-safe.
+ *
+ * @see AttributeCodecs
+ */
+public interface AttributeCodec<T> {
+
+  /**
+   * @return Attribute class, matched exactly. Subclasses need codecs of their own.
+   */
+  Class<T> getType();
+
+  /**
+   * @return Extension type ID stored in payloads, from {@value AttributeCodecs#MIN_APPLICATION_TYPE}
+   * to {@code 127}. Should never change once sessions are stored.
+   */
+  byte getExtensionType();
+
+  byte[] encode(T value) throws IOException;
+
+  T decode(byte[] data) throws IOException;
+}
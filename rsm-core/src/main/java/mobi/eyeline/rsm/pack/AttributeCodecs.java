@@ -0,0 +1,101 @@
+package mobi.eyeline.rsm.pack;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.logging.Logger;
+
+/**
+ * Registry of {@linkplain AttributeCodec codecs} for attribute types not supported by
+ * MessagePack natively, keyed both by class and by extension type ID.
+ *
+ * <p>Built-in codecs handle {@code Double}, {@code Float}, {@code BigDecimal}, {@code Instant},
+ * {@code Date}, enums and primitive arrays, and use extension types below
+ * {@value #MIN_APPLICATION_TYPE}.
+ */
+public final class AttributeCodecs {
+
+  private static final Logger log = Logger.getLogger(AttributeCodecs.class.getName());
+
+  /** Extension types below are reserved for the built-in codecs. */
+  public static final int MIN_APPLICATION_TYPE = 32;
+
+  /** Built-in codecs only, resolving enums with the library class loader. */
+  static final AttributeCodecs BUILT_IN = new AttributeCodecs(AttributeCodecs.class.getClassLoader());
+
+  private final Map<Class<?>, AttributeCodec<?>> byClass = new HashMap<>();
+  private final Map<Byte, AttributeCodec<?>> byType = new HashMap<>();
+
+  /** Handles any enum, not registered by class. */
+  private final AttributeCodec<Enum<?>> enumCodec;
+
+  private AttributeCodecs(ClassLoader loader) {
+    enumCodec = BuiltInCodecs.forEnums(loader);
+    byType.put(enumCodec.getExtensionType(), enumCodec);
+
+    for (AttributeCodec<?> codec : BuiltInCodecs.create()) {
+      register(codec);
+    }
+  }
+
+  /**
+   * Built-in codecs, and the application ones found by {@link ServiceLoader}.
+   *
+   * @param loader Web application class loader, used to look up codecs and enum classes.
+   *               If {@code null}, the library class loader is used.
+   * @throws IllegalArgumentException If codecs conflict on the type or extension type ID.
+   */
+  public static AttributeCodecs load(ClassLoader loader) {
+    if (loader == null) {
+      loader = AttributeCodecs.class.getClassLoader();
+    }
+
+    final AttributeCodecs codecs = new AttributeCodecs(loader);
+
+    for (AttributeCodec<?> codec : ServiceLoader.load(AttributeCodec.class, loader)) {
+      if (codec.getExtensionType() < MIN_APPLICATION_TYPE) {
+        throw new IllegalArgumentException("Codec [" + codec.getClass().getName() + "]" +
+            " uses extension type [" + codec.getExtensionType() + "] reserved for built-in codecs");
+      }
+
+      codecs.register(codec);
+      log.info("Using attribute codec [" + codec.getClass().getName() + "]" +
+          " for [" + codec.getType().getName() + "]");
+    }
+
+    return codecs;
+  }
+
+  private void register(AttributeCodec<?> codec) {
+    final AttributeCodec<?> sameType = byType.putIfAbsent(codec.getExtensionType(), codec);
+    if (sameType != null) {
+      throw new IllegalArgumentException("Codecs [" + sameType.getClass().getName() + "] and" +
+          " [" + codec.getClass().getName() + "] use the same extension type [" + codec.getExtensionType() + "]");
+    }
+
+    final AttributeCodec<?> sameClass = byClass.putIfAbsent(codec.getType(), codec);
+    if (sameClass != null) {
+      throw new IllegalArgumentException("Codecs [" + sameClass.getClass().getName() + "] and" +
+          " [" + codec.getClass().getName() + "] handle the same type [" + codec.getType().getName() + "]");
+    }
+  }
+
+  /**
+   * @return Codec for the value, or {@code null} if the type is not supported.
+   */
+  @SuppressWarnings("unchecked")
+  AttributeCodec<Object> forValue(Object value) {
+    final AttributeCodec<?> codec = byClass.get(value.getClass());
+    if (codec == null && value instanceof Enum) {
+      return (AttributeCodec) enumCodec;
+    }
+    return (AttributeCodec<Object>) codec;
+  }
+
+  /**
+   * @return Codec by extension type ID, or {@code null} if unknown.
+   */
+  AttributeCodec<?> forType(byte type) {
+    return byType.get(type);
+  }
+}
@@ -0,0 +1,318 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Codecs of common JDK types.
+ *
+ * <p>Extension type IDs are stored in payloads, so should never be reassigned.
+ * {@code 1} is taken by {@linkplain UUIDValue UUID}, and {@code -1} is the standard
+ * MessagePack timestamp.
+ */
+class BuiltInCodecs {
+
+  private static final Logger log = Logger.getLogger(SessionSerializer.class.getName());
+
+  private static final byte TIMESTAMP = -1;
+  private static final byte DOUBLE = 2;
+  private static final byte FLOAT = 3;
+  private static final byte BIG_DECIMAL = 4;
+  private static final byte DATE = 5;
+  private static final byte ENUM = 6;
+  private static final byte BOOLEAN_ARRAY = 7;
+  private static final byte SHORT_ARRAY = 8;
+  private static final byte CHAR_ARRAY = 9;
+  private static final byte INT_ARRAY = 10;
+  private static final byte LONG_ARRAY = 11;
+  private static final byte FLOAT_ARRAY = 12;
+  private static final byte DOUBLE_ARRAY = 13;
+  private static final byte BYTE_ARRAY = 14;
+
+  private BuiltInCodecs() {}
+
+  /**
+   * Codecs matched by class.
+   */
+  static List<AttributeCodec<?>> create() {
+    return Arrays.asList(
+        new Codec<>(Double.class, DOUBLE,
+            v -> ByteBuffer.allocate(8).putDouble(v).array(),
+            data -> ByteBuffer.wrap(data).getDouble()),
+
+        new Codec<>(Float.class, FLOAT,
+            v -> ByteBuffer.allocate(4).putFloat(v).array(),
+            data -> ByteBuffer.wrap(data).getFloat()),
+
+        new Codec<>(BigDecimal.class, BIG_DECIMAL,
+            BuiltInCodecs::encodeBigDecimal,
+            BuiltInCodecs::decodeBigDecimal),
+
+        new Codec<>(Instant.class, TIMESTAMP,
+            BuiltInCodecs::encodeTimestamp,
+            BuiltInCodecs::decodeTimestamp),
+
+        new Codec<>(Date.class, DATE,
+            v -> ByteBuffer.allocate(8).putLong(v.getTime()).array(),
+            data -> new Date(ByteBuffer.wrap(data).getLong())),
+
+        // Not MessagePack binary, which `cmsgpack' reads differently.
+        new Codec<>(byte[].class, BYTE_ARRAY,
+            byte[]::clone,
+            data -> data),
+
+        new Codec<>(boolean[].class, BOOLEAN_ARRAY,
+            v -> {
+              final byte[] data = new byte[v.length];
+              for (int i = 0; i < v.length; i++) {
+                data[i] = (byte) (v[i] ? 1 : 0);
+              }
+              return data;
+            },
+            data -> {
+              final boolean[] v = new boolean[data.length];
+              for (int i = 0; i < data.length; i++) {
+                v[i] = data[i] != 0;
+              }
+              return v;
+            }),
+
+        new Codec<>(short[].class, SHORT_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 2);
+              buf.asShortBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final short[] v = new short[data.length / 2];
+              ByteBuffer.wrap(data).asShortBuffer().get(v);
+              return v;
+            }),
+
+        new Codec<>(char[].class, CHAR_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 2);
+              buf.asCharBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final char[] v = new char[data.length / 2];
+              ByteBuffer.wrap(data).asCharBuffer().get(v);
+              return v;
+            }),
+
+        new Codec<>(int[].class, INT_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 4);
+              buf.asIntBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final int[] v = new int[data.length / 4];
+              ByteBuffer.wrap(data).asIntBuffer().get(v);
+              return v;
+            }),
+
+        new Codec<>(long[].class, LONG_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 8);
+              buf.asLongBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final long[] v = new long[data.length / 8];
+              ByteBuffer.wrap(data).asLongBuffer().get(v);
+              return v;
+            }),
+
+        new Codec<>(float[].class, FLOAT_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 4);
+              buf.asFloatBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final float[] v = new float[data.length / 4];
+              ByteBuffer.wrap(data).asFloatBuffer().get(v);
+              return v;
+            }),
+
+        new Codec<>(double[].class, DOUBLE_ARRAY,
+            v -> {
+              final ByteBuffer buf = ByteBuffer.allocate(v.length * 8);
+              buf.asDoubleBuffer().put(v);
+              return buf.array();
+            },
+            data -> {
+              final double[] v = new double[data.length / 8];
+              ByteBuffer.wrap(data).asDoubleBuffer().get(v);
+              return v;
+            })
+    );
+  }
+
+  /**
+   * Enums of any class, stored as class and constant names.
+   *
+   * @param loader Used to resolve enum classes.
+   */
+  @SuppressWarnings("unchecked")
+  static AttributeCodec<Enum<?>> forEnums(ClassLoader loader) {
+    final ConcurrentMap<String, Class<? extends Enum<?>>> classes = new ConcurrentHashMap<>();
+
+    return new Codec<>((Class<Enum<?>>) (Class) Enum.class, ENUM,
+        v -> {
+          final MessageBufferPacker pk = MessagePack.newDefaultBufferPacker();
+          pk.packString(v.getDeclaringClass().getName());
+          pk.packString(v.name());
+          return pk.toByteArray();
+        },
+        data -> {
+          final String className;
+          final String name;
+          try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data)) {
+            className = unpacker.unpackString();
+            name = unpacker.unpackString();
+          }
+
+          try {
+            Class<? extends Enum<?>> type = classes.get(className);
+            if (type == null) {
+              type = (Class<? extends Enum<?>>) Class.forName(className, false, loader).asSubclass(Enum.class);
+              classes.put(className, type);
+            }
+            return enumValue(type, name);
+
+          } catch (ClassNotFoundException | ClassCastException | IllegalArgumentException e) {
+            log.warning("Enum constant [" + className + "." + name + "] cannot be deserialized: " + e);
+            return null;
+          }
+        });
+  }
+
+  /**
+   * Same as {@link Enum#valueOf}, for a class with an unknown type argument.
+   */
+  private static Enum<?> enumValue(Class<? extends Enum<?>> type, String name) {
+    final Enum<?>[] constants = type.getEnumConstants();
+    if (constants != null) {
+      for (Enum<?> constant : constants) {
+        if (constant.name().equals(name)) {
+          return constant;
+        }
+      }
+    }
+    throw new IllegalArgumentException("No enum constant " + type.getName() + "." + name);
+  }
+
+  /** Scale, then the unscaled value bytes. */
+  private static byte[] encodeBigDecimal(BigDecimal v) throws IOException {
+    final byte[] unscaled = v.unscaledValue().toByteArray();
+
+    final MessageBufferPacker pk = MessagePack.newDefaultBufferPacker();
+    pk.packInt(v.scale());
+    pk.writePayload(unscaled);
+    return pk.toByteArray();
+  }
+
+  private static BigDecimal decodeBigDecimal(byte[] data) throws IOException {
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data)) {
+      final int scale = unpacker.unpackInt();
+      final int offset = (int) unpacker.getTotalReadBytes();
+      return new BigDecimal(new BigInteger(Arrays.copyOfRange(data, offset, data.length)), scale);
+    }
+  }
+
+  /**
+   * MessagePack timestamp: 32-bit seconds, 30-bit nanoseconds with 34-bit seconds,
+   * or 32-bit nanoseconds with 64-bit seconds, whichever fits.
+   */
+  private static byte[] encodeTimestamp(Instant v) {
+    final long seconds = v.getEpochSecond();
+    final int nanos = v.getNano();
+
+    if ((seconds >>> 34) == 0) {
+      final long packed = ((long) nanos << 34) | seconds;
+      if ((packed & 0xFFFFFFFF00000000L) == 0) {
+        return ByteBuffer.allocate(4).putInt((int) packed).array();
+      }
+      return ByteBuffer.allocate(8).putLong(packed).array();
+    }
+
+    return ByteBuffer.allocate(12).putInt(nanos).putLong(seconds).array();
+  }
+
+  private static Instant decodeTimestamp(byte[] data) throws IOException {
+    final ByteBuffer buf = ByteBuffer.wrap(data);
+    switch (data.length) {
+      case 4:
+        return Instant.ofEpochSecond(buf.getInt() & 0xFFFFFFFFL);
+
+      case 8:
+        final long packed = buf.getLong();
+        return Instant.ofEpochSecond(packed & 0x3FFFFFFFFL, packed >>> 34);
+
+      case 12:
+        final int nanos = buf.getInt();
+        return Instant.ofEpochSecond(buf.getLong(), nanos);
+
+      default:
+        throw new IOException("Timestamp of [" + data.length + "] bytes is malformed");
+    }
+  }
+
+  private interface Encoder<T> {
+    byte[] encode(T value) throws IOException;
+  }
+
+  private interface Decoder<T> {
+    T decode(byte[] data) throws IOException;
+  }
+
+  private static final class Codec<T> implements AttributeCodec<T> {
+    private final Class<T> type;
+    private final byte extensionType;
+    private final Encoder<T> encoder;
+    private final Decoder<T> decoder;
+
+    Codec(Class<T> type, byte extensionType, Encoder<T> encoder, Decoder<T> decoder) {
+      this.type = type;
+      this.extensionType = extensionType;
+      this.encoder = encoder;
+      this.decoder = decoder;
+    }
+
+    @Override
+    public Class<T> getType() {
+      return type;
+    }
+
+    @Override
+    public byte getExtensionType() {
+      return extensionType;
+    }
+
+    @Override
+    public byte[] encode(T value) throws IOException {
+      return encoder.encode(value);
+    }
+
+    @Override
+    public T decode(byte[] data) throws IOException {
+      return decoder.decode(data);
+    }
+  }
+}
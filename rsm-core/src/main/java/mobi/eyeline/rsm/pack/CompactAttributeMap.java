@@ -0,0 +1,367 @@
+package mobi.eyeline.rsm.pack;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Map keyed by attribute names, keeping keys and values in a single array without per-entry objects.
+ *
+ * <p>Up to {@value #MAX_LINEAR_SIZE} entries are stored densely and looked up by scanning,
+ * which is faster than hashing for a few keys. Larger maps use open addressing with linear
+ * probing, and removed entries are marked rather than shifted, so that iteration is not
+ * disturbed by removals.
+ *
+ * <p>Null keys are not permitted. Not thread-safe.
+ */
+public class CompactAttributeMap<V> extends AbstractMap<String, V> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /** Maximal size kept in the dense layout. */
+  static final int MAX_LINEAR_SIZE = 8;
+
+  private static final Object[] EMPTY = new Object[0];
+
+  /** Key of a removed entry in the hashed layout. */
+  private static final Object REMOVED = new Object();
+
+  /** Keys at even and values at odd indices. */
+  private transient Object[] table;
+
+  private transient int size;
+
+  /** Slots taken by entries or removal marks, hashed layout only. */
+  private transient int used;
+
+  private transient boolean hashed;
+
+  public CompactAttributeMap() {
+    table = EMPTY;
+  }
+
+  /**
+   * @param expectedSize Number of entries to hold without resizing.
+   */
+  public CompactAttributeMap(int expectedSize) {
+    if (expectedSize <= MAX_LINEAR_SIZE) {
+      table = expectedSize == 0 ? EMPTY : new Object[2 * expectedSize];
+
+    } else {
+      table = new Object[2 * capacityFor(expectedSize)];
+      hashed = true;
+    }
+  }
+
+  public CompactAttributeMap(Map<String, ? extends V> map) {
+    this(map.size());
+    putAll(map);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public V get(Object key) {
+    final int i = indexOf(key);
+    return i < 0 ? null : valueAt(i);
+  }
+
+  @Override
+  public V put(String key, V value) {
+    Objects.requireNonNull(key);
+
+    final int i = indexOf(key);
+    if (i >= 0) {
+      final V prev = valueAt(i);
+      table[2 * i + 1] = value;
+      return prev;
+    }
+
+    if (!hashed) {
+      if (size < MAX_LINEAR_SIZE) {
+        if (2 * size == table.length) {
+          final Object[] grown = new Object[2 * Math.min(Math.max(2, 2 * size), MAX_LINEAR_SIZE)];
+          System.arraycopy(table, 0, grown, 0, table.length);
+          table = grown;
+        }
+
+        table[2 * size] = key;
+        table[2 * size + 1] = value;
+        size++;
+        return null;
+      }
+
+      rehash(capacityFor(size + 1));
+
+    } else if (isOverloaded(used + 1)) {
+      rehash(capacityFor(size + 1));
+    }
+
+    insert(key, value);
+    return null;
+  }
+
+  @Override
+  public V remove(Object key) {
+    final int i = indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+
+    final V prev = valueAt(i);
+    removeAt(i);
+    return prev;
+  }
+
+  @Override
+  public void clear() {
+    table = EMPTY;
+    size = 0;
+    used = 0;
+    hashed = false;
+  }
+
+  @Override
+  public void forEach(BiConsumer<? super String, ? super V> action) {
+    final int limit = slots();
+    for (int i = 0; i < limit; i++) {
+      final Object key = table[2 * i];
+      if (key != null && key != REMOVED) {
+        action.accept((String) key, valueAt(i));
+      }
+    }
+  }
+
+  @Override
+  public Set<Entry<String, V>> entrySet() {
+    return new AbstractSet<Entry<String, V>>() {
+      @Override
+      public Iterator<Entry<String, V>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public void clear() {
+        CompactAttributeMap.this.clear();
+      }
+    };
+  }
+
+  private int indexOf(Object key) {
+    if (key == null) {
+      return -1;
+    }
+
+    if (!hashed) {
+      for (int i = 0; i < size; i++) {
+        final Object k = table[2 * i];
+        if (k == key || k.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    final int mask = table.length / 2 - 1;
+    for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+      final Object k = table[2 * i];
+      if (k == null) {
+        return -1;
+      }
+      if (k == key || (k != REMOVED && k.equals(key))) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Places a new key into the first free slot, hashed layout only.
+   */
+  private void insert(String key, Object value) {
+    final int mask = table.length / 2 - 1;
+
+    int i = hash(key) & mask;
+    while (table[2 * i] != null && table[2 * i] != REMOVED) {
+      i = (i + 1) & mask;
+    }
+
+    if (table[2 * i] == null) {
+      used++;
+    }
+    table[2 * i] = key;
+    table[2 * i + 1] = value;
+    size++;
+  }
+
+  private void removeAt(int i) {
+    size--;
+
+    if (hashed) {
+      table[2 * i] = REMOVED;
+      table[2 * i + 1] = null;
+
+    } else {
+      // Keep the entries dense.
+      table[2 * i] = table[2 * size];
+      table[2 * i + 1] = table[2 * size + 1];
+      table[2 * size] = null;
+      table[2 * size + 1] = null;
+    }
+  }
+
+  /**
+   * Moves the entries into a hashed table of the given capacity, dropping removal marks.
+   */
+  private void rehash(int capacity) {
+    final Object[] prev = table;
+    final int prevSlots = slots();
+
+    table = new Object[2 * capacity];
+    size = 0;
+    used = 0;
+    hashed = true;
+
+    for (int i = 0; i < prevSlots; i++) {
+      final Object key = prev[2 * i];
+      if (key != null && key != REMOVED) {
+        insert((String) key, prev[2 * i + 1]);
+      }
+    }
+  }
+
+  private int slots() {
+    return hashed ? table.length / 2 : size;
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int i) {
+    return (V) table[2 * i + 1];
+  }
+
+  private boolean isOverloaded(int slotsUsed) {
+    return 3 * slotsUsed > 2 * (table.length / 2);
+  }
+
+  /**
+   * @return Power of two table capacity for the given size, at most two-thirds full.
+   */
+  private static int capacityFor(int size) {
+    final int min = size + (size >> 1) + 1;
+    return Integer.highestOneBit(min - 1) << 1;
+  }
+
+  private static int hash(Object key) {
+    final int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    out.defaultWriteObject();
+    out.writeInt(size);
+
+    final int limit = slots();
+    for (int i = 0; i < limit; i++) {
+      final Object key = table[2 * i];
+      if (key != null && key != REMOVED) {
+        out.writeObject(key);
+        out.writeObject(table[2 * i + 1]);
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+
+    final int n = in.readInt();
+    table = EMPTY;
+    for (int i = 0; i < n; i++) {
+      put((String) in.readObject(), (V) in.readObject());
+    }
+  }
+
+  private class EntryIterator implements Iterator<Entry<String, V>> {
+    private int next;
+    private int last = -1;
+
+    EntryIterator() {
+      advance();
+    }
+
+    private void advance() {
+      final int limit = slots();
+      while (next < limit && (table[2 * next] == null || table[2 * next] == REMOVED)) {
+        next++;
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < slots();
+    }
+
+    @Override
+    public Entry<String, V> next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      last = next++;
+      advance();
+      return new SlotEntry(last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+
+      removeAt(last);
+      if (!hashed) {
+        // The last entry moved into the removed one's place.
+        next = last;
+      }
+      last = -1;
+    }
+  }
+
+  private class SlotEntry extends SimpleEntry<String, V> {
+    private static final long serialVersionUID = 1L;
+
+    private final int index;
+
+    SlotEntry(int index) {
+      super((String) table[2 * index], valueAt(index));
+      this.index = index;
+    }
+
+    @Override
+    public V setValue(V value) {
+      table[2 * index + 1] = value;
+      return super.setValue(value);
+    }
+  }
+}
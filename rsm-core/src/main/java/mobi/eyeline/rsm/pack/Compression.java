@@ -0,0 +1,173 @@
+package mobi.eyeline.rsm.pack;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Session payload compression, using Deflate with an optional preset dictionary.
+ *
+ * <p>Compressed payloads are marked as a {@linkplain PayloadFormat payload format}, so
+ * uncompressed payloads remain readable as is:
+ *
+ * <pre>
+ *   0xC1 | 0x01 | uncompressed length (4 bytes) | deflate stream
+ * </pre>
+ *
+ * <p>The deflate stream refers to the dictionary by its checksum, so payloads compressed with
+ * an unknown dictionary are reported rather than misread.
+ */
+public final class Compression {
+
+  private static final int HEADER_SIZE = 6;
+
+  /** Deflate expands data at most this much, longer declared lengths are malformed. */
+  private static final int MAX_RATIO = 1032;
+
+  /** Maximal useful dictionary size, limited by the Deflate window. */
+  public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+  /** Payloads are never compressed. */
+  public static final Compression NONE = new Compression(0, null);
+
+  private final int threshold;
+  private final byte[] dictionary;
+  private final int dictionaryId;
+
+  /**
+   * @param threshold  Minimal payload size in bytes to compress, {@code 0} to only decompress.
+   * @param dictionary Preset dictionary, optional. See {@link DictionaryTrainer}.
+   */
+  public Compression(int threshold, byte[] dictionary) {
+    if (dictionary != null && dictionary.length > MAX_DICTIONARY_SIZE) {
+      dictionary = Arrays.copyOfRange(
+          dictionary, dictionary.length - MAX_DICTIONARY_SIZE, dictionary.length);
+    }
+
+    this.threshold = threshold;
+    this.dictionary = dictionary;
+    this.dictionaryId = dictionary == null ? 0 : checksum(dictionary);
+  }
+
+  /**
+   * @param dictionaryPath Preset dictionary file, optional.
+   */
+  public static Compression create(int threshold, String dictionaryPath) throws IOException {
+    final byte[] dictionary =
+        dictionaryPath == null || dictionaryPath.isEmpty() ? null : Files.readAllBytes(Paths.get(dictionaryPath));
+
+    return threshold <= 0 && dictionary == null ? NONE : new Compression(threshold, dictionary);
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * @return Copy of the data, compressed if it exceeds the threshold and compression pays off.
+   */
+  byte[] compress(byte[] data, int offset, int length) {
+    if (threshold <= 0 || length < threshold) {
+      return Arrays.copyOfRange(data, offset, offset + length);
+    }
+
+    final PackBuffers buffers = PackBuffers.get();
+
+    final Deflater deflater = buffers.deflater();
+    deflater.reset();
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    deflater.setInput(data, offset, length);
+    deflater.finish();
+
+    // Only worth it if smaller than the original.
+    final byte[] out = buffers.compressed(Math.max(length, HEADER_SIZE));
+    out[0] = PayloadFormat.MARKER;
+    out[1] = PayloadFormat.DEFLATE;
+    writeInt(out, 2, length);
+
+    int n = HEADER_SIZE;
+    while (!deflater.finished() && n < length) {
+      n += deflater.deflate(out, n, length - n);
+    }
+
+    return deflater.finished() ?
+        Arrays.copyOf(out, n) : Arrays.copyOfRange(data, offset, offset + length);
+  }
+
+  /**
+   * @return Uncompressed payload, the same array if it wasn't compressed.
+   */
+  byte[] decompress(byte[] data) throws IOException {
+    if (!PayloadFormat.isVersioned(data, PayloadFormat.DEFLATE)) {
+      return data;
+    }
+
+    if (data.length < HEADER_SIZE) {
+      throw new IOException("Compressed payload truncated");
+    }
+
+    final int length = readInt(data, 2);
+    if (length < 0 || length > (long) (data.length - HEADER_SIZE) * MAX_RATIO) {
+      throw new IOException("Compressed payload malformed");
+    }
+
+    final byte[] rc = new byte[length];
+
+    final Inflater inflater = PackBuffers.get().inflater();
+    inflater.reset();
+    inflater.setInput(data, HEADER_SIZE, data.length - HEADER_SIZE);
+
+    try {
+      int n = 0;
+      while (n < rc.length) {
+        final int read = inflater.inflate(rc, n, rc.length - n);
+
+        if (read == 0) {
+          if (inflater.needsDictionary()) {
+            if (dictionary == null || inflater.getAdler() != dictionaryId) {
+              throw new IOException("Payload compressed with an unknown dictionary");
+            }
+            inflater.setDictionary(dictionary);
+
+          } else if (inflater.finished() || inflater.needsInput()) {
+            throw new IOException("Compressed payload truncated");
+          }
+        }
+
+        n += read;
+      }
+
+    } catch (DataFormatException e) {
+      throw new IOException("Compressed payload malformed", e);
+    }
+
+    return rc;
+  }
+
+  private static int checksum(byte[] dictionary) {
+    final Adler32 adler = new Adler32();
+    adler.update(dictionary, 0, dictionary.length);
+    return (int) adler.getValue();
+  }
+
+  private static void writeInt(byte[] buf, int offset, int value) {
+    buf[offset]     = (byte) (value >>> 24);
+    buf[offset + 1] = (byte) (value >>> 16);
+    buf[offset + 2] = (byte) (value >>> 8);
+    buf[offset + 3] = (byte) value;
+  }
+
+  private static int readInt(byte[] buf, int offset) {
+    return ((buf[offset] & 0xFF) << 24) |
+        ((buf[offset + 1] & 0xFF) << 16) |
+        ((buf[offset + 2] & 0xFF) << 8) |
+        (buf[offset + 3] & 0xFF);
+  }
+}
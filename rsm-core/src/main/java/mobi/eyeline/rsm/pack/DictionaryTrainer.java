@@ -0,0 +1,209 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Builds a {@linkplain Compression preset dictionary} from sample session payloads.
+ *
+ * <p>Session payloads are dominated by attribute names and enum-like string values repeated
+ * across sessions, so the dictionary is made of the encoded strings found in most samples.
+ * Strings occurring in more samples and saving more bytes are placed closer to the end of
+ * the dictionary, as Deflate encodes shorter distances more compactly.
+ *
+ * <p>Run as {@code DictionaryTrainer <Redis URL> <dictionary file> [samples] [current dictionary]}
+ * to sample sessions stored in Redis. The current dictionary is needed to read sessions
+ * already compressed with it.
+ */
+public class DictionaryTrainer {
+
+  /** Strings found in fewer samples are ignored. */
+  private static final int MIN_SAMPLES = 2;
+
+  private static final int MIN_LENGTH = 4;
+
+  private final Compression compression;
+
+  /** Number of samples each encoded string was found in. */
+  private final Map<ByteBuffer, Integer> counts = new HashMap<>();
+  private int samples;
+
+  /**
+   * @param compression Used to read compressed samples.
+   */
+  public DictionaryTrainer(Compression compression) {
+    this.compression = compression;
+  }
+
+  public DictionaryTrainer() {
+    this(Compression.NONE);
+  }
+
+  /**
+   * @param payload Serialized session.
+   */
+  public void add(byte[] payload) throws IOException {
+    final byte[] data = compression.decompress(payload);
+
+    final Set<ByteBuffer> found = new HashSet<>();
+    final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data);
+    if (PayloadFormat.isVersioned(data, PayloadFormat.V2)) {
+      unpacker.readPayloadAsReference(PayloadFormat.headerLength(data));
+    }
+
+    // Walk the values flat, containers are just skipped into.
+    while (unpacker.hasNext()) {
+      final MessageFormat format = unpacker.getNextFormat();
+
+      switch (format.getValueType()) {
+        case ARRAY:
+          unpacker.unpackArrayHeader();
+          break;
+
+        case MAP:
+          unpacker.unpackMapHeader();
+          break;
+
+        case STRING:
+          final int start = (int) unpacker.getTotalReadBytes();
+          unpacker.skipValue();
+          final int end = (int) unpacker.getTotalReadBytes();
+
+          if (end - start >= MIN_LENGTH) {
+            found.add(ByteBuffer.wrap(data, start, end - start).slice());
+          }
+          break;
+
+        default:
+          unpacker.skipValue();
+      }
+    }
+
+    for (ByteBuffer string : found) {
+      counts.merge(string, 1, Integer::sum);
+    }
+    samples++;
+  }
+
+  public int getSamples() {
+    return samples;
+  }
+
+  /**
+   * @param maxSize Dictionary size limit, at most {@link Compression#MAX_DICTIONARY_SIZE}.
+   */
+  public byte[] build(int maxSize) {
+    final List<Map.Entry<ByteBuffer, Integer>> candidates = new ArrayList<>();
+    for (Map.Entry<ByteBuffer, Integer> entry : counts.entrySet()) {
+      if (entry.getValue() >= MIN_SAMPLES) {
+        candidates.add(entry);
+      }
+    }
+
+    // Most valuable first.
+    candidates.sort((a, b) -> Long.compare(score(b), score(a)));
+
+    final List<ByteBuffer> selected = new ArrayList<>();
+    int size = 0;
+    for (Map.Entry<ByteBuffer, Integer> entry : candidates) {
+      final int length = entry.getKey().remaining();
+      if (size + length <= Math.min(maxSize, Compression.MAX_DICTIONARY_SIZE)) {
+        selected.add(entry.getKey());
+        size += length;
+      }
+    }
+
+    final ByteArrayOutputStream rc = new ByteArrayOutputStream(size);
+    for (int i = selected.size() - 1; i >= 0; i--) {
+      final ByteBuffer string = selected.get(i);
+      rc.write(string.array(), string.arrayOffset() + string.position(), string.remaining());
+    }
+    return rc.toByteArray();
+  }
+
+  private static long score(Map.Entry<ByteBuffer, Integer> entry) {
+    return (long) entry.getValue() * entry.getKey().remaining();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: DictionaryTrainer <Redis URL> <dictionary file>" +
+          " [samples, 1000 by default] [current dictionary file]");
+      System.exit(1);
+    }
+
+    final int maxSamples = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+    final Compression current = args.length > 3 ? Compression.create(0, args[3]) : Compression.NONE;
+
+    // Attribute names written as indices don't matter here.
+    final NameTable anyNames = new NameTable() {
+      @Override
+      public int indexOf(String name) {
+        return -1;
+      }
+
+      @Override
+      public String nameAt(int index) {
+        return "";
+      }
+    };
+
+    final DictionaryTrainer trainer = new DictionaryTrainer(current);
+    final SessionSerializer serializer = new SessionSerializer(null, false, current, anyNames);
+
+    try (Jedis jedis = new Jedis(URI.create(args[0]))) {
+      final ScanParams params = new ScanParams().count(100);
+
+      String cursor = ScanParams.SCAN_POINTER_START;
+      do {
+        final ScanResult<byte[]> page = jedis.scan(cursor.getBytes(UTF_8), params);
+        for (byte[] key : page.getResult()) {
+          if (trainer.getSamples() >= maxSamples) {
+            break;
+          }
+
+          try {
+            final byte[] payload = jedis.get(key);
+            if (payload == null) {
+              continue;
+            }
+
+            // Skip anything other than sessions.
+            serializer.snapshot(payload);
+            trainer.add(payload);
+
+          } catch (IOException | RuntimeException ignored) {
+            // Not a session.
+          }
+        }
+        cursor = page.getStringCursor();
+
+      } while (!cursor.equals(ScanParams.SCAN_POINTER_START) && trainer.getSamples() < maxSamples);
+    }
+
+    final byte[] dictionary = trainer.build(Compression.MAX_DICTIONARY_SIZE);
+    Files.write(Paths.get(args[1]), dictionary);
+
+    System.out.println(
+        "Dictionary of " + dictionary.length + " bytes built from " + trainer.getSamples() + " sessions");
+  }
+}
@@ -0,0 +1,63 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import org.msgpack.core.MessagePacker;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Session with attributes already encoded, ready to be {@linkplain SessionSerializer#serialize(
+ * EncodedSession, mobi.eyeline.rsm.model.PersistedSessionMetadata) serialized}.
+ *
+ * <p>Allows checking attributes hash and writing the payload without encoding attributes twice.
+ * Encoded attributes reside in a reused per-thread buffer, so the instance is only valid until
+ * the next encoding on the same thread.
+ */
+public class EncodedSession {
+
+  final PersistedSession session;
+
+  /** Encoded attributes map. */
+  private final ReusableBufferOutput attributes;
+  private final int attributesGeneration;
+  private final int attributesLength;
+
+  private final long attrHash;
+  private final Map<String, Long> attrHashes;
+
+  EncodedSession(PersistedSession session,
+                 ReusableBufferOutput attributes,
+                 long attrHash,
+                 Map<String, Long> attrHashes) {
+    this.session = session;
+    this.attributes = attributes;
+    this.attributesGeneration = attributes.generation();
+    this.attributesLength = attributes.size();
+    this.attrHash = attrHash;
+    this.attrHashes = attrHashes;
+  }
+
+  /**
+   * @return Hash of the encoded attributes, or {@code 0} if hashing was not requested.
+   */
+  public long getAttrHash() {
+    return attrHash;
+  }
+
+  /**
+   * @return Hashes of the encoded attribute values by name, or {@code null} if these were not
+   * requested or the session has no attribute map.
+   */
+  public Map<String, Long> getAttrHashes() {
+    return attrHashes;
+  }
+
+  void writeAttributes(MessagePacker pk) throws IOException {
+    if (attributes.generation() != attributesGeneration) {
+      throw new IllegalStateException("Encoded attributes buffer has been reused");
+    }
+
+    pk.writePayload(attributes.array(), 0, attributesLength);
+  }
+}
@@ -0,0 +1,182 @@
+package mobi.eyeline.rsm.pack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiPredicate;
+
+/**
+ * Session attributes map, deserializing each value on first access.
+ *
+ * <p>Values which were never accessed are written back as the original encoded bytes.
+ */
+public class LazyAttributeMap extends AbstractMap<String, Object> implements ConcurrentMap<String, Object> {
+
+  /** Values, either decoded or {@linkplain RawValue raw}. */
+  private final ConcurrentMap<String, Object> values;
+
+  private final AttributeCodecs codecs;
+
+  LazyAttributeMap(int size, AttributeCodecs codecs) {
+    this.values = new ConcurrentHashMap<>(MsgPackUtil.capacityFor(size));
+    this.codecs = codecs;
+  }
+
+  /**
+   * Values as stored, without decoding.
+   */
+  Map<String, Object> raw() {
+    return values;
+  }
+
+  /**
+   * Copies the entries without decoding.
+   *
+   * @param filter Predicate for the decoded entries. Encoded ones are always included,
+   *               as they came from the storage in the first place.
+   */
+  public Map<String, Object> snapshot(BiPredicate<String, Object> filter) {
+    final Map<String, Object> rc = new CompactAttributeMap<>(values.size());
+    values.forEach((k, v) -> {
+      if (v instanceof RawValue || filter.test(k, v)) {
+        rc.put(k, v);
+      }
+    });
+    return rc;
+  }
+
+  @Override
+  public Object get(Object key) {
+    while (true) {
+      final Object value = values.get(key);
+      if (!(value instanceof RawValue)) {
+        return value;
+      }
+
+      final Object decoded = decode(value);
+      if (decoded == null) {
+        // Can't store nulls, keep it encoded.
+        return null;
+      }
+
+      if (values.replace((String) key, value, decoded)) {
+        return decoded;
+      }
+    }
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return values.containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return values.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return values.isEmpty();
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    return decode(values.put(key, value));
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return decode(values.remove(key));
+  }
+
+  @Override
+  public void clear() {
+    values.clear();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return values.keySet();
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        final Iterator<String> keys = values.keySet().iterator();
+
+        return new Iterator<Entry<String, Object>>() {
+          @Override
+          public boolean hasNext() {
+            return keys.hasNext();
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            final String key = keys.next();
+            return new SimpleImmutableEntry<>(key, get(key));
+          }
+
+          @Override
+          public void remove() {
+            keys.remove();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return values.size();
+      }
+    };
+  }
+
+  @Override
+  public Object putIfAbsent(String key, Object value) {
+    return decode(values.putIfAbsent(key, value));
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    final Object current = get(key);
+    return current != null && current.equals(value) && values.remove(key, current);
+  }
+
+  @Override
+  public boolean replace(String key, Object oldValue, Object newValue) {
+    final Object current = get(key);
+    return current != null && current.equals(oldValue) && values.replace(key, current, newValue);
+  }
+
+  @Override
+  public Object replace(String key, Object value) {
+    return decode(values.replace(key, value));
+  }
+
+  @Override
+  public String toString() {
+    // Avoid decoding.
+    return values.toString();
+  }
+
+  private Object decode(Object value) {
+    if (!(value instanceof RawValue)) {
+      return value;
+    }
+
+    try {
+      return ((RawValue) value).decode(codecs);
+
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed decoding attribute", e);
+    }
+  }
+}
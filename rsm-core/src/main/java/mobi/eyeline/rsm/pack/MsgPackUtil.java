@@ -1,141 +1,237 @@
 package mobi.eyeline.rsm.pack;
 
-import org.msgpack.value.ExtensionValue;
-import org.msgpack.value.Value;
-import org.msgpack.value.ValueFactory;
+import org.msgpack.core.ExtensionTypeHeader;
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
 
+import java.io.IOException;
 import java.lang.reflect.Array;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
-
-import static java.util.stream.Collectors.toMap;
 
 class MsgPackUtil {
 
   private static final Logger log = Logger.getLogger(SessionSerializer.class.getName());
 
-  static Value asValue(Object v) {
+  /**
+   * Writes the object straight to the packer, without building an intermediate {@link
+   * org.msgpack.value.Value}.
+   */
+  static void pack(MessagePacker pk, Object v) throws IOException {
+    pack(pk, v, AttributeCodecs.BUILT_IN);
+  }
+
+  /**
+   * @param codecs Used for the types not supported natively.
+   */
+  static void pack(MessagePacker pk, Object v, AttributeCodecs codecs) throws IOException {
 
     if (v == null) {
-      return ValueFactory.newNil();
-    }
+      pk.packNil();
 
-    if (v instanceof Integer) {
-      return ValueFactory.newInteger((Integer) v);
-    }
+    } else if (v instanceof Integer) {
+      pk.packInt((Integer) v);
 
-    if (v instanceof Long) {
-      return ValueFactory.newInteger((Long) v);
-    }
+    } else if (v instanceof Long) {
+      pk.packLong((Long) v);
 
-    if (v instanceof String) {
-      return ValueFactory.newString((String) v);
-    }
+    } else if (v instanceof String) {
+      pk.packString((String) v);
 
-    if (v instanceof Boolean) {
-      return ValueFactory.newBoolean((boolean) v);
-    }
+    } else if (v instanceof Boolean) {
+      pk.packBoolean((Boolean) v);
 
-    if (v instanceof UUID) {
-      return UUIDValue.newUUID((UUID) v);
-    }
+    } else if (v instanceof UUID) {
+      final byte[] buf = pk instanceof ReusablePacker ?
+          ((ReusablePacker) pk).scratch(UUIDValue.SIZE) : new byte[UUIDValue.SIZE];
+      UUIDValue.uuidToBytes((UUID) v, buf);
+
+      pk.packExtensionTypeHeader(UUIDValue.TYPE, UUIDValue.SIZE);
+      pk.writePayload(buf, 0, UUIDValue.SIZE);
 
-    if (v instanceof Collection) {
+    } else if (v instanceof RawValue) {
+      ((RawValue) v).writeTo(pk);
+
+    } else if (v instanceof LazyAttributeMap) {
+      // Write values which were never accessed as is.
+      pack(pk, ((LazyAttributeMap) v).raw(), codecs);
+
+    } else if (v instanceof Collection) {
       final Collection<?> collection = (Collection) v;
 
-      return ValueFactory.newArray(
-          collection
-              .stream()
-              .map(MsgPackUtil::asValue)
-              .collect(Collectors.toList())
-      );
-    }
+      pk.packArrayHeader(collection.size());
+      for (Object item : collection) {
+        pack(pk, item, codecs);
+      }
 
-    if (v instanceof Map) {
+    } else if (v instanceof Map) {
       final Map<?, ?> map = (Map) v;
 
-      final ValueFactory.MapBuilder builder = ValueFactory.newMapBuilder();
-      map.forEach((k, kv) -> builder.put(asValue(k), asValue(kv)));
-      return builder.build();
-    }
+      pk.packMapHeader(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        pack(pk, entry.getKey(), codecs);
+        pack(pk, entry.getValue(), codecs);
+      }
 
-    if (v.getClass().isArray()) {
+    } else if (v instanceof Object[]) {
       final Object[] array = (Object[]) v;
-      return ValueFactory.newArray(
-          Arrays.stream(array).map(MsgPackUtil::asValue).toArray(Value[]::new)
-      );
-    }
 
-    log.warning("Object [" + v + "] cannot be serialized: the type is not supported");
+      pk.packArrayHeader(array.length);
+      for (Object item : array) {
+        pack(pk, item, codecs);
+      }
+
+    } else {
+      final AttributeCodec<Object> codec = codecs.forValue(v);
+      if (codec != null) {
+        final byte[] data = codec.encode(v);
+        pk.packExtensionTypeHeader(codec.getExtensionType(), data.length);
+        pk.writePayload(data);
+        return;
+      }
+
+      log.warning("Object [" + v + "] cannot be serialized: the type is not supported");
+      pk.packNil();
+    }
+  }
 
-    return ValueFactory.newNil();
+  /**
+   * Reads the next value straight from the unpacker, without building an intermediate {@link
+   * org.msgpack.value.Value}.
+   *
+   * <p>Note: all the integers are read as {@code Long}, arrays of objects of the same type
+   * are read as typed arrays (e.g. {@code UUID[]}).
+   */
+  static <T> T unpack(MessageUnpacker unpacker) throws IOException {
+    return unpack(unpacker, AttributeCodecs.BUILT_IN);
   }
 
+  /**
+   * @param codecs Used for the extension types other than UUID.
+   */
   @SuppressWarnings("unchecked")
-  static <T> T asObject(Value v) {
-    if (v.isNilValue()) {
-      return null;
+  static <T> T unpack(MessageUnpacker unpacker, AttributeCodecs codecs) throws IOException {
+    final MessageFormat format = unpacker.getNextFormat();
+
+    switch (format.getValueType()) {
+      case NIL:
+        unpacker.unpackNil();
+        return null;
+
+      case BOOLEAN:
+        return (T) (Boolean) unpacker.unpackBoolean();
+
+      case INTEGER:
+        return (T) (Long) (format == MessageFormat.UINT64 ?
+            unpacker.unpackBigInteger().longValue() : unpacker.unpackLong());
+
+      case FLOAT:
+        return (T) (Long) (long) unpacker.unpackDouble();
+
+      case STRING:
+        return (T) unpacker.unpackString();
+
+      case ARRAY:
+        return (T) unpackArray(unpacker, codecs);
+
+      case MAP:
+        return (T) unpackMap(unpacker, unpacker.unpackMapHeader(), codecs);
+
+      case EXTENSION:
+        final ExtensionTypeHeader header = unpacker.unpackExtensionTypeHeader();
+        if (header.getType() == UUIDValue.TYPE && header.getLength() == UUIDValue.SIZE) {
+          return (T) UUIDValue.uuidFromBytes(unpacker.readPayload(UUIDValue.SIZE));
+        }
+
+        final AttributeCodec<?> codec = codecs.forType(header.getType());
+        if (codec != null) {
+          return (T) codec.decode(unpacker.readPayload(header.getLength()));
+        }
+
+        unpacker.readPayload(header.getLength());
+        log.warning("Extension type [" + header.getType() + "] cannot be deserialized: the type is not supported");
+        return null;
+
+      default:
+        unpacker.skipValue();
+        log.warning("Value of format [" + format + "] cannot be deserialized: the type is not supported");
+        return null;
     }
+  }
 
-    if (v.isNumberValue()) {
-      return (T) (Long) v.asNumberValue().toLong();
+  /**
+   * Consumes the next value if it's nil.
+   *
+   * @return {@code true} if the value was nil.
+   */
+  static boolean tryUnpackNil(MessageUnpacker unpacker) throws IOException {
+    if (unpacker.getNextFormat() == MessageFormat.NIL) {
+      unpacker.unpackNil();
+      return true;
     }
 
-    if (v.isStringValue()) {
-      return (T) v.asStringValue().asString();
+    return false;
+  }
+
+  static String unpackString(MessageUnpacker unpacker) throws IOException {
+    return tryUnpackNil(unpacker) ? null : unpacker.unpackString();
+  }
+
+  static String[] unpackStringArray(MessageUnpacker unpacker) throws IOException {
+    if (tryUnpackNil(unpacker)) {
+      return null;
     }
 
-    if (v.isBooleanValue()) {
-      return (T) (Boolean) v.asBooleanValue().getBoolean();
+    final String[] array = new String[unpacker.unpackArrayHeader()];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = unpackString(unpacker);
     }
+    return array;
+  }
 
-    if (v.isExtensionValue()) {
-      final ExtensionValue extValue = v.asExtensionValue();
+  static Map<Object, Object> unpackMap(MessageUnpacker unpacker,
+                                       int size,
+                                       AttributeCodecs codecs) throws IOException {
+    final Map<Object, Object> map = new HashMap<>(capacityFor(size));
+    for (int i = 0; i < size; i++) {
+      final Object key = unpack(unpacker, codecs);
+      map.put(key, unpack(unpacker, codecs));
+    }
+    return map;
+  }
 
-      if (extValue.getType() == UUIDValue.TYPE) {
-        return (T) UUIDValue.uuidFromBytes(extValue.getData());
-      }
+  private static Object unpackArray(MessageUnpacker unpacker, AttributeCodecs codecs) throws IOException {
+    final int size = unpacker.unpackArrayHeader();
+    if (size == 0) {
+      // Element type is unknown.
+      return new ArrayList<>();
     }
 
-    if (v.isArrayValue()) {
-      final List oArray = v
-          .asArrayValue()
-          .list()
-          .stream()
-          .map(MsgPackUtil::asObject)
-          .collect(Collectors.toList());
-
-      if (!oArray.isEmpty()) {
-        return (T) oArray.toArray(
-            (Object[]) Array.newInstance(oArray.get(0).getClass(), oArray.size())
-        );
-
-      } else {
-        // We're screwed.
-        return (T) oArray;
+    final Object first = unpack(unpacker, codecs);
+
+    // Array type is determined by the first element, falling back to Object[] for mixed types.
+    Object[] array = first == null ?
+        new Object[size] : (Object[]) Array.newInstance(first.getClass(), size);
+    array[0] = first;
+
+    for (int i = 1; i < size; i++) {
+      final Object item = unpack(unpacker, codecs);
+      if (item != null && !array.getClass().getComponentType().isInstance(item)) {
+        array = Arrays.copyOf(array, size, Object[].class);
       }
+      array[i] = item;
     }
 
-    if (v.isMapValue()) {
-      return (T) v
-          .asMapValue()
-          .map()
-          .entrySet()
-          .stream()
-          .collect(
-              toMap(
-                  o -> asObject(o.getKey()),
-                  o -> asObject(o.getValue())
-              )
-          );
-    }
+    return array;
+  }
 
-    log.warning("Value [" + v + "] cannot be deserialized: the type is not supported");
-    return null;
+  static int capacityFor(int size) {
+    return size < 3 ? size + 1 : (int) (size / 0.75f + 1.0f);
   }
 }
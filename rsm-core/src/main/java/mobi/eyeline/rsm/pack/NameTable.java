@@ -0,0 +1,35 @@
+package mobi.eyeline.rsm.pack;
+
+/**
+ * Attribute names shared by all the nodes, written to payloads as their indices.
+ *
+ * <p>Indices are never reassigned, so a payload remains readable as long as
+ * the table it was written with is known.
+ */
+public interface NameTable {
+
+  /** No names, all of them are written literally. */
+  NameTable NONE = new NameTable() {
+    @Override
+    public int indexOf(String name) {
+      return -1;
+    }
+
+    @Override
+    public String nameAt(int index) {
+      return null;
+    }
+  };
+
+  /**
+   * Called on each attribute written, so may be used to collect frequent names.
+   *
+   * @return Name index, or {@code -1} to write it literally.
+   */
+  int indexOf(String name);
+
+  /**
+   * @return Name by index, or {@code null} if unknown.
+   */
+  String nameAt(int index);
+}
@@ -0,0 +1,56 @@
+package mobi.eyeline.rsm.pack;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-thread packers and output buffers, reused by all the serializations on the thread.
+ *
+ * <p>Serialization never leaves the calling thread and is not reentrant,
+ * so in steady state the only allocation is the resulting exact-length payload.
+ */
+final class PackBuffers {
+
+  private static final ThreadLocal<PackBuffers> local = ThreadLocal.withInitial(PackBuffers::new);
+
+  /** Encoded attributes. */
+  final ReusablePacker attributes = new ReusablePacker(new ReusableBufferOutput());
+
+  /** Complete session payload. */
+  final ReusablePacker payload = new ReusablePacker(new ReusableBufferOutput());
+
+  // Compression state, only created on the threads actually compressing.
+  private Deflater deflater;
+  private Inflater inflater;
+  private byte[] compressed;
+
+  private PackBuffers() {}
+
+  Deflater deflater() {
+    if (deflater == null) {
+      deflater = new Deflater();
+    }
+    return deflater;
+  }
+
+  Inflater inflater() {
+    if (inflater == null) {
+      inflater = new Inflater();
+    }
+    return inflater;
+  }
+
+  /**
+   * @return Buffer for the compressed payload, of at least the requested size.
+   */
+  byte[] compressed(int size) {
+    if (compressed == null || compressed.length < size) {
+      compressed = new byte[Math.max(size, compressed == null ? 0 : compressed.length * 2)];
+    }
+    return compressed;
+  }
+
+  static PackBuffers get() {
+    return local.get();
+  }
+}
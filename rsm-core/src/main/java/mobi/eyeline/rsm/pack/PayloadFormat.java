@@ -0,0 +1,165 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+
+import java.io.IOException;
+
+/**
+ * Session payload header.
+ *
+ * <p>Versioned payloads start with a byte never used by MessagePack, followed by the format:
+ *
+ * <ul>
+ *   <li>{@link #DEFLATE} -- {@linkplain Compression compressed} payload of any other format.
+ *   <li>{@link #V2} -- compact header, then session ID, principal and attributes packed
+ *   as in v1:
+ *   <pre>
+ *     0xC1 | 0x02 | flags (1 byte) | attributes hash (8 bytes, if flagged)
+ *       | creation time | last accessed time - creation time | this accessed time - creation time
+ *       | max inactive interval
+ *   </pre>
+ *   Numbers are zigzag-encoded varints.
+ * </ul>
+ *
+ * <p>Payloads starting with anything else are v1, the initial unversioned layout packed
+ * entirely with MessagePack: attributes hash, creation time, last accessed time, max
+ * inactive interval, new and valid flags, this accessed time, then the same as in v2.
+ */
+final class PayloadFormat {
+
+  /** Reserved ("never used") MessagePack format byte. */
+  static final byte MARKER = (byte) 0xC1;
+
+  static final byte DEFLATE = 1;
+  static final byte V2 = 2;
+
+  private static final int FLAG_NEW = 1;
+  private static final int FLAG_VALID = 1 << 1;
+  private static final int FLAG_ATTR_HASH = 1 << 2;
+
+  /** Marker, format, flags, hash and four varints of at most 10 bytes each. */
+  private static final int MAX_V2_HEADER_SIZE = 3 + 8 + 4 * 10;
+
+  private PayloadFormat() {}
+
+  static boolean isVersioned(byte[] data, byte format) {
+    return data.length > 1 && data[0] == MARKER && data[1] == format;
+  }
+
+  static boolean isVersioned(byte[] data) {
+    return data.length > 0 && data[0] == MARKER;
+  }
+
+  /**
+   * Writes v2 header fields preceding the session ID.
+   */
+  static void packHeader(ReusablePacker pack,
+                         PersistedSession session,
+                         PersistedSessionMetadata metadata) throws IOException {
+
+    final byte[] buf = pack.scratch(MAX_V2_HEADER_SIZE);
+    final long attrHash = metadata.getAttrHash();
+
+    int n = 0;
+    buf[n++] = MARKER;
+    buf[n++] = V2;
+    buf[n++] = (byte) ((session.isNew ? FLAG_NEW : 0) |
+        (session.isValid ? FLAG_VALID : 0) |
+        (attrHash != 0 ? FLAG_ATTR_HASH : 0));
+
+    if (attrHash != 0) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        buf[n++] = (byte) (attrHash >>> shift);
+      }
+    }
+
+    n = writeVarLong(buf, n, session.creationTime);
+    n = writeVarLong(buf, n, session.lastAccessedTime - session.creationTime);
+    n = writeVarLong(buf, n, session.thisAccessedTime - session.creationTime);
+    n = writeVarLong(buf, n, session.maxInactiveInterval);
+
+    pack.writePayload(buf, 0, n);
+  }
+
+  /**
+   * Reads v2 header fields preceding the session ID.
+   *
+   * @return Header length.
+   */
+  static int unpackHeader(byte[] data,
+                          PersistedSession session,
+                          PersistedSessionMetadata metadata) throws IOException {
+
+    final Reader reader = new Reader(data, 2);
+
+    final int flags = reader.readByte();
+    session.isNew = (flags & FLAG_NEW) != 0;
+    session.isValid = (flags & FLAG_VALID) != 0;
+
+    long attrHash = 0;
+    if ((flags & FLAG_ATTR_HASH) != 0) {
+      for (int i = 0; i < 8; i++) {
+        attrHash = (attrHash << 8) | reader.readByte();
+      }
+    }
+    metadata.setAttrHash(attrHash);
+
+    session.creationTime = reader.readVarLong();
+    session.lastAccessedTime = session.creationTime + reader.readVarLong();
+    session.thisAccessedTime = session.creationTime + reader.readVarLong();
+    session.maxInactiveInterval = (int) reader.readVarLong();
+
+    return reader.position;
+  }
+
+  /**
+   * @return Length of the v2 header fields preceding the session ID.
+   */
+  static int headerLength(byte[] data) throws IOException {
+    return unpackHeader(data, new PersistedSession(), new PersistedSessionMetadata());
+  }
+
+  private static int writeVarLong(byte[] buf, int offset, long value) {
+    // Zigzag, so that small negative values are short as well.
+    long v = (value << 1) ^ (value >> 63);
+
+    while ((v & ~0x7FL) != 0) {
+      buf[offset++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buf[offset++] = (byte) v;
+
+    return offset;
+  }
+
+  private static final class Reader {
+    private final byte[] data;
+    private int position;
+
+    Reader(byte[] data, int position) {
+      this.data = data;
+      this.position = position;
+    }
+
+    int readByte() throws IOException {
+      if (position >= data.length) {
+        throw new IOException("Payload header truncated");
+      }
+      return data[position++] & 0xFF;
+    }
+
+    long readVarLong() throws IOException {
+      long v = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final int b = readByte();
+        v |= (long) (b & 0x7F) << shift;
+
+        if ((b & 0x80) == 0) {
+          return (v >>> 1) ^ -(v & 1);
+        }
+      }
+      throw new IOException("Payload header malformed");
+    }
+  }
+}
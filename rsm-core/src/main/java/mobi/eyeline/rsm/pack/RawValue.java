@@ -0,0 +1,42 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+
+/**
+ * Encoded value which is not deserialized yet, a slice of the session payload.
+ */
+final class RawValue {
+
+  private final byte[] buf;
+  private final int offset;
+  private final int length;
+
+  RawValue(byte[] buf, int offset, int length) {
+    this.buf = buf;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  Object decode(AttributeCodecs codecs) throws IOException {
+    try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(buf, offset, length)) {
+      return MsgPackUtil.unpack(unpacker, codecs);
+    }
+  }
+
+  void writeTo(MessagePacker pk) throws IOException {
+    pk.writePayload(buf, offset, length);
+  }
+
+  long hash() {
+    return XxHash64.hash(buf, offset, length);
+  }
+
+  @Override
+  public String toString() {
+    return "<" + length + " bytes>";
+  }
+}
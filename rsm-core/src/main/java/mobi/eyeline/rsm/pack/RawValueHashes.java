@@ -0,0 +1,79 @@
+package mobi.eyeline.rsm.pack;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashes of the encoded attribute values, computed on lookup rather than on load, so that
+ * only the attributes checked for changes on save are ever hashed.
+ *
+ * <p>Read-only. Safe for concurrent use as long as the underlying values are not modified.
+ */
+final class RawValueHashes extends AbstractMap<String, Long> implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final transient Map<String, RawValue> values;
+
+  RawValueHashes(Map<String, RawValue> values) {
+    this.values = values;
+  }
+
+  @Override
+  public int size() {
+    return values.size();
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return values.containsKey(key);
+  }
+
+  @Override
+  public Long get(Object key) {
+    final RawValue value = values.get(key);
+    return value == null ? null : value.hash();
+  }
+
+  @Override
+  public Set<String> keySet() {
+    return Collections.unmodifiableSet(values.keySet());
+  }
+
+  @Override
+  public Set<Entry<String, Long>> entrySet() {
+    return new AbstractSet<Entry<String, Long>>() {
+      @Override
+      public Iterator<Entry<String, Long>> iterator() {
+        final Iterator<Entry<String, RawValue>> it = values.entrySet().iterator();
+        return new Iterator<Entry<String, Long>>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Entry<String, Long> next() {
+            final Entry<String, RawValue> entry = it.next();
+            return new SimpleImmutableEntry<>(entry.getKey(), entry.getValue().hash());
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return values.size();
+      }
+    };
+  }
+
+  /** Serialized with the hashes computed, as the payload they refer to is not. */
+  private Object writeReplace() {
+    return new CompactAttributeMap<>(this);
+  }
+}
@@ -0,0 +1,99 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferOutput;
+
+import java.util.Arrays;
+
+/**
+ * Growable in-memory packer output, reused across serializations.
+ */
+final class ReusableBufferOutput implements MessageBufferOutput {
+
+  private static final int INITIAL_CAPACITY = 8 * 1024;
+
+  /** Buffers grown above this size are released on reset, so that one huge session doesn't pin the memory. */
+  private static final int MAX_RETAINED_CAPACITY = 256 * 1024;
+
+  private byte[] array = new byte[INITIAL_CAPACITY];
+  private int size;
+
+  /** Incremented on each reset, allows detecting stale references to the contents. */
+  private int generation;
+
+  /** Cached window over the unused part of the array, as handed out by the last {@link #next(int)} call. */
+  private MessageBuffer window;
+  private int windowOffset = -1;
+
+  byte[] array() {
+    return array;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int generation() {
+    return generation;
+  }
+
+  void reset() {
+    size = 0;
+    generation++;
+
+    if (array.length > MAX_RETAINED_CAPACITY) {
+      array = new byte[INITIAL_CAPACITY];
+      window = null;
+      windowOffset = -1;
+    }
+  }
+
+  /**
+   * @return Exact-length copy of the contents.
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(array, size);
+  }
+
+  @Override
+  public MessageBuffer next(int minimumSize) {
+    ensureCapacity(minimumSize);
+
+    if (window == null || windowOffset != size) {
+      window = MessageBuffer.wrap(array, size, array.length - size);
+      windowOffset = size;
+    }
+    return window;
+  }
+
+  @Override
+  public void writeBuffer(int length) {
+    size += length;
+  }
+
+  @Override
+  public void write(byte[] buf, int offset, int length) {
+    ensureCapacity(length);
+    System.arraycopy(buf, offset, array, size, length);
+    size += length;
+  }
+
+  @Override
+  public void add(byte[] buf, int offset, int length) {
+    write(buf, offset, length);
+  }
+
+  @Override
+  public void flush() {}
+
+  @Override
+  public void close() {}
+
+  private void ensureCapacity(int length) {
+    if (array.length - size < length) {
+      array = Arrays.copyOf(array, Math.max(array.length * 2, size + length));
+      window = null;
+      windowOffset = -1;
+    }
+  }
+}
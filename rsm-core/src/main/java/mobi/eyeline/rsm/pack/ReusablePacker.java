@@ -0,0 +1,101 @@
+package mobi.eyeline.rsm.pack;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+
+import java.io.IOException;
+
+/**
+ * Packer writing to a {@linkplain ReusableBufferOutput reusable buffer},
+ * with allocation-free string encoding.
+ */
+final class ReusablePacker extends MessagePacker {
+
+  /** Longer strings are encoded by the default implementation. */
+  private static final int MAX_SCRATCH_CHARS = 4 * 1024;
+
+  private final ReusableBufferOutput output;
+  private byte[] scratch = new byte[256];
+
+  ReusablePacker(ReusableBufferOutput output) {
+    super(output, MessagePack.DEFAULT_PACKER_CONFIG);
+    this.output = output;
+  }
+
+  ReusableBufferOutput output() {
+    return output;
+  }
+
+  /**
+   * Discards everything written so far, including the bytes still buffered by the packer
+   * itself, e.g. when the previous encoding failed halfway.
+   */
+  void reset() throws IOException {
+    flush();
+    output.reset();
+  }
+
+  /**
+   * @return Temporary buffer of at least the requested size, valid until the next call.
+   */
+  byte[] scratch(int size) {
+    if (scratch.length < size) {
+      scratch = new byte[Math.max(size, scratch.length * 2)];
+    }
+    return scratch;
+  }
+
+  @Override
+  public MessagePacker packString(String s) throws IOException {
+    if (s.length() > MAX_SCRATCH_CHARS) {
+      return super.packString(s);
+    }
+
+    final byte[] buf = scratch(s.length() * 3);
+    final int length = encodeUtf8(s, buf);
+    if (length < 0) {
+      // Malformed, let the default implementation decide on replacement.
+      return super.packString(s);
+    }
+
+    packRawStringHeader(length);
+    return writePayload(buf, 0, length);
+  }
+
+  /**
+   * @return Encoded length, or {@code -1} if the string contains unpaired surrogates.
+   */
+  private static int encodeUtf8(String s, byte[] buf) {
+    int n = 0;
+
+    for (int i = 0, len = s.length(); i < len; i++) {
+      final char c = s.charAt(i);
+
+      if (c < 0x80) {
+        buf[n++] = (byte) c;
+
+      } else if (c < 0x800) {
+        buf[n++] = (byte) (0xC0 | (c >> 6));
+        buf[n++] = (byte) (0x80 | (c & 0x3F));
+
+      } else if (Character.isSurrogate(c)) {
+        if (!Character.isHighSurrogate(c) || i + 1 >= len || !Character.isLowSurrogate(s.charAt(i + 1))) {
+          return -1;
+        }
+
+        final int cp = Character.toCodePoint(c, s.charAt(++i));
+        buf[n++] = (byte) (0xF0 | (cp >> 18));
+        buf[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        buf[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        buf[n++] = (byte) (0x80 | (cp & 0x3F));
+
+      } else {
+        buf[n++] = (byte) (0xE0 | (c >> 12));
+        buf[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[n++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    return n;
+  }
+}
@@ -0,0 +1,61 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Session encoded field-wise, e.g. for storing as a Redis hash:
+ * session fields go to the {@linkplain SessionSerializer#HEADER_FIELD header},
+ * and each attribute to a separate {@linkplain SessionSerializer#ATTRIBUTE_FIELD_PREFIX prefixed} field.
+ */
+public final class SessionFields {
+
+  private final Map<String, byte[]> fields;
+  private final List<String> removed;
+  private final boolean complete;
+  private final PersistedSessionMetadata metadata;
+
+  SessionFields(Map<String, byte[]> fields,
+                List<String> removed,
+                boolean complete,
+                PersistedSessionMetadata metadata) {
+    this.fields = fields;
+    this.removed = removed;
+    this.complete = complete;
+    this.metadata = metadata;
+  }
+
+  /**
+   * @return Fields to write. Always includes the header.
+   */
+  public Map<String, byte[]> getFields() {
+    return fields;
+  }
+
+  /**
+   * @return Names of the fields to delete.
+   */
+  public List<String> getRemoved() {
+    return removed;
+  }
+
+  /**
+   * @return {@code true} if these are all the session fields, i.e. not an update.
+   */
+  public boolean isComplete() {
+    return complete;
+  }
+
+  public boolean hasAttributeChanges() {
+    return fields.size() > 1 || !removed.isEmpty();
+  }
+
+  /**
+   * @return Metadata to use once the fields are written.
+   */
+  public PersistedSessionMetadata getMetadata() {
+    return metadata;
+  }
+}
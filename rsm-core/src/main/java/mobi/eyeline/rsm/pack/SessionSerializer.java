@@ -3,16 +3,20 @@ package mobi.eyeline.rsm.pack;
 import mobi.eyeline.rsm.model.PersistableSession;
 import mobi.eyeline.rsm.model.PersistedSession;
 import mobi.eyeline.rsm.model.PersistedSessionMetadata;
-import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
-import org.msgpack.value.ValueFactory;
+import org.msgpack.value.ValueType;
 
 import java.io.IOException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
 /**
@@ -26,100 +30,603 @@ public class SessionSerializer {
 
   private static final Logger log = Logger.getLogger(SessionSerializer.class.getName());
 
-  /** Context classloader, used to deserialize application-specific attribute types. */
-  @SuppressWarnings({"FieldCanBeLocal", "unused"})
-  private final ClassLoader loader;
+  /** Field holding session data except attributes, in field-wise representation. */
+  public static final String HEADER_FIELD = "h";
+
+  /** Attribute field name prefix, followed by the attribute name. */
+  public static final String ATTRIBUTE_FIELD_PREFIX = "a:";
+
+  private static final int MAX_INTERNED_NAMES = 10_000;
+
+  /** Application-specific attribute types, looked up with the context classloader. */
+  private final AttributeCodecs codecs;
+
+  /** Whether attribute values are deserialized on first access. */
+  private final boolean lazyAttributes;
+
+  private final Compression compression;
+
+  /** Attribute names written as indices. */
+  private final NameTable names;
+
+  /** Canonical instances of the attribute names read, bounded for dynamically built names. */
+  private final ConcurrentMap<String, String> internedNames = new ConcurrentHashMap<>();
 
   public SessionSerializer(ClassLoader loader) {
-    this.loader = loader;
+    this(loader, false);
+  }
+
+  /**
+   * @param lazyAttributes If set, deserialized sessions keep encoded attribute values
+   *                       (see {@link LazyAttributeMap}) and decode them on first access.
+   */
+  public SessionSerializer(ClassLoader loader, boolean lazyAttributes) {
+    this(loader, lazyAttributes, Compression.NONE);
+  }
+
+  /**
+   * @param compression Applied to the serialized payloads. Compressed payloads are
+   *                    read regardless of the threshold.
+   */
+  public SessionSerializer(ClassLoader loader, boolean lazyAttributes, Compression compression) {
+    this(loader, lazyAttributes, compression, NameTable.NONE);
+  }
+
+  /**
+   * @param names Attribute names to write as indices. Payloads are only readable with
+   *              the same table, or a later one.
+   */
+  public SessionSerializer(ClassLoader loader,
+                           boolean lazyAttributes,
+                           Compression compression,
+                           NameTable names) {
+    this.codecs = AttributeCodecs.load(loader);
+    this.lazyAttributes = lazyAttributes;
+    this.compression = compression;
+    this.names = names;
   }
 
   public long attributesHashFrom(Map<String, Object> attributes) throws IOException {
-    final MessageBufferPacker pack = MessagePack.newDefaultBufferPacker();
-    pack.packValue(MsgPackUtil.asValue(attributes));
+    final ReusableBufferOutput encoded = encodeAttributes(attributes, null);
+    return XxHash64.hash(encoded.array(), 0, encoded.size());
+  }
+
+  /**
+   * Encodes session attributes, optionally computing their hash from the same encoded bytes.
+   *
+   * <p>Note: the result refers to a per-thread buffer and should be {@linkplain
+   * #serialize(EncodedSession, PersistedSessionMetadata) serialized} on the same thread
+   * before anything else is encoded there.
+   *
+   * @param hashAttributes Whether attributes hash is required, e.g. for dirty checking.
+   */
+  public EncodedSession encode(PersistableSession session,
+                               boolean hashAttributes) throws IOException {
+    return encode(session, hashAttributes, false);
+  }
+
+  /**
+   * @param hashAttributes     Whether attributes hash is required.
+   * @param hashEachAttribute  Whether per-attribute hashes are required, for {@linkplain
+   *                           #attributesChanged dirty checking} after saving.
+   */
+  public EncodedSession encode(PersistableSession session,
+                               boolean hashAttributes,
+                               boolean hashEachAttribute) throws IOException {
+
+    final PersistedSession persisted = session.asPersistedSession();
+
+    final Map<String, Long> attrHashes = hashEachAttribute && persisted.attributes != null ?
+        new CompactAttributeMap<>(persisted.attributes.size()) : null;
 
-    final byte[] digest = getMessageDigest().digest(pack.toByteArray());
-    return new BigInteger(digest).longValue();
+    final ReusableBufferOutput attributes = encodeAttributes(persisted.attributes, attrHashes);
+    final long attrHash = hashAttributes ? XxHash64.hash(attributes.array(), 0, attributes.size()) : 0;
+
+    return new EncodedSession(persisted, attributes, attrHash, attrHashes);
   }
 
-  private byte[] serialize(PersistedSession session,
-                           PersistedSessionMetadata metadata) throws IOException {
+  /**
+   * @param attrHashes If set, receives the hash of each encoded value.
+   */
+  private ReusableBufferOutput encodeAttributes(Map<String, Object> attributes,
+                                                Map<String, Long> attrHashes) throws IOException {
+    final ReusablePacker pack = PackBuffers.get().attributes;
+    pack.reset();
+
+    if (attributes == null) {
+      pack.packNil();
+      pack.flush();
+      return pack.output();
+    }
 
-    final MessageBufferPacker pack = MessagePack.newDefaultBufferPacker();
+    // Write values which were never accessed as is.
+    final Map<String, Object> values = attributes instanceof LazyAttributeMap ?
+        ((LazyAttributeMap) attributes).raw() : attributes;
 
-    // Write metadata.
+    pack.packMapHeader(values.size());
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      packName(pack, entry.getKey());
 
-    pack.packValue(ValueFactory.newInteger(metadata.getAttrHash()));
+      if (attrHashes == null) {
+        MsgPackUtil.pack(pack, entry.getValue(), codecs);
+        continue;
+      }
 
-    // Write session.
+      // Flush to locate the value.
+      pack.flush();
 
-    pack.packLong(session.creationTime);
-    pack.packLong(session.lastAccessedTime);
-    pack.packInt(session.maxInactiveInterval);
-    pack.packBoolean(session.isNew);
-    pack.packBoolean(session.isValid);
-    pack.packLong(session.thisAccessedTime);
+      final int start = pack.output().size();
+      MsgPackUtil.pack(pack, entry.getValue(), codecs);
+      pack.flush();
 
-    pack.packValue(MsgPackUtil.asValue(session.id));
-    pack.packValue(MsgPackUtil.asValue(session.principalName));
+      attrHashes.put(
+          entry.getKey(),
+          XxHash64.hash(pack.output().array(), start, pack.output().size() - start));
+    }
 
-    pack.packValue(MsgPackUtil.asValue(session.principalRoles));
-    pack.packValue(MsgPackUtil.asValue(session.attributes));
+    pack.flush();
+    return pack.output();
+  }
 
-    return pack.toByteArray();
+  /**
+   * Writes attribute name as its index in the {@linkplain NameTable name table} if there's one,
+   * literally otherwise.
+   */
+  private void packName(ReusablePacker pack, String name) throws IOException {
+    final int index = names.indexOf(name);
+    if (index >= 0) {
+      pack.packInt(index);
+
+    } else {
+      pack.packString(name);
+    }
+  }
+
+  private String unpackName(MessageUnpacker unpacker) throws IOException {
+    if (unpacker.getNextFormat().getValueType() != ValueType.INTEGER) {
+      return intern(unpacker.unpackString());
+    }
+
+    final int index = unpacker.unpackInt();
+    final String name = names.nameAt(index);
+    if (name == null) {
+      throw new IOException("Unknown attribute name index: " + index);
+    }
+    return name;
+  }
+
+  /**
+   * @return Canonical instance of the attribute name, so that loaded sessions share
+   * a single copy of each name rather than holding their own.
+   */
+  private String intern(String name) {
+    final String interned = internedNames.get(name);
+    if (interned != null) {
+      return interned;
+    }
+
+    if (internedNames.size() >= MAX_INTERNED_NAMES) {
+      return name;
+    }
+
+    final String prev = internedNames.putIfAbsent(name, name);
+    return prev != null ? prev : name;
+  }
+
+  /**
+   * Checks whether any of the given attributes differs from the loaded state, by comparing
+   * the hash of its current encoding with the one captured on load.
+   *
+   * <p>Only attributes handed out to the application (or set by it) need to be checked,
+   * as the rest could not have been modified.
+   *
+   * @param metadata   Metadata of the stored state.
+   * @param names      Names of the attributes to check.
+   * @param attributes Current persistable attribute values by name, {@code null} if absent.
+   */
+  public boolean attributesChanged(PersistedSessionMetadata metadata,
+                                   Set<String> names,
+                                   Function<String, Object> attributes) throws IOException {
+
+    final Map<String, Long> prevHashes = metadata.getAttrHashes();
+    if (prevHashes == null) {
+      // Unknown state.
+      return true;
+    }
+
+    final ReusablePacker pack = PackBuffers.get().attributes;
+    for (String name : names) {
+      final Object value = attributes.apply(name);
+      final Long prevHash = prevHashes.get(name);
+
+      if (value == null || prevHash == null) {
+        if (value != null || prevHash != null) {
+          return true;
+        }
+        continue;
+      }
+
+      if (value instanceof RawValue) {
+        continue;
+      }
+
+      pack.reset();
+      MsgPackUtil.pack(pack, value, codecs);
+      pack.flush();
+
+      if (prevHash != XxHash64.hash(pack.output().array(), 0, pack.output().size())) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  public byte[] serialize(EncodedSession encoded,
+                          PersistedSessionMetadata metadata) throws IOException {
+
+    final ReusablePacker pack = PackBuffers.get().payload;
+    pack.reset();
+
+    packHeader(pack, encoded.session, metadata);
+    encoded.writeAttributes(pack);
+
+    pack.flush();
+    return compression.compress(pack.output().array(), 0, pack.output().size());
+  }
+
+  /**
+   * Writes session data except attributes, always in the latest {@linkplain PayloadFormat format}.
+   */
+  private static void packHeader(ReusablePacker pack,
+                                 PersistedSession session,
+                                 PersistedSessionMetadata metadata) throws IOException {
+
+    PayloadFormat.packHeader(pack, session, metadata);
+
+    MsgPackUtil.pack(pack, session.id);
+    MsgPackUtil.pack(pack, session.principalName);
+
+    MsgPackUtil.pack(pack, session.principalRoles);
   }
 
   public byte[] serialize(PersistableSession session,
                           PersistedSessionMetadata metadata) throws IOException {
 
-    return serialize(session.asPersistedSession(), metadata);
+    return serialize(encode(session, false), metadata);
   }
 
-  private PersistedSession deserialize(byte[] data,
+  private PersistedSession deserialize(byte[] payload,
                                        PersistedSessionMetadata metadata) throws IOException {
 
+    final byte[] data = compression.decompress(payload);
     final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data);
+    final PersistedSession session = unpackSession(unpacker, data, metadata);
 
-    // Read metadata.
+    final Map<String, RawValue> encoded = new CompactAttributeMap<>();
+    session.attributes = unpackAttributes(unpacker, data, encoded);
+    metadata.setAttrHashes(new RawValueHashes(encoded));
 
-    metadata.setAttrHash(unpacker.unpackValue().asNumberValue().toLong());
-
-    // Read session.
+    return session;
+  }
 
+  /**
+   * Reads session data except attributes, in any of the supported {@linkplain PayloadFormat
+   * formats}. Sessions read in older formats are written in the latest one on the next save.
+   *
+   * @param data Payload the unpacker reads from the start.
+   */
+  private static PersistedSession unpackSession(MessageUnpacker unpacker,
+                                                byte[] data,
+                                                PersistedSessionMetadata metadata) throws IOException {
     final PersistedSession session = new PersistedSession();
 
-    session.creationTime = unpacker.unpackLong();
-    session.lastAccessedTime = unpacker.unpackLong();
-    session.maxInactiveInterval = unpacker.unpackInt();
-    session.isNew = unpacker.unpackBoolean();
-    session.isValid = unpacker.unpackBoolean();
-    session.thisAccessedTime = unpacker.unpackLong();
+    if (PayloadFormat.isVersioned(data, PayloadFormat.V2)) {
+      // Skip the header read directly, keeping unpacker offsets relative to the payload start.
+      unpacker.readPayloadAsReference(PayloadFormat.unpackHeader(data, session, metadata));
 
-    session.id = MsgPackUtil.asObject(unpacker.unpackValue());
+    } else if (PayloadFormat.isVersioned(data)) {
+      throw new IOException("Unsupported payload format: " + data[1]);
 
-    session.principalName = MsgPackUtil.asObject(unpacker.unpackValue());
-    session.principalRoles = MsgPackUtil.asObject(unpacker.unpackValue());
+    } else {
+      metadata.setAttrHash(unpacker.unpackLong());
 
-    session.attributes = MsgPackUtil.asObject(unpacker.unpackValue());
+      session.creationTime = unpacker.unpackLong();
+      session.lastAccessedTime = unpacker.unpackLong();
+      session.maxInactiveInterval = unpacker.unpackInt();
+      session.isNew = unpacker.unpackBoolean();
+      session.isValid = unpacker.unpackBoolean();
+      session.thisAccessedTime = unpacker.unpackLong();
+    }
+
+    session.id = MsgPackUtil.unpackString(unpacker);
+
+    session.principalName = MsgPackUtil.unpackString(unpacker);
+    session.principalRoles = MsgPackUtil.unpackStringArray(unpacker);
 
     return session;
   }
 
-  public <T extends PersistableSession> void deserialize(
-      byte[] data,
+  /**
+   * @param encoded Receives each encoded value, to be hashed if checked for changes.
+   */
+  private Map<String, Object> unpackAttributes(MessageUnpacker unpacker,
+                                               byte[] data,
+                                               Map<String, RawValue> encoded) throws IOException {
+    if (MsgPackUtil.tryUnpackNil(unpacker)) {
+      return null;
+    }
+
+    final int size = unpacker.unpackMapHeader();
+    if (lazyAttributes) {
+      final LazyAttributeMap attributes = new LazyAttributeMap(size, codecs);
+      sliceAttributes(unpacker, data, size, attributes.raw(), encoded);
+      return attributes;
+    }
+
+    final Map<String, Object> attributes = new CompactAttributeMap<>(size);
+    for (int i = 0; i < size; i++) {
+      final String key = unpackName(unpacker);
+
+      final int start = (int) unpacker.getTotalReadBytes();
+      attributes.put(key, MsgPackUtil.unpack(unpacker, codecs));
+      final int end = (int) unpacker.getTotalReadBytes();
+
+      encoded.put(key, new RawValue(data, start, end - start));
+    }
+
+    return attributes;
+  }
+
+  /**
+   * Splits encoded attributes into {@linkplain RawValue raw values}, without decoding.
+   *
+   * @param encoded Also receives each value, if set.
+   */
+  private void sliceAttributes(MessageUnpacker unpacker,
+                               byte[] data,
+                               int size,
+                               Map<String, ? super RawValue> attributes,
+                               Map<String, RawValue> encoded) throws IOException {
+    for (int i = 0; i < size; i++) {
+      final String key = unpackName(unpacker);
+
+      final int start = (int) unpacker.getTotalReadBytes();
+      unpacker.skipValue();
+      final int end = (int) unpacker.getTotalReadBytes();
+
+      final RawValue value = new RawValue(data, start, end - start);
+      attributes.put(key, value);
+      if (encoded != null) {
+        encoded.put(key, value);
+      }
+    }
+  }
+
+  /**
+   * Parses the payload for caching. Attribute values are left encoded.
+   *
+   * @param payload Serialized session, should not be modified afterwards.
+   */
+  public SessionSnapshot snapshot(byte[] payload) throws IOException {
+    final byte[] data = compression.decompress(payload);
+    final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(data);
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final PersistedSession session = unpackSession(unpacker, data, metadata);
+
+    Map<String, RawValue> attributes = null;
+    if (!MsgPackUtil.tryUnpackNil(unpacker)) {
+      final int size = unpacker.unpackMapHeader();
+      attributes = new CompactAttributeMap<>(size);
+      sliceAttributes(unpacker, data, size, attributes, null);
+    }
+
+    return new SessionSnapshot(
+        session,
+        metadata.getAttrHash(),
+        attributes,
+        new RawValueHashes(attributes != null ? attributes : Collections.emptyMap()),
+        XxHash64.hash(data, 0, data.length),
+        data.length);
+  }
+
+  /**
+   * Fills the session from the cached snapshot, as if it was {@linkplain
+   * #deserialize(byte[], PersistableSession, PersistedSessionMetadata) deserialized}
+   * from the original payload.
+   *
+   * <p>Each call yields separate attribute values, so the restored session may be
+   * modified freely.
+   */
+  public <T extends PersistableSession> void restore(
+      SessionSnapshot snapshot,
       T session,
       PersistedSessionMetadata metadata) throws IOException {
 
-    final PersistedSession persisted = deserialize(data, metadata);
+    metadata.setAttrHash(snapshot.attrHash);
+    metadata.setAttrHashes(snapshot.attrHashes);
+
+    final PersistedSession cached = snapshot.session;
+    final PersistedSession persisted = new PersistedSession();
+
+    persisted.creationTime = cached.creationTime;
+    persisted.lastAccessedTime = cached.lastAccessedTime;
+    persisted.maxInactiveInterval = cached.maxInactiveInterval;
+    persisted.isNew = cached.isNew;
+    persisted.isValid = cached.isValid;
+    persisted.thisAccessedTime = cached.thisAccessedTime;
+    persisted.id = cached.id;
+    persisted.principalName = cached.principalName;
+    persisted.principalRoles = cached.principalRoles == null ? null : cached.principalRoles.clone();
+
+    if (snapshot.attributes != null) {
+      if (lazyAttributes) {
+        final LazyAttributeMap attributes = new LazyAttributeMap(snapshot.attributes.size(), codecs);
+        attributes.raw().putAll(snapshot.attributes);
+        persisted.attributes = attributes;
+
+      } else {
+        persisted.attributes = new CompactAttributeMap<>(snapshot.attributes.size());
+        for (Map.Entry<String, RawValue> entry : snapshot.attributes.entrySet()) {
+          persisted.attributes.put(entry.getKey(), entry.getValue().decode(codecs));
+        }
+      }
+    }
+
     session.fromPersistedSession(persisted);
   }
 
-  private static MessageDigest getMessageDigest() {
-    try {
-      return MessageDigest.getInstance("MD5");
+  /**
+   * Encodes the session field-wise, either completely or only the changes.
+   *
+   * <p>Changes are determined by comparing attribute hashes with the ones in the metadata of the
+   * previously written state, so attributes modified in place are detected as well.
+   * Attributes left {@linkplain LazyAttributeMap encoded} since loading are known to be unchanged.
+   *
+   * @param previous          Metadata of the stored state, {@code null} to encode all the fields.
+   * @param changedAttributes Names of the attributes known to be set or removed since then.
+   */
+  public SessionFields serializeFields(PersistableSession session,
+                                       PersistedSessionMetadata previous,
+                                       Set<String> changedAttributes) throws IOException {
+    return serializeFields(session, previous, changedAttributes, null);
+  }
+
+  /**
+   * Same as {@link #serializeFields(PersistableSession, PersistedSessionMetadata, Set)},
+   * but only re-encodes the attributes which could have been modified since loading.
+   *
+   * @param accessedAttributes Names of the attributes handed out since loading,
+   *                           {@code null} if unknown.
+   */
+  public SessionFields serializeFields(PersistableSession session,
+                                       PersistedSessionMetadata previous,
+                                       Set<String> changedAttributes,
+                                       Set<String> accessedAttributes) throws IOException {
+
+    final PersistedSession persisted = session.asPersistedSession();
+    final Map<String, Long> prevHashes = previous != null ? previous.getAttrHashes() : null;
+    final boolean complete = prevHashes == null;
+
+    final Map<String, Object> attributes =
+        persisted.attributes != null ? persisted.attributes : Collections.emptyMap();
+
+    final Map<String, byte[]> fields = new HashMap<>(MsgPackUtil.capacityFor(attributes.size() + 1));
+    final Map<String, Long> hashes = new CompactAttributeMap<>(attributes.size());
+    final List<String> removed = new ArrayList<>();
+
+    final ReusablePacker pack = PackBuffers.get().attributes;
+    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+      final String name = entry.getKey();
+      final Object value = entry.getValue();
+
+      final Long prevHash = complete ? null : prevHashes.get(name);
+
+      final boolean untouched = value instanceof RawValue || (accessedAttributes != null &&
+          !accessedAttributes.contains(name) && !changedAttributes.contains(name));
+      if (prevHash != null && untouched) {
+        hashes.put(name, prevHash);
+        continue;
+      }
+
+      pack.reset();
+      MsgPackUtil.pack(pack, value, codecs);
+      pack.flush();
+
+      final long hash = XxHash64.hash(pack.output().array(), 0, pack.output().size());
+      hashes.put(name, hash);
+
+      if (complete || prevHash == null || prevHash != hash || changedAttributes.contains(name)) {
+        fields.put(ATTRIBUTE_FIELD_PREFIX + name, pack.output().toByteArray());
+      }
+    }
 
-    } catch (NoSuchAlgorithmException e) {
-      throw new RuntimeException(e);
+    if (!complete) {
+      for (String name : prevHashes.keySet()) {
+        if (!hashes.containsKey(name)) {
+          removed.add(ATTRIBUTE_FIELD_PREFIX + name);
+        }
+      }
     }
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    metadata.setAttrHashes(hashes);
+
+    final ReusablePacker header = PackBuffers.get().payload;
+    header.reset();
+    packHeader(header, persisted, metadata);
+    header.flush();
+    fields.put(HEADER_FIELD, header.output().toByteArray());
+
+    return new SessionFields(fields, removed, complete, metadata);
+  }
+
+  /**
+   * Reads session from the fields {@linkplain #serializeFields written field-wise}.
+   */
+  public <T extends PersistableSession> void deserializeFields(
+      Map<String, byte[]> fields,
+      T session,
+      PersistedSessionMetadata metadata) throws IOException {
+
+    final PersistedSession persisted = deserializeHeader(fields.get(HEADER_FIELD), metadata);
+
+    final Map<String, Long> hashes = new CompactAttributeMap<>(fields.size());
+    final Map<String, Object> attributes = lazyAttributes ?
+        new LazyAttributeMap(fields.size(), codecs) :
+        new CompactAttributeMap<>(fields.size());
+
+    for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+      if (!field.getKey().startsWith(ATTRIBUTE_FIELD_PREFIX)) {
+        continue;
+      }
+
+      final String name = intern(field.getKey().substring(ATTRIBUTE_FIELD_PREFIX.length()));
+      final byte[] value = field.getValue();
+      final RawValue raw = new RawValue(value, 0, value.length);
+
+      hashes.put(name, XxHash64.hash(value, 0, value.length));
+      if (lazyAttributes) {
+        ((LazyAttributeMap) attributes).raw().put(name, raw);
+
+      } else {
+        attributes.put(name, raw.decode(codecs));
+      }
+    }
+
+    persisted.attributes = attributes;
+    metadata.setAttrHashes(hashes);
+
+    session.fromPersistedSession(persisted);
+  }
+
+  /**
+   * Reads session data except attributes from the {@linkplain #HEADER_FIELD header} field.
+   */
+  public PersistedSession deserializeHeader(byte[] header,
+                                            PersistedSessionMetadata metadata) throws IOException {
+    if (header == null) {
+      throw new IOException("Session header field missing");
+    }
+
+    final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(header);
+    return unpackSession(unpacker, header, metadata);
+  }
+
+  /**
+   * Decodes a single attribute field value.
+   */
+  public Object deserializeAttribute(byte[] value) throws IOException {
+    return new RawValue(value, 0, value.length).decode(codecs);
+  }
+
+  public <T extends PersistableSession> void deserialize(
+      byte[] data,
+      T session,
+      PersistedSessionMetadata metadata) throws IOException {
+
+    final PersistedSession persisted = deserialize(data, metadata);
+    session.fromPersistedSession(persisted);
   }
 }
@@ -0,0 +1,60 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+
+import java.util.Map;
+
+/**
+ * Immutable pre-parsed session payload, for caching.
+ *
+ * <p>Keeps the session fields and the attribute values as slices of the original payload,
+ * so that sessions can be {@linkplain SessionSerializer#restore restored} from it
+ * without reading the payload again.
+ */
+public final class SessionSnapshot {
+
+  /** Session fields, without attributes. */
+  final PersistedSession session;
+  final long attrHash;
+
+  /** Encoded attribute values, {@code null} if the session has no attribute map. */
+  final Map<String, RawValue> attributes;
+
+  /** Hashes of the encoded attribute values. */
+  final Map<String, Long> attrHashes;
+
+  private final long version;
+  private final int size;
+
+  SessionSnapshot(PersistedSession session,
+                  long attrHash,
+                  Map<String, RawValue> attributes,
+                  Map<String, Long> attrHashes,
+                  long version,
+                  int size) {
+    this.session = session;
+    this.attrHash = attrHash;
+    this.attributes = attributes;
+    this.attrHashes = attrHashes;
+    this.version = version;
+    this.size = size;
+  }
+
+  public String getId() {
+    return session.id;
+  }
+
+  /**
+   * @return Payload hash, identifying this exact session state.
+   */
+  public long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return Payload size in bytes.
+   */
+  public int getSize() {
+    return size;
+  }
+}
@@ -9,6 +9,9 @@ class UUIDValue extends ImmutableExtensionValueImpl {
 
   static final byte TYPE = (byte) 0x01;
 
+  /** Encoded UUID size, bytes. */
+  static final int SIZE = 16;
+
   private UUIDValue(byte type, byte[] data) {
     super(type, data);
   }
@@ -18,9 +21,18 @@ class UUIDValue extends ImmutableExtensionValueImpl {
   }
 
   private static byte[] uuidToBytes(UUID uuid) {
+    final byte[] bytes = new byte[SIZE];
+    uuidToBytes(uuid, bytes);
+    return bytes;
+  }
+
+  static void uuidToBytes(UUID uuid, byte[] bytes) {
     final long hi = uuid.getMostSignificantBits();
     final long lo = uuid.getLeastSignificantBits();
-    return ByteBuffer.allocate(16).putLong(hi).putLong(lo).array();
+    for (int i = 0; i < 8; i++) {
+      bytes[i] = (byte) (hi >>> (56 - 8 * i));
+      bytes[8 + i] = (byte) (lo >>> (56 - 8 * i));
+    }
   }
 
   static UUID uuidFromBytes(byte[] bytes) {
@@ -0,0 +1,109 @@
+package mobi.eyeline.rsm.pack;
+
+/**
+ * XXH64, fast non-cryptographic 64-bit hash.
+ *
+ * @see <a href="https://github.com/Cyan4973/xxHash/blob/dev/doc/xxhash_spec.md">XXH64 specification</a>
+ */
+class XxHash64 {
+
+  private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+  private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+  private static final long PRIME64_3 = 0x165667B19E3779F9L;
+  private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+  private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+  private XxHash64() {}
+
+  static long hash(byte[] buf, int off, int len) {
+    return hash(buf, off, len, 0);
+  }
+
+  static long hash(byte[] buf, int off, int len, long seed) {
+    final int end = off + len;
+    long h;
+
+    if (len >= 32) {
+      final int limit = end - 32;
+
+      long v1 = seed + PRIME64_1 + PRIME64_2;
+      long v2 = seed + PRIME64_2;
+      long v3 = seed;
+      long v4 = seed - PRIME64_1;
+
+      do {
+        v1 = round(v1, getLong(buf, off));
+        v2 = round(v2, getLong(buf, off + 8));
+        v3 = round(v3, getLong(buf, off + 16));
+        v4 = round(v4, getLong(buf, off + 24));
+        off += 32;
+      } while (off <= limit);
+
+      h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+      h = mergeRound(h, v1);
+      h = mergeRound(h, v2);
+      h = mergeRound(h, v3);
+      h = mergeRound(h, v4);
+
+    } else {
+      h = seed + PRIME64_5;
+    }
+
+    h += len;
+
+    while (off + 8 <= end) {
+      h ^= round(0, getLong(buf, off));
+      h = Long.rotateLeft(h, 27) * PRIME64_1 + PRIME64_4;
+      off += 8;
+    }
+
+    if (off + 4 <= end) {
+      h ^= (getInt(buf, off) & 0xFFFFFFFFL) * PRIME64_1;
+      h = Long.rotateLeft(h, 23) * PRIME64_2 + PRIME64_3;
+      off += 4;
+    }
+
+    while (off < end) {
+      h ^= (buf[off] & 0xFF) * PRIME64_5;
+      h = Long.rotateLeft(h, 11) * PRIME64_1;
+      off++;
+    }
+
+    h ^= h >>> 33;
+    h *= PRIME64_2;
+    h ^= h >>> 29;
+    h *= PRIME64_3;
+    h ^= h >>> 32;
+
+    return h;
+  }
+
+  private static long round(long acc, long input) {
+    acc += input * PRIME64_2;
+    acc = Long.rotateLeft(acc, 31);
+    return acc * PRIME64_1;
+  }
+
+  private static long mergeRound(long acc, long val) {
+    acc ^= round(0, val);
+    return acc * PRIME64_1 + PRIME64_4;
+  }
+
+  private static long getLong(byte[] buf, int i) {
+    return (buf[i] & 0xFFL)
+        | (buf[i + 1] & 0xFFL) << 8
+        | (buf[i + 2] & 0xFFL) << 16
+        | (buf[i + 3] & 0xFFL) << 24
+        | (buf[i + 4] & 0xFFL) << 32
+        | (buf[i + 5] & 0xFFL) << 40
+        | (buf[i + 6] & 0xFFL) << 48
+        | (buf[i + 7] & 0xFFL) << 56;
+  }
+
+  private static int getInt(byte[] buf, int i) {
+    return (buf[i] & 0xFF)
+        | (buf[i + 1] & 0xFF) << 8
+        | (buf[i + 2] & 0xFF) << 16
+        | (buf[i + 3] & 0xFF) << 24;
+  }
+}
@@ -0,0 +1,339 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Protocol;
+import redis.clients.jedis.exceptions.JedisClusterException;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.clients.jedis.exceptions.JedisMovedDataException;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.JedisClusterCRC16;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Routes each command to the Redis Cluster master serving the hash slot of its key.
+ *
+ * <p>Each master has a connection pool and an executor of its own, so in pipelining mode
+ * commands are batched per node. The slot map is loaded with {@code CLUSTER SLOTS} from any
+ * known node, and refreshed periodically as well as after redirections and connection failures.
+ * {@code MOVED} redirections update the slot right away and are retried on the new master,
+ * {@code ASK} ones are followed once without updating the slot.
+ */
+class ClusterCommandExecutor implements CommandExecutor {
+
+  private static final int SLOTS = 16384;
+
+  /** Redirections followed per command, as in {@code JedisCluster}. */
+  private static final int MAX_REDIRECTIONS = 5;
+
+  private static final long REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long MIN_REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final int timeout;
+  private final String password;
+  private final int ioThreads;
+  private final boolean pipelining;
+
+  /** Known nodes by address, seeds and current masters. */
+  private final ConcurrentMap<HostAndPort, RedisNode> nodes = new ConcurrentHashMap<>();
+
+  /** Master by slot, {@code null} for the slots not served. */
+  private final AtomicReferenceArray<RedisNode> slots = new AtomicReferenceArray<>(SLOTS);
+
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(new IoThreadFactory("rsm-cluster"));
+
+  private final AtomicBoolean refreshPending = new AtomicBoolean();
+
+  // Guarded by `this'.
+  private long lastRefresh;
+  private Set<HostAndPort> masters = Collections.emptySet();
+
+  private volatile boolean closed;
+
+  /**
+   * @param seeds     Nodes to discover the cluster from.
+   * @param ioThreads I/O threads and connections per master.
+   */
+  ClusterCommandExecutor(List<HostAndPort> seeds,
+                         int timeout,
+                         String password,
+                         int ioThreads,
+                         boolean pipelining) {
+    this.timeout = timeout;
+    this.password = password;
+    this.ioThreads = ioThreads;
+    this.pipelining = pipelining;
+
+    seeds.forEach(this::node);
+
+    refresh();
+    scheduler.scheduleWithFixedDelay(
+        this::refresh, REFRESH_INTERVAL_MILLIS, REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public <T> CompletableFuture<T> execute(byte[] key, RedisCommand<T> command) {
+    return execute(JedisClusterCRC16.getSlot(key), command, 0);
+  }
+
+  private <T> CompletableFuture<T> execute(int slot, RedisCommand<T> command, int redirections) {
+    final RedisNode node = slots.get(slot);
+    if (node == null) {
+      requestRefresh();
+
+      final CompletableFuture<T> rc = new CompletableFuture<>();
+      rc.completeExceptionally(new JedisClusterException("No master serves slot " + slot));
+      return rc;
+    }
+
+    return follow(node.executor.execute(null, command), slot, command, redirections);
+  }
+
+  /**
+   * Retries the command on redirection, or completes with the original result.
+   */
+  private <T> CompletableFuture<T> follow(CompletableFuture<T> result,
+                                          int slot,
+                                          RedisCommand<T> command,
+                                          int redirections) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+
+    result.whenComplete((value, e) -> {
+      if (e == null) {
+        rc.complete(value);
+        return;
+      }
+
+      final Throwable cause = unwrap(e);
+      CompletableFuture<T> retry = null;
+
+      if (cause instanceof JedisRedirectionException && redirections < MAX_REDIRECTIONS) {
+        final JedisRedirectionException redirection = (JedisRedirectionException) cause;
+        final RedisNode target = node(redirection.getTargetNode());
+
+        if (cause instanceof JedisMovedDataException) {
+          slots.set(redirection.getSlot(), target);
+          requestRefresh();
+          retry = execute(slot, command, redirections + 1);
+
+        } else {
+          retry = follow(asking(target, command), slot, command, redirections + 1);
+        }
+
+      } else if (cause instanceof RejectedExecutionException && !closed && redirections < MAX_REDIRECTIONS) {
+        // Node dropped by a concurrent refresh.
+        retry = execute(slot, command, redirections + 1);
+
+      } else if (cause instanceof JedisConnectionException) {
+        // Possibly failed over.
+        requestRefresh();
+      }
+
+      if (retry == null) {
+        rc.completeExceptionally(cause);
+
+      } else {
+        retry.whenComplete((retried, re) -> {
+          if (re == null) {
+            rc.complete(retried);
+          } else {
+            rc.completeExceptionally(unwrap(re));
+          }
+        });
+      }
+    });
+
+    return rc;
+  }
+
+  /**
+   * Sends the command to the node importing the slot, preceded by {@code ASKING}.
+   * Redirections of this kind only happen during resharding, so are executed off the node's
+   * executor, which can't put {@code ASKING} in a pipeline.
+   */
+  private <T> CompletableFuture<T> asking(RedisNode target, RedisCommand<T> command) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+
+    try {
+      scheduler.execute(() -> {
+        try (Jedis jedis = target.pool.getResource()) {
+          jedis.asking();
+
+          final Pipeline pipeline = jedis.pipelined();
+          final Supplier<T> result = command.queue(pipeline);
+          pipeline.sync();
+
+          rc.complete(result.get());
+
+        } catch (Exception e) {
+          rc.completeExceptionally(e);
+        }
+      });
+
+    } catch (RejectedExecutionException e) {
+      rc.completeExceptionally(e);
+    }
+
+    return rc;
+  }
+
+  private static Throwable unwrap(Throwable e) {
+    return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+  }
+
+  private RedisNode node(HostAndPort address) {
+    return nodes.computeIfAbsent(address, a ->
+        new RedisNode(a, timeout, password, Protocol.DEFAULT_DATABASE, ioThreads, pipelining));
+  }
+
+  /**
+   * Schedules a slot map refresh, at most one per {@link #MIN_REFRESH_INTERVAL_MILLIS}.
+   */
+  private void requestRefresh() {
+    if (closed || !refreshPending.compareAndSet(false, true)) {
+      return;
+    }
+
+    final long delay;
+    synchronized (this) {
+      delay = Math.max(0, lastRefresh + MIN_REFRESH_INTERVAL_MILLIS - System.currentTimeMillis());
+    }
+
+    try {
+      scheduler.schedule(() -> {
+        refreshPending.set(false);
+        refresh();
+      }, delay, TimeUnit.MILLISECONDS);
+
+    } catch (RejectedExecutionException e) {
+      // Closed.
+      refreshPending.set(false);
+    }
+  }
+
+  private synchronized void refresh() {
+    if (closed) {
+      return;
+    }
+    lastRefresh = System.currentTimeMillis();
+
+    final List<RedisNode> candidates = new ArrayList<>(nodes.values());
+    Collections.shuffle(candidates);
+
+    for (RedisNode node : candidates) {
+      final List<Object> slotMap;
+      try (Jedis jedis = node.pool.getResource()) {
+        slotMap = jedis.clusterSlots();
+
+      } catch (Exception e) {
+        log.log(Level.FINE, "Failed loading cluster slots from " + node.address, e);
+        continue;
+      }
+
+      update(node, slotMap);
+      return;
+    }
+
+    log.warning("Failed loading cluster slots from any of the nodes " + nodes.keySet());
+  }
+
+  /**
+   * @param source  Node the slot map is loaded from.
+   * @param slotMap {@code CLUSTER SLOTS} reply: slot range, master address, then replicas.
+   */
+  @SuppressWarnings("unchecked")
+  private void update(RedisNode source, List<Object> slotMap) {
+    final RedisNode[] served = new RedisNode[SLOTS];
+    final Set<HostAndPort> current = new HashSet<>();
+
+    for (Object item : slotMap) {
+      final List<Object> range = (List<Object>) item;
+      final List<Object> master = (List<Object>) range.get(2);
+
+      String host = new String((byte[]) master.get(0), UTF_8);
+      if (host.isEmpty()) {
+        // Node doesn't know its own address.
+        host = source.address.getHost();
+      }
+      final HostAndPort address = new HostAndPort(host, ((Long) master.get(1)).intValue());
+      current.add(address);
+
+      final RedisNode node = node(address);
+      for (int slot = ((Long) range.get(0)).intValue(); slot <= ((Long) range.get(1)).intValue(); slot++) {
+        served[slot] = node;
+      }
+    }
+
+    for (int slot = 0; slot < SLOTS; slot++) {
+      slots.set(slot, served[slot]);
+    }
+
+    if (!current.equals(masters)) {
+      log.info("Cluster masters: " + current);
+      masters = current;
+    }
+
+    // Drop the nodes no longer serving any slots, unless that leaves nothing to refresh from.
+    if (!current.isEmpty()) {
+      for (RedisNode node : new ArrayList<>(nodes.values())) {
+        if (!current.contains(node.address) && nodes.remove(node.address, node)) {
+          node.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Opens a connection to any of the masters, e.g. for subscriptions.
+   */
+  Jedis connect() {
+    final List<HostAndPort> candidates = new ArrayList<>(nodes.keySet());
+    if (candidates.isEmpty()) {
+      throw new JedisClusterException("No cluster nodes known");
+    }
+
+    final HostAndPort address = candidates.get(ThreadLocalRandom.current().nextInt(candidates.size()));
+    final Jedis jedis = new Jedis(address.getHost(), address.getPort(), timeout);
+    if (password != null) {
+      jedis.auth(password);
+    }
+    return jedis;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    scheduler.shutdownNow();
+
+    for (RedisNode node : nodes.values()) {
+      node.close();
+    }
+    nodes.clear();
+  }
+
+}
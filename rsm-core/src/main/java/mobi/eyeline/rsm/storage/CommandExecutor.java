@@ -0,0 +1,20 @@
+package mobi.eyeline.rsm.storage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Strategy of sending {@linkplain RedisCommand commands} to Redis.
+ */
+interface CommandExecutor {
+
+  /**
+   * @param key Key the command applies to, which determines the node in a partitioned setup.
+   */
+  <T> CompletableFuture<T> execute(byte[] key, RedisCommand<T> command);
+
+  /**
+   * Completes pending commands and stops accepting new ones.
+   * Doesn't close the underlying connection pool.
+   */
+  void close();
+}
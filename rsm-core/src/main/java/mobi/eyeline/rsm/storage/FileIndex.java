@@ -0,0 +1,165 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.util.Hashing;
+
+import java.nio.ByteBuffer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Off-heap hash index of the {@linkplain FileStorageClient session file}: key hash, expiration
+ * time and record offset per entry, in a direct buffer with open addressing and linear probing.
+ *
+ * <p>Keys themselves are kept in the file only, so hash matches are confirmed by the caller
+ * against the record. Entries are addressed by slot numbers, which stay valid until the next
+ * insertion. Not thread-safe.
+ */
+class FileIndex {
+
+  /** Slot layout: key hash, expiration time, record offset, padding. */
+  private static final int SLOT_SIZE = 24;
+  private static final int EXPIRES_AT = 8;
+  private static final int OFFSET = 16;
+
+  private static final long EMPTY = 0;
+  private static final long REMOVED = 1;
+
+  private static final int MIN_CAPACITY = 1024;
+
+  private ByteBuffer slots;
+  private int capacity;
+
+  private int size;
+
+  /** Slots taken by entries or removal marks. */
+  private int used;
+
+  FileIndex(int expectedSize) {
+    capacity = capacityFor(expectedSize);
+    slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+  }
+
+  /**
+   * @return Key hash, never matching the reserved slot marks.
+   */
+  static long hash(byte[] key) {
+    final long hash = Hashing.MURMUR_HASH.hash(key);
+    return hash == EMPTY || hash == REMOVED ? hash + 2 : hash;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @param matches Tells if the record at the offset is of the key looked up.
+   * @return Slot of the key, or {@code -1} if missing.
+   */
+  int find(long hash, IntPredicate matches) {
+    final int mask = capacity - 1;
+    for (int i = start(hash, mask); ; i = (i + 1) & mask) {
+      final long h = slots.getLong(i * SLOT_SIZE);
+      if (h == EMPTY) {
+        return -1;
+      }
+      if (h == hash && matches.test(offset(i))) {
+        return i;
+      }
+    }
+  }
+
+  /**
+   * Adds a key known to be missing.
+   */
+  void insert(long hash, int offset, long expiresAt) {
+    if (2 * (used + 1) > capacity) {
+      rehash(capacityFor(size + 1));
+    }
+
+    final int mask = capacity - 1;
+    int i = start(hash, mask);
+    for (long h; (h = slots.getLong(i * SLOT_SIZE)) != EMPTY && h != REMOVED; ) {
+      i = (i + 1) & mask;
+    }
+
+    if (slots.getLong(i * SLOT_SIZE) == EMPTY) {
+      used++;
+    }
+    size++;
+    set(i, hash, offset, expiresAt);
+  }
+
+  void update(int slot, int offset, long expiresAt) {
+    slots.putInt(slot * SLOT_SIZE + OFFSET, offset);
+    slots.putLong(slot * SLOT_SIZE + EXPIRES_AT, expiresAt);
+  }
+
+  void updateExpiresAt(int slot, long expiresAt) {
+    slots.putLong(slot * SLOT_SIZE + EXPIRES_AT, expiresAt);
+  }
+
+  void remove(int slot) {
+    slots.putLong(slot * SLOT_SIZE, REMOVED);
+    size--;
+  }
+
+  long hashAt(int slot) {
+    return slots.getLong(slot * SLOT_SIZE);
+  }
+
+  int offset(int slot) {
+    return slots.getInt(slot * SLOT_SIZE + OFFSET);
+  }
+
+  /**
+   * @return Expiration time, epoch milliseconds, or {@code 0} if never expires.
+   */
+  long expiresAt(int slot) {
+    return slots.getLong(slot * SLOT_SIZE + EXPIRES_AT);
+  }
+
+  /**
+   * Visits the slots of all the entries. Entries may be removed, but not inserted meanwhile.
+   */
+  void forEach(IntConsumer action) {
+    for (int i = 0; i < capacity; i++) {
+      final long h = slots.getLong(i * SLOT_SIZE);
+      if (h != EMPTY && h != REMOVED) {
+        action.accept(i);
+      }
+    }
+  }
+
+  private void set(int slot, long hash, int offset, long expiresAt) {
+    slots.putLong(slot * SLOT_SIZE, hash);
+    update(slot, offset, expiresAt);
+  }
+
+  private void rehash(int newCapacity) {
+    final ByteBuffer prev = slots;
+    final int prevCapacity = capacity;
+
+    slots = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+    capacity = newCapacity;
+    size = 0;
+    used = 0;
+
+    for (int i = 0; i < prevCapacity; i++) {
+      final long h = prev.getLong(i * SLOT_SIZE);
+      if (h != EMPTY && h != REMOVED) {
+        insert(h, prev.getInt(i * SLOT_SIZE + OFFSET), prev.getLong(i * SLOT_SIZE + EXPIRES_AT));
+      }
+    }
+  }
+
+  private static int start(long hash, int mask) {
+    return (int) (hash ^ (hash >>> 32)) & mask;
+  }
+
+  /**
+   * @return Power of two capacity for the given size, at most half full.
+   */
+  private static int capacityFor(int size) {
+    return Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, 2 * size + 1)) << 1);
+  }
+}
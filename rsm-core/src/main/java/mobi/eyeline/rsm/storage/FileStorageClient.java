@@ -0,0 +1,802 @@
+package mobi.eyeline.rsm.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Local storage in a memory-mapped file, for single-node deployments without Redis.
+ *
+ * <p>Entries are appended to the file as checksummed records and located with an
+ * {@linkplain FileIndex off-heap index}, rebuilt by replaying the file on start. A record is
+ * made visible by writing its length last, and replay stops at the first record failing its
+ * checksum, so an interrupted append loses that record only. Changes reach the disk with
+ * the OS page cache, so survive a process crash, and are also forced every second.
+ *
+ * <p>Expired entries are skipped on read, and dropped by a sweep every
+ * {@value #SWEEP_INTERVAL_MILLIS} ms. Once most of the file is superseded or expired records,
+ * live ones are copied into a new file replacing the current one.
+ *
+ * <p>Messages are only delivered within the process. The file is locked, so may not be shared
+ * by several instances. Its size is limited to {@value #MAX_SIZE} bytes.
+ */
+public class FileStorageClient implements StorageClient {
+
+  public static final String SCHEME = "file";
+
+  static final String DATA_FILE = "sessions.rsm";
+  private static final String LOCK_FILE = "sessions.lock";
+
+  private static final int INITIAL_SIZE = 16 << 20;
+  static final int MAX_SIZE = 1 << 30;
+
+  /** Superseded and expired records tolerated before compaction. */
+  private static final int MIN_COMPACTION_GARBAGE = 4 << 20;
+
+  static final long SWEEP_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private static final long FORCE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  //
+  //  Record layout: length, CRC32 of the rest, type, expiration time (epoch ms., 0 for never),
+  //  key length, key, value.
+  //
+
+  private static final int LENGTH = 0;
+  private static final int CRC = 4;
+  private static final int TYPE = 8;
+  private static final int EXPIRES_AT = 9;
+  private static final int KEY_LENGTH = 17;
+  private static final int HEADER_SIZE = 21;
+
+  private static final byte BLOB = 1;
+  private static final byte FIELDS = 2;
+
+  /** Changes the expiration time of an entry, garbage once written. */
+  private static final byte TOUCH = 3;
+
+  /** Removes an entry, garbage once written. */
+  private static final byte DELETE = 4;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final Path dataFile;
+  private final Path tmpFile;
+  private final FileChannel lockChannel;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  // Guarded by `lock'.
+  private FileChannel channel;
+  private MappedByteBuffer data;
+  private FileIndex index;
+  private int end;
+  private long liveBytes;
+
+  private volatile boolean dirty;
+
+  private final ConcurrentMap<String, List<MessageListener>> subscribers = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(new IoThreadFactory("rsm-file"));
+
+  /**
+   * @param url Storage directory, e.g. {@code file:///var/lib/rsm}.
+   */
+  public FileStorageClient(String url) throws IOException {
+    requireNonNull(url, "Storage directory URL not set");
+
+    final Path dir = Paths.get(URI.create(url));
+    Files.createDirectories(dir);
+
+    dataFile = dir.resolve(DATA_FILE);
+    tmpFile = dir.resolve(DATA_FILE + ".tmp");
+
+    lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), CREATE, WRITE);
+    final FileLock fileLock;
+    try {
+      fileLock = lockChannel.tryLock();
+
+    } catch (IOException e) {
+      lockChannel.close();
+      throw e;
+    }
+    if (fileLock == null) {
+      lockChannel.close();
+      throw new IOException("Session file [" + dataFile + "] is in use by another process");
+    }
+
+    // Left by an interrupted compaction.
+    Files.deleteIfExists(tmpFile);
+
+    try {
+      open();
+
+    } catch (IOException | RuntimeException e) {
+      lockChannel.close();
+      throw e;
+    }
+
+    scheduler.scheduleWithFixedDelay(
+        this::sweep, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    scheduler.scheduleWithFixedDelay(
+        this::force, FORCE_INTERVAL_MILLIS, FORCE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void open() throws IOException {
+    channel = FileChannel.open(dataFile, CREATE, READ, WRITE);
+    data = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(channel.size()));
+    index = new FileIndex(0);
+
+    int pos = 0;
+    while (pos + HEADER_SIZE <= data.capacity()) {
+      final int length = data.getInt(pos + LENGTH);
+      if (length == 0) {
+        break;
+      }
+
+      if (length < HEADER_SIZE || length > data.capacity() - pos ||
+          data.getInt(pos + CRC) != crc(data, pos, length)) {
+        log.warning("Session file [" + dataFile + "] is truncated at " + pos + " bytes" +
+            " after an interrupted write, the rest is discarded");
+        clear(pos);
+        break;
+      }
+
+      replay(pos);
+      pos += length;
+    }
+    end = pos;
+
+    // Once replayed, as entries may be touched further in the file.
+    expire(System.currentTimeMillis());
+
+    log.info("Opened session file [" + dataFile + "]: " + index.size() + " entries," +
+        " " + liveBytes + " of " + end + " bytes live");
+  }
+
+  private void replay(int offset) {
+    final byte type = data.get(offset + TYPE);
+    final long expiresAt = data.getLong(offset + EXPIRES_AT);
+    final byte[] key = keyAt(offset);
+    final long hash = FileIndex.hash(key);
+
+    final int slot = index.find(hash, o -> keyMatches(o, key));
+
+    switch (type) {
+      case BLOB:
+      case FIELDS:
+        if (slot >= 0) {
+          liveBytes -= lengthAt(index.offset(slot));
+          index.remove(slot);
+        }
+        index.insert(hash, offset, expiresAt);
+        liveBytes += lengthAt(offset);
+        break;
+
+      case TOUCH:
+        if (slot >= 0) {
+          index.updateExpiresAt(slot, expiresAt);
+        }
+        break;
+
+      case DELETE:
+        if (slot >= 0) {
+          liveBytes -= lengthAt(index.offset(slot));
+          index.remove(slot);
+        }
+        break;
+
+      default:
+        log.warning("Unknown record type " + type + " at " + offset + " in [" + dataFile + "]");
+    }
+  }
+
+  /**
+   * Zeroes the file from the position on, so that appends are not followed by
+   * parts of an interrupted record.
+   */
+  private void clear(int pos) {
+    int i = pos;
+    for (; i % 8 != 0; i++) {
+      data.put(i, (byte) 0);
+    }
+
+    // Mapping size is a power of two, so a multiple of 8. Only the pages written are touched.
+    for (; i < data.capacity(); i += 8) {
+      if (data.getLong(i) != 0) {
+        data.putLong(i, 0);
+      }
+    }
+  }
+
+  //
+  //  Records.
+  //
+
+  private int lengthAt(int offset) {
+    return data.getInt(offset + LENGTH);
+  }
+
+  private byte[] keyAt(int offset) {
+    final byte[] key = new byte[data.getInt(offset + KEY_LENGTH)];
+    copy(offset + HEADER_SIZE, key);
+    return key;
+  }
+
+  private boolean keyMatches(int offset, byte[] key) {
+    if (data.getInt(offset + KEY_LENGTH) != key.length) {
+      return false;
+    }
+
+    for (int i = 0; i < key.length; i++) {
+      if (data.get(offset + HEADER_SIZE + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Copies the value straight out of the mapping.
+   */
+  private byte[] valueAt(int offset) {
+    final int start = HEADER_SIZE + data.getInt(offset + KEY_LENGTH);
+    final byte[] value = new byte[lengthAt(offset) - start];
+    copy(offset + start, value);
+    return value;
+  }
+
+  private void copy(int pos, byte[] dst) {
+    // Positions are per buffer, and reads are concurrent.
+    final ByteBuffer buffer = data.duplicate();
+    buffer.position(pos);
+    buffer.get(dst);
+  }
+
+  private static int crc(ByteBuffer data, int offset, int length) {
+    final ByteBuffer buffer = data.duplicate();
+    buffer.limit(offset + length);
+    buffer.position(offset + TYPE);
+
+    final CRC32 crc = new CRC32();
+    crc.update(buffer);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return Offset of the record written.
+   */
+  private int append(byte type, long expiresAt, byte[] key, byte[] value) throws IOException {
+    final long length = (long) HEADER_SIZE + key.length + value.length;
+    ensureCapacity(length);
+
+    final int offset = end;
+    final ByteBuffer buffer = data.duplicate();
+    buffer.position(offset + TYPE);
+    buffer.put(type);
+    buffer.putLong(expiresAt);
+    buffer.putInt(key.length);
+    buffer.put(key);
+    buffer.put(value);
+
+    data.putInt(offset + CRC, crc(data, offset, (int) length));
+    // Makes the record visible on replay.
+    data.putInt(offset + LENGTH, (int) length);
+
+    end += length;
+    dirty = true;
+    return offset;
+  }
+
+  private void ensureCapacity(long length) throws IOException {
+    if (end + length <= data.capacity()) {
+      return;
+    }
+
+    if (end - liveBytes >= length && end - liveBytes >= MIN_COMPACTION_GARBAGE) {
+      compact();
+      if (end + length <= data.capacity()) {
+        return;
+      }
+    }
+
+    final long required = end + length;
+    if (required > MAX_SIZE) {
+      throw new IOException("Session file [" + dataFile + "] is full, " + liveBytes + " bytes live");
+    }
+    data = channel.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(required));
+  }
+
+  /**
+   * @return Mapping size, a power of two.
+   */
+  private static int sizeFor(long required) {
+    final long size = Math.max(INITIAL_SIZE, Long.highestOneBit(Math.max(1, required - 1)) << 1);
+    return (int) Math.min(size, MAX_SIZE);
+  }
+
+  /**
+   * Writes the live records into a new file, which then replaces the current one.
+   */
+  private void compact() throws IOException {
+    final long now = System.currentTimeMillis();
+
+    final FileChannel compacted = FileChannel.open(tmpFile, CREATE, TRUNCATE_EXISTING, READ, WRITE);
+    try {
+      final MappedByteBuffer target = compacted.map(FileChannel.MapMode.READ_WRITE, 0, sizeFor(liveBytes));
+      final FileIndex compactedIndex = new FileIndex(index.size());
+
+      final int[] pos = {0};
+      index.forEach(slot -> {
+        final long expiresAt = index.expiresAt(slot);
+        if (isExpired(expiresAt, now)) {
+          return;
+        }
+
+        final int offset = index.offset(slot);
+        final int length = lengthAt(offset);
+
+        final ByteBuffer record = data.duplicate();
+        record.limit(offset + length);
+        record.position(offset);
+
+        target.position(pos[0]);
+        target.put(record);
+
+        // Possibly touched since written.
+        target.putLong(pos[0] + EXPIRES_AT, expiresAt);
+        target.putInt(pos[0] + CRC, crc(target, pos[0], length));
+
+        compactedIndex.insert(index.hashAt(slot), pos[0], expiresAt);
+        pos[0] += length;
+      });
+
+      target.force();
+      Files.move(tmpFile, dataFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+      log.info("Compacted session file [" + dataFile + "]: " + end + " -> " + pos[0] + " bytes");
+
+      channel.close();
+      channel = compacted;
+      data = target;
+      index = compactedIndex;
+      end = pos[0];
+      liveBytes = pos[0];
+
+    } catch (IOException | RuntimeException e) {
+      compacted.close();
+      Files.deleteIfExists(tmpFile);
+      throw e;
+    }
+  }
+
+  private static boolean isExpired(long expiresAt, long now) {
+    return expiresAt != 0 && expiresAt <= now;
+  }
+
+  private static long expiresAt(int lifetimeSeconds) {
+    return lifetimeSeconds > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifetimeSeconds) : 0;
+  }
+
+  //
+  //  Entries.
+  //
+
+  /**
+   * @return Slot of the entry, possibly expired, or {@code -1}.
+   */
+  private int slotOf(byte[] key) {
+    return index.find(FileIndex.hash(key), offset -> keyMatches(offset, key));
+  }
+
+  /**
+   * @return Slot of the live entry, or {@code -1}.
+   */
+  private int find(byte[] key) {
+    final int slot = slotOf(key);
+    return slot >= 0 && !isExpired(index.expiresAt(slot), System.currentTimeMillis()) ? slot : -1;
+  }
+
+  private void put(byte[] key, byte type, long expiresAt, byte[] value) throws IOException {
+    final int offset = append(type, expiresAt, key, value);
+
+    // Looked up once appended, as appending may compact the file.
+    final int slot = slotOf(key);
+    if (slot >= 0) {
+      liveBytes -= lengthAt(index.offset(slot));
+      index.update(slot, offset, expiresAt);
+
+    } else {
+      index.insert(FileIndex.hash(key), offset, expiresAt);
+    }
+    liveBytes += lengthAt(offset);
+  }
+
+  /**
+   * @return Fields of the live entry, {@code null} if missing or not field-wise.
+   */
+  private Map<String, byte[]> fieldsAt(int slot) {
+    if (slot < 0) {
+      return null;
+    }
+
+    final int offset = index.offset(slot);
+    return data.get(offset + TYPE) == FIELDS ? decodeFields(valueAt(offset)) : null;
+  }
+
+  private static byte[] encodeFields(Map<String, byte[]> fields) {
+    final List<byte[]> names = new ArrayList<>(fields.size());
+    int size = 4;
+    for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+      final byte[] name = field.getKey().getBytes(UTF_8);
+      names.add(name);
+      size += 8 + name.length + field.getValue().length;
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(size);
+    buffer.putInt(fields.size());
+
+    int i = 0;
+    for (byte[] value : fields.values()) {
+      final byte[] name = names.get(i++);
+      buffer.putInt(name.length).put(name);
+      buffer.putInt(value.length).put(value);
+    }
+    return buffer.array();
+  }
+
+  private static Map<String, byte[]> decodeFields(byte[] encoded) {
+    final ByteBuffer buffer = ByteBuffer.wrap(encoded);
+
+    final int n = buffer.getInt();
+    final Map<String, byte[]> fields = new HashMap<>(n * 4 / 3 + 1);
+    for (int i = 0; i < n; i++) {
+      final byte[] name = new byte[buffer.getInt()];
+      buffer.get(name);
+      final byte[] value = new byte[buffer.getInt()];
+      buffer.get(value);
+      fields.put(new String(name, UTF_8), value);
+    }
+    return fields;
+  }
+
+  private <T> CompletableFuture<T> read(Callable<T> operation) {
+    lock.readLock().lock();
+    try {
+      return CompletableFuture.completedFuture(operation.call());
+
+    } catch (Exception e) {
+      return failed(e);
+
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private <T> CompletableFuture<T> write(Callable<T> operation) {
+    lock.writeLock().lock();
+    try {
+      return CompletableFuture.completedFuture(operation.call());
+
+    } catch (Exception e) {
+      return failed(e);
+
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable e) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+    rc.completeExceptionally(e);
+    return rc;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      if (find(rawKey) >= 0) {
+        return false;
+      }
+      put(rawKey, BLOB, expiresAt(lifetimeSeconds), payload);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] o) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      put(rawKey, BLOB, expiresAt(lifetimeSeconds), o);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String key) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return read(() -> {
+      final int slot = find(rawKey);
+      if (slot < 0) {
+        return null;
+      }
+
+      final int offset = index.offset(slot);
+      return data.get(offset + TYPE) == BLOB ? valueAt(offset) : null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> touch(String key, int lifetimeSeconds) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      if (find(rawKey) < 0) {
+        return false;
+      }
+
+      final long expiresAt = expiresAt(lifetimeSeconds);
+      append(TOUCH, expiresAt, rawKey, new byte[0]);
+      index.updateExpiresAt(slotOf(rawKey), expiresAt);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> delete(String key) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      if (find(rawKey) < 0) {
+        return false;
+      }
+
+      append(DELETE, 0, rawKey, new byte[0]);
+      final int slot = slotOf(rawKey);
+      liveBytes -= lengthAt(index.offset(slot));
+      index.remove(slot);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    final byte[] value = encodeFields(fields);
+    return write(() -> {
+      if (find(rawKey) >= 0) {
+        return false;
+      }
+      put(rawKey, FIELDS, expiresAt(lifetimeSeconds), value);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    final byte[] value = encodeFields(fields);
+    return write(() -> {
+      put(rawKey, FIELDS, expiresAt(lifetimeSeconds), value);
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> updateFields(String key,
+                                                 int lifetimeSeconds,
+                                                 Map<String, byte[]> fields,
+                                                 Collection<String> removed) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      final int slot = find(rawKey);
+      final Map<String, byte[]> current = fieldsAt(slot);
+      if (current == null) {
+        return false;
+      }
+
+      current.putAll(fields);
+      current.keySet().removeAll(removed);
+
+      final long expiresAt = lifetimeSeconds > 0 ? expiresAt(lifetimeSeconds) : index.expiresAt(slot);
+      put(rawKey, FIELDS, expiresAt, encodeFields(current));
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, byte[]>> getFields(String key) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return read(() -> fieldsAt(find(rawKey)));
+  }
+
+  @Override
+  public CompletableFuture<List<byte[]>> getFields(String key, String... fields) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return read(() -> {
+      final Map<String, byte[]> current = fieldsAt(find(rawKey));
+
+      final byte[][] values = new byte[fields.length][];
+      if (current != null) {
+        for (int i = 0; i < fields.length; i++) {
+          values[i] = current.get(fields[i]);
+        }
+      }
+      return Arrays.asList(values);
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+    final byte[] rawKey = key.getBytes(UTF_8);
+    return write(() -> {
+      final int slot = find(rawKey);
+      Map<String, byte[]> current = fieldsAt(slot);
+      if (current == null) {
+        current = new HashMap<>();
+      }
+
+      final byte[] existing = current.get(value);
+      if (existing != null) {
+        return Long.valueOf(new String(existing, UTF_8));
+      }
+
+      final long i = current.size();
+      if (i >= maxSize) {
+        return -1L;
+      }
+
+      current.put(value, String.valueOf(i).getBytes(UTF_8));
+      put(rawKey, FIELDS, slot >= 0 ? index.expiresAt(slot) : 0, encodeFields(current));
+      return i;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> publish(String channel, byte[] message) {
+    final List<MessageListener> listeners = subscribers.get(channel);
+    if (listeners == null || listeners.isEmpty()) {
+      return CompletableFuture.completedFuture(0L);
+    }
+
+    try {
+      // Delivered on a dedicated thread, as with Redis.
+      scheduler.execute(() -> listeners.forEach(listener -> {
+        try {
+          listener.onMessage(message);
+
+        } catch (Exception e) {
+          log.log(Level.WARNING, "Failed handling message on [" + channel + "]", e);
+        }
+      }));
+
+    } catch (RejectedExecutionException e) {
+      return failed(e);
+    }
+
+    return CompletableFuture.completedFuture((long) listeners.size());
+  }
+
+  @Override
+  public Closeable subscribe(String channel, MessageListener listener) {
+    subscribers.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(listener);
+    scheduler.execute(listener::onSubscribe);
+
+    return () -> {
+      final List<MessageListener> listeners = subscribers.get(channel);
+      if (listeners != null && listeners.remove(listener)) {
+        listener.onUnsubscribe();
+      }
+    };
+  }
+
+  /**
+   * Drops the expired entries, then compacts the file if mostly garbage.
+   */
+  private void sweep() {
+    lock.writeLock().lock();
+    try {
+      final int expired = expire(System.currentTimeMillis());
+      if (expired > 0 && log.isLoggable(Level.FINE)) {
+        log.fine("Expired " + expired + " entries, " + index.size() + " left");
+      }
+
+      final long garbage = end - liveBytes;
+      if (garbage >= MIN_COMPACTION_GARBAGE && garbage > liveBytes) {
+        compact();
+      }
+
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Failed sweeping session file [" + dataFile + "]", e);
+
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return Number of entries dropped.
+   */
+  private int expire(long now) {
+    final int[] expired = {0};
+    index.forEach(slot -> {
+      if (isExpired(index.expiresAt(slot), now)) {
+        liveBytes -= lengthAt(index.offset(slot));
+        index.remove(slot);
+        expired[0]++;
+      }
+    });
+    return expired[0];
+  }
+
+  private void force() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+
+    final MappedByteBuffer current;
+    lock.readLock().lock();
+    try {
+      current = data;
+
+    } finally {
+      lock.readLock().unlock();
+    }
+
+    // Outside the lock, forcing a replaced mapping is harmless.
+    current.force();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+
+    lock.writeLock().lock();
+    try {
+      data.force();
+      channel.close();
+      lockChannel.close();
+
+    } catch (IOException e) {
+      log.log(Level.WARNING, "Failed closing session file [" + dataFile + "]", e);
+
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.util.Hashing;
+
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring, mapping keys to the nodes.
+ *
+ * <p>Each node is placed on the ring at a number of points derived from its name, and a key
+ * belongs to the first node point following the key hash. So adding or removing one of
+ * N nodes only moves about 1/N of the keys, and placement doesn't depend on the node order.
+ */
+class HashRing<T> {
+
+  /** Points per node, as in {@code ShardedJedis}. */
+  static final int DEFAULT_VIRTUAL_NODES = 160;
+
+  private final NavigableMap<Long, T> points = new TreeMap<>();
+
+  /**
+   * @param nodes Nodes by their names, which should stay the same as nodes are added.
+   */
+  HashRing(Map<String, T> nodes, int virtualNodes) {
+    if (nodes.isEmpty()) {
+      throw new IllegalArgumentException("No nodes");
+    }
+
+    // In name order, so that hash collisions are resolved the same way everywhere.
+    for (Map.Entry<String, T> node : new TreeMap<>(nodes).entrySet()) {
+      for (int i = 0; i < virtualNodes; i++) {
+        points.putIfAbsent(hash(node.getKey() + "#" + i), node.getValue());
+      }
+    }
+  }
+
+  HashRing(Map<String, T> nodes) {
+    this(nodes, DEFAULT_VIRTUAL_NODES);
+  }
+
+  T get(String key) {
+    final Map.Entry<Long, T> point = points.ceilingEntry(hash(key));
+    return point != null ? point.getValue() : points.firstEntry().getValue();
+  }
+
+  private static long hash(String value) {
+    return Hashing.MURMUR_HASH.hash(value);
+  }
+}
@@ -0,0 +1,147 @@
+package mobi.eyeline.rsm.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Policy and metrics of hedged reads: a read not completed within the given percentile of
+ * recent read latencies is duplicated to another node, and the first reply wins.
+ *
+ * <p>Hedges are limited to a fraction of reads by a token bucket, so that a node slowing down
+ * as a whole doesn't get its load multiplied.
+ */
+public class HedgedReads {
+
+  /** Recent latencies the delay is estimated from. */
+  private static final int SAMPLES = 1024;
+
+  /** Reads before the first estimate, no hedging until then. */
+  private static final int MIN_SAMPLES = 100;
+
+  private static final int ESTIMATE_EVERY = 64;
+
+  /** Hedges allowed in a row, in excess of the rate. */
+  private static final int MAX_BURST = 10;
+
+  /** Token bucket resolution. */
+  private static final long TOKEN = 1000;
+
+  private final double percentile;
+  private final long tokensPerRead;
+
+  // Guarded by `this'.
+  private final long[] latencies = new long[SAMPLES];
+  private int samples;
+
+  /** Hedge delay, microseconds, {@code -1} until estimated. */
+  private volatile long delayMicros = -1;
+
+  private final AtomicLong tokens = new AtomicLong(MAX_BURST * TOKEN);
+
+  // Metrics.
+  private final AtomicLong reads = new AtomicLong();
+  private final AtomicLong hedged = new AtomicLong();
+  private final AtomicLong won = new AtomicLong();
+
+  /**
+   * @param percentile Read latency percentile to hedge after, e.g. {@code 95}.
+   * @param maxPercent Maximal share of reads hedged, percent.
+   */
+  public HedgedReads(double percentile, double maxPercent) {
+    if (percentile <= 0 || percentile >= 100) {
+      throw new IllegalArgumentException("Hedge percentile should be in (0, 100): " + percentile);
+    }
+    if (maxPercent <= 0 || maxPercent > 100) {
+      throw new IllegalArgumentException("Hedge rate limit should be in (0, 100]: " + maxPercent);
+    }
+
+    this.percentile = percentile;
+    this.tokensPerRead = Math.max(1, Math.round(TOKEN * maxPercent / 100));
+  }
+
+  /**
+   * Registers a read, adding to the hedge budget.
+   *
+   * @return Delay to hedge the read after, microseconds, or {@code -1} to not hedge it.
+   */
+  long started() {
+    reads.incrementAndGet();
+
+    long available;
+    do {
+      available = tokens.get();
+    } while (available < MAX_BURST * TOKEN &&
+        !tokens.compareAndSet(available, Math.min(available + tokensPerRead, MAX_BURST * TOKEN)));
+
+    return delayMicros;
+  }
+
+  /**
+   * @param latencyNanos Latency of a read to the first node asked.
+   */
+  void completed(long latencyNanos) {
+    final long[] estimate;
+    synchronized (this) {
+      latencies[samples % SAMPLES] = TimeUnit.NANOSECONDS.toMicros(latencyNanos);
+      samples++;
+
+      if (samples < MIN_SAMPLES || samples % ESTIMATE_EVERY != 0) {
+        return;
+      }
+      estimate = Arrays.copyOf(latencies, Math.min(samples, SAMPLES));
+    }
+
+    Arrays.sort(estimate);
+    final int index = (int) Math.ceil(percentile / 100 * estimate.length) - 1;
+    delayMicros = Math.max(1, estimate[Math.max(0, index)]);
+  }
+
+  /**
+   * @return Whether a hedge fits into the rate limit, taking it if so.
+   */
+  boolean tryHedge() {
+    long available;
+    do {
+      available = tokens.get();
+      if (available < TOKEN) {
+        return false;
+      }
+    } while (!tokens.compareAndSet(available, available - TOKEN));
+
+    hedged.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Called when a hedge replied first.
+   */
+  void won() {
+    won.incrementAndGet();
+  }
+
+  public long getReadCount() {
+    return reads.get();
+  }
+
+  /**
+   * @return Number of reads duplicated to another node.
+   */
+  public long getHedgedCount() {
+    return hedged.get();
+  }
+
+  /**
+   * @return Number of hedges replied before the original read.
+   */
+  public long getWonCount() {
+    return won.get();
+  }
+
+  /**
+   * @return Current hedge delay, microseconds, {@code -1} until enough reads are sampled.
+   */
+  public long getDelayMicros() {
+    return delayMicros;
+  }
+}
@@ -0,0 +1,23 @@
+package mobi.eyeline.rsm.storage;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class IoThreadFactory implements ThreadFactory {
+
+  private static final AtomicInteger poolNumber = new AtomicInteger();
+
+  private final String prefix;
+  private final AtomicInteger threadNumber = new AtomicInteger();
+
+  IoThreadFactory(String name) {
+    this.prefix = name + "-" + poolNumber.incrementAndGet() + "-";
+  }
+
+  @Override
+  public Thread newThread(Runnable r) {
+    final Thread thread = new Thread(r, prefix + threadNumber.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
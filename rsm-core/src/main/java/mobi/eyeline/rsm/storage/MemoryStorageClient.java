@@ -0,0 +1,375 @@
+package mobi.eyeline.rsm.storage;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Storage in a concurrent map within the process, for tests and benchmarks.
+ *
+ * <p>Entries expire as in Redis: an expired entry is never returned, and is dropped either
+ * on access or by a sweep every {@value #SWEEP_INTERVAL_MILLIS} ms. Values are stored and
+ * returned by reference.
+ *
+ * <p>URL is {@code mem://[?latency=<ms>]}. With latency set, each result is delivered
+ * that much later, as if from a remote storage, on a pool of threads sized to the cores.
+ *
+ * @see RespServer
+ */
+public class MemoryStorageClient implements StorageClient {
+
+  public static final String SCHEME = "mem";
+
+  static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final long latencyMillis;
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, List<MessageListener>> subscribers = new ConcurrentHashMap<>();
+
+  /** Timers, expiration sweeps and message delivery, the latter in order. */
+  private final ScheduledExecutorService scheduler =
+      Executors.newSingleThreadScheduledExecutor(new IoThreadFactory("rsm-mem"));
+
+  /** Delayed results, so that callbacks of concurrent operations do not queue up on a single thread. */
+  private final ExecutorService completions =
+      Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new IoThreadFactory("rsm-mem-io"));
+
+  public MemoryStorageClient() {
+    this(0);
+  }
+
+  /**
+   * @param latencyMillis Delay of each result, {@code 0} for none.
+   */
+  public MemoryStorageClient(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+
+    scheduler.scheduleWithFixedDelay(
+        this::sweep, SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @param url {@code mem://}, optionally with latency, e.g. {@code mem://?latency=2}.
+   */
+  public MemoryStorageClient(String url) {
+    this(latency(url));
+  }
+
+  private static long latency(String url) {
+    final String query = URI.create(url).getQuery();
+    if (query != null) {
+      for (String param : query.split("&")) {
+        if (param.startsWith("latency=")) {
+          return Long.parseLong(param.substring("latency=".length()));
+        }
+      }
+    }
+    return 0;
+  }
+
+  private <T> CompletableFuture<T> result(Supplier<T> operation) {
+    final T value;
+    try {
+      value = operation.get();
+
+    } catch (RuntimeException e) {
+      return failed(e);
+    }
+
+    if (latencyMillis <= 0) {
+      return CompletableFuture.completedFuture(value);
+    }
+
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+    try {
+      scheduler.schedule(() -> complete(rc, value), latencyMillis, TimeUnit.MILLISECONDS);
+
+    } catch (RejectedExecutionException e) {
+      rc.completeExceptionally(e);
+    }
+    return rc;
+  }
+
+  private <T> void complete(CompletableFuture<T> rc, T value) {
+    try {
+      completions.execute(() -> rc.complete(value));
+
+    } catch (RejectedExecutionException e) {
+      rc.completeExceptionally(e);
+    }
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable e) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+    rc.completeExceptionally(e);
+    return rc;
+  }
+
+  /**
+   * @return Live entry, or {@code null}.
+   */
+  private Entry entry(String key) {
+    final Entry entry = entries.get(key);
+    if (entry != null && entry.isExpired(System.currentTimeMillis())) {
+      entries.remove(key, entry);
+      return null;
+    }
+    return entry;
+  }
+
+  private static long expiresAt(int lifetimeSeconds) {
+    return lifetimeSeconds > 0 ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(lifetimeSeconds) : 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, byte[]> fields(Entry entry) {
+    return entry != null && entry.value instanceof Map ? (Map<String, byte[]>) entry.value : null;
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload) {
+    return result(() -> setIfAbsent(key, new Entry(payload, expiresAt(lifetimeSeconds))));
+  }
+
+  private boolean setIfAbsent(String key, Entry entry) {
+    final long now = System.currentTimeMillis();
+    final boolean[] set = {false};
+    entries.compute(key, (k, current) -> {
+      if (current != null && !current.isExpired(now)) {
+        return current;
+      }
+      set[0] = true;
+      return entry;
+    });
+    return set[0];
+  }
+
+  @Override
+  public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] o) {
+    return result(() -> {
+      entries.put(key, new Entry(o, expiresAt(lifetimeSeconds)));
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String key) {
+    return result(() -> {
+      final Entry entry = entry(key);
+      return entry != null && entry.value instanceof byte[] ? (byte[]) entry.value : null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> touch(String key, int lifetimeSeconds) {
+    return result(() -> {
+      final long now = System.currentTimeMillis();
+      final boolean[] touched = {false};
+      entries.computeIfPresent(key, (k, current) -> {
+        if (current.isExpired(now)) {
+          return null;
+        }
+        touched[0] = true;
+        return new Entry(current.value, expiresAt(lifetimeSeconds));
+      });
+      return touched[0];
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> delete(String key) {
+    return result(() -> {
+      final Entry entry = entries.remove(key);
+      return entry != null && !entry.isExpired(System.currentTimeMillis());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    return result(() -> setIfAbsent(key, new Entry(new HashMap<>(fields), expiresAt(lifetimeSeconds))));
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    return result(() -> {
+      entries.put(key, new Entry(new HashMap<>(fields), expiresAt(lifetimeSeconds)));
+      return true;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Boolean> updateFields(String key,
+                                                 int lifetimeSeconds,
+                                                 Map<String, byte[]> fields,
+                                                 Collection<String> removed) {
+    return result(() -> {
+      final long now = System.currentTimeMillis();
+      final boolean[] updated = {false};
+      entries.computeIfPresent(key, (k, current) -> {
+        if (current.isExpired(now)) {
+          return null;
+        }
+
+        final Map<String, byte[]> currentFields = fields(current);
+        if (currentFields == null) {
+          return current;
+        }
+
+        final Map<String, byte[]> merged = new HashMap<>(currentFields);
+        merged.putAll(fields);
+        merged.keySet().removeAll(removed);
+
+        updated[0] = true;
+        return new Entry(merged, lifetimeSeconds > 0 ? expiresAt(lifetimeSeconds) : current.expiresAt);
+      });
+      return updated[0];
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, byte[]>> getFields(String key) {
+    return result(() -> {
+      final Map<String, byte[]> fields = fields(entry(key));
+      return fields == null ? null : new HashMap<>(fields);
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<byte[]>> getFields(String key, String... fields) {
+    return result(() -> {
+      final Map<String, byte[]> current = fields(entry(key));
+
+      final byte[][] values = new byte[fields.length][];
+      if (current != null) {
+        for (int i = 0; i < fields.length; i++) {
+          values[i] = current.get(fields[i]);
+        }
+      }
+      return Arrays.asList(values);
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+    return result(() -> {
+      final long now = System.currentTimeMillis();
+      final long[] index = {-1};
+      entries.compute(key, (k, current) -> {
+        final Map<String, byte[]> currentFields =
+            current == null || current.isExpired(now) ? Collections.emptyMap() : fields(current);
+        if (currentFields == null) {
+          // Not an index.
+          return current;
+        }
+
+        final byte[] existing = currentFields.get(value);
+        if (existing != null) {
+          index[0] = Long.parseLong(new String(existing, UTF_8));
+          return current;
+        }
+        if (currentFields.size() >= maxSize) {
+          return current;
+        }
+
+        final Map<String, byte[]> updated = new HashMap<>(currentFields);
+        index[0] = currentFields.size();
+        updated.put(value, String.valueOf(index[0]).getBytes(UTF_8));
+        return new Entry(updated, current == null ? 0 : current.expiresAt);
+      });
+      return index[0];
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> publish(String channel, byte[] message) {
+    final List<MessageListener> listeners = subscribers.getOrDefault(channel, Collections.emptyList());
+    if (!listeners.isEmpty()) {
+      try {
+        // Delivered on a dedicated thread, as with Redis.
+        scheduler.schedule(() -> listeners.forEach(listener -> {
+          try {
+            listener.onMessage(message);
+
+          } catch (Exception e) {
+            log.log(Level.WARNING, "Failed processing message", e);
+          }
+        }), latencyMillis, TimeUnit.MILLISECONDS);
+
+      } catch (RejectedExecutionException e) {
+        return failed(e);
+      }
+    }
+
+    return result(() -> (long) listeners.size());
+  }
+
+  @Override
+  public Closeable subscribe(String channel, MessageListener listener) {
+    subscribers.computeIfAbsent(channel, k -> new CopyOnWriteArrayList<>()).add(listener);
+    scheduler.execute(listener::onSubscribe);
+
+    return () -> {
+      final List<MessageListener> listeners = subscribers.get(channel);
+      if (listeners != null && listeners.remove(listener)) {
+        listener.onUnsubscribe();
+      }
+    };
+  }
+
+  private void sweep() {
+    final long now = System.currentTimeMillis();
+    entries.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+  }
+
+  /**
+   * Drops all the entries.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    completions.shutdownNow();
+  }
+
+  private static class Entry {
+    /** Either a blob, or fields. */
+    final Object value;
+
+    /** Epoch milliseconds, {@code 0} for never. */
+    final long expiresAt;
+
+    Entry(Object value, long expiresAt) {
+      this.value = value;
+      this.expiresAt = expiresAt;
+    }
+
+    boolean isExpired(long now) {
+      return expiresAt != 0 && expiresAt <= now;
+    }
+  }
+}
@@ -0,0 +1,22 @@
+package mobi.eyeline.rsm.storage;
+
+/**
+ * Receives messages published to a {@linkplain StorageClient#subscribe subscribed} channel.
+ *
+ * <p>Callbacks are invoked on a dedicated subscriber thread and should not block.
+ */
+public interface MessageListener {
+
+  void onMessage(byte[] message);
+
+  /**
+   * Invoked each time the subscription is (re-)established.
+   * Note that messages published while the subscription was down are lost.
+   */
+  default void onSubscribe() {}
+
+  /**
+   * Invoked when the subscription is lost, e.g. on connection failure.
+   */
+  default void onUnsubscribe() {}
+}
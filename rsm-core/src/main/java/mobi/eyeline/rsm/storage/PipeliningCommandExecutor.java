@@ -0,0 +1,197 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.util.Pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Auto-pipelining executor.
+ *
+ * <p>Commands submitted by any number of threads are put into a shared queue, which is drained
+ * by a few writer threads. Each writer sends everything accumulated so far as a single pipeline
+ * over its own connection and completes the results in submission order.
+ *
+ * <p>Under load this turns many single-command round trips into a few batched ones,
+ * so the number of connections no longer has to match the number of request threads.
+ */
+class PipeliningCommandExecutor implements CommandExecutor {
+
+  /** Maximal number of commands sent in a single pipeline. */
+  static final int MAX_BATCH_SIZE = 256;
+
+  /** Maximal number of pending commands, callers block until there's space in the queue. */
+  static final int MAX_QUEUE_SIZE = 16 * 1024;
+
+  private static final int POLL_INTERVAL_MILLIS = 100;
+  private static final int CLOSE_TIMEOUT_SECONDS = 5;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final Pool<Jedis> pool;
+  private final BlockingQueue<QueuedCommand<?>> queue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+  private final List<Thread> writers = new ArrayList<>();
+
+  private volatile boolean closed;
+
+  PipeliningCommandExecutor(Pool<Jedis> pool, int connections) {
+    this.pool = pool;
+
+    final IoThreadFactory threadFactory = new IoThreadFactory("rsm-pipeline");
+    for (int i = 0; i < connections; i++) {
+      final Thread writer = threadFactory.newThread(this::runWriter);
+      writers.add(writer);
+      writer.start();
+    }
+  }
+
+  @Override
+  public <T> CompletableFuture<T> execute(byte[] key, RedisCommand<T> command) {
+    final QueuedCommand<T> queued = new QueuedCommand<>(command);
+
+    if (closed) {
+      queued.fail(new RejectedExecutionException("Executor is closed"));
+      return queued.future;
+    }
+
+    try {
+      queue.put(queued);
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      queued.fail(e);
+    }
+
+    return queued.future;
+  }
+
+  private void runWriter() {
+    final List<QueuedCommand<?>> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+    while (!closed || !queue.isEmpty()) {
+      try {
+        final QueuedCommand<?> first = queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+          continue;
+        }
+
+        batch.add(first);
+        queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+        flush(batch);
+
+      } catch (InterruptedException e) {
+        break;
+
+      } finally {
+        batch.clear();
+      }
+    }
+  }
+
+  private void flush(List<QueuedCommand<?>> batch) {
+    final long startMillis = log.isLoggable(Level.FINER) ? System.currentTimeMillis() : 0;
+
+    try (Jedis jedis = pool.getResource()) {
+      final Pipeline pipeline = jedis.pipelined();
+      for (QueuedCommand<?> command : batch) {
+        command.queue(pipeline);
+      }
+      pipeline.sync();
+
+      for (QueuedCommand<?> command : batch) {
+        command.complete();
+      }
+
+    } catch (Exception e) {
+      log.log(Level.WARNING, "Failed executing pipeline of " + batch.size() + " commands", e);
+      for (QueuedCommand<?> command : batch) {
+        command.fail(e);
+      }
+
+    } finally {
+      if (startMillis > 0) {
+        log.finer("Pipeline of " + batch.size() + " commands," +
+            " operation time, ms.: " + (System.currentTimeMillis() - startMillis));
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+
+    try {
+      final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS);
+      for (Thread writer : writers) {
+        writer.join(Math.max(1, deadline - System.currentTimeMillis()));
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (Thread writer : writers) {
+      if (writer.isAlive()) {
+        log.warning("Pending commands not completed in " + CLOSE_TIMEOUT_SECONDS + " seconds");
+        writer.interrupt();
+      }
+    }
+
+    final List<QueuedCommand<?>> rejected = new ArrayList<>();
+    queue.drainTo(rejected);
+    rejected.forEach(command -> command.fail(new RejectedExecutionException("Executor is closed")));
+  }
+
+
+  //
+  //
+  //
+
+  private static class QueuedCommand<T> {
+    private final RedisCommand<T> command;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+
+    private Supplier<T> result;
+
+    QueuedCommand(RedisCommand<T> command) {
+      this.command = command;
+    }
+
+    void queue(Pipeline pipeline) {
+      try {
+        result = command.queue(pipeline);
+
+      } catch (Exception e) {
+        fail(e);
+      }
+    }
+
+    void complete() {
+      if (result == null) {
+        return;
+      }
+
+      try {
+        future.complete(result.get());
+
+      } catch (Exception e) {
+        fail(e);
+      }
+    }
+
+    void fail(Exception e) {
+      future.completeExceptionally(e);
+    }
+  }
+}
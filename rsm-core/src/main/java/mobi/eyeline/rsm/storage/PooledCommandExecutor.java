@@ -0,0 +1,87 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.exceptions.JedisRedirectionException;
+import redis.clients.util.Pool;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes each command on a separate pooled connection, using a fixed set of I/O threads.
+ */
+class PooledCommandExecutor implements CommandExecutor {
+
+  private static final int CLOSE_TIMEOUT_SECONDS = 5;
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final Pool<Jedis> pool;
+  private final ExecutorService executor;
+
+  PooledCommandExecutor(Pool<Jedis> pool, int ioThreads) {
+    this.pool = pool;
+    this.executor = Executors.newFixedThreadPool(ioThreads, new IoThreadFactory("rsm-io"));
+  }
+
+  @Override
+  public <T> CompletableFuture<T> execute(byte[] key, RedisCommand<T> command) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+
+    try {
+      executor.execute(() -> {
+        final long startMillis = log.isLoggable(Level.FINER) ? System.currentTimeMillis() : 0;
+
+        try (Jedis jedis = pool.getResource()) {
+          final Pipeline pipeline = jedis.pipelined();
+          final Supplier<T> result = command.queue(pipeline);
+          pipeline.sync();
+
+          rc.complete(result.get());
+
+        } catch (JedisRedirectionException e) {
+          // Expected on cluster resharding, followed by the caller.
+          log.log(Level.FINE, "Command redirected", e);
+          rc.completeExceptionally(e);
+
+        } catch (Exception e) {
+          log.log(Level.WARNING, "Failed executing command", e);
+          rc.completeExceptionally(e);
+
+        } finally {
+          if (startMillis > 0) {
+            log.finer("Operation time, ms.: " + (System.currentTimeMillis() - startMillis));
+          }
+        }
+      });
+
+    } catch (RejectedExecutionException e) {
+      log.log(Level.WARNING, "Failed submitting command", e);
+      rc.completeExceptionally(e);
+    }
+
+    return rc;
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        log.warning("Pending commands not completed in " + CLOSE_TIMEOUT_SECONDS + " seconds");
+        executor.shutdownNow();
+      }
+
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
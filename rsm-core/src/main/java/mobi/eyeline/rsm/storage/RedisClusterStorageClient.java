@@ -0,0 +1,66 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.HostAndPort;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Redis Cluster client, routing each key to the master serving its hash slot.
+ *
+ * <p>Cluster URL lists any of the nodes to discover the cluster from,
+ * {@code redis-cluster://[:password@]host:port[,host:port...]}.
+ *
+ * @see ClusterCommandExecutor
+ */
+public class RedisClusterStorageClient extends RedisStorageClient {
+
+  public static final String SCHEME = "redis-cluster";
+
+  public RedisClusterStorageClient(String clusterUrl, int timeout, int ioThreads, boolean pipelining) {
+    this(parse(clusterUrl, timeout, ioThreads, pipelining));
+  }
+
+  private RedisClusterStorageClient(ClusterCommandExecutor executor) {
+    super(null, executor, executor::connect);
+  }
+
+  private static ClusterCommandExecutor parse(String clusterUrl,
+                                              int timeout,
+                                              int ioThreads,
+                                              boolean pipelining) {
+    requireNonNull(clusterUrl, "Redis cluster URL not set");
+
+    final String prefix = SCHEME + "://";
+    if (!clusterUrl.startsWith(prefix)) {
+      throw new IllegalArgumentException("Not a Redis cluster URL: [" + clusterUrl + "]");
+    }
+
+    String nodes = clusterUrl.substring(prefix.length());
+    if (nodes.endsWith("/")) {
+      nodes = nodes.substring(0, nodes.length() - 1);
+    }
+
+    String password = null;
+    final int at = nodes.lastIndexOf('@');
+    if (at >= 0) {
+      final String userInfo = nodes.substring(0, at);
+      password = userInfo.substring(userInfo.indexOf(':') + 1);
+      nodes = nodes.substring(at + 1);
+    }
+
+    final List<HostAndPort> seeds = new ArrayList<>();
+    for (String node : nodes.split(",")) {
+      final int colon = node.lastIndexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Invalid cluster node address [" + node + "]," +
+            " expected host:port in [" + clusterUrl + "]");
+      }
+      seeds.add(new HostAndPort(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))));
+    }
+
+    return new ClusterCommandExecutor(seeds, timeout(timeout), password, ioThreads(ioThreads), pipelining);
+  }
+}
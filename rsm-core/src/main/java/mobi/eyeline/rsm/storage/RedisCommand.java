@@ -0,0 +1,22 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.Pipeline;
+
+import java.util.function.Supplier;
+
+/**
+ * Redis command (or a group of commands executed as a whole).
+ *
+ * <p>Commands are always queued on a {@linkplain Pipeline pipeline}, so the same command
+ * can be sent either alone or in a batch along with commands issued by other threads.
+ */
+@FunctionalInterface
+interface RedisCommand<T> {
+
+  /**
+   * Queues the command.
+   *
+   * @return Command result accessor, valid after the pipeline is synchronized.
+   */
+  Supplier<T> queue(Pipeline pipeline);
+}
@@ -0,0 +1,43 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.JedisPool;
+
+/**
+ * Connection pool and executor of a single node, in setups with many of them.
+ */
+class RedisNode {
+
+  final HostAndPort address;
+  final JedisPool pool;
+  final CommandExecutor executor;
+
+  /**
+   * @param ioThreads I/O threads and connections of this node.
+   */
+  RedisNode(HostAndPort address,
+            int timeout,
+            String password,
+            int database,
+            int ioThreads,
+            boolean pipelining) {
+    this.address = address;
+
+    pool = new JedisPool(RedisStorageClient.poolConfig(ioThreads),
+        address.getHost(), address.getPort(), timeout, password, database);
+    executor = RedisStorageClient.executor(pool, ioThreads, pipelining);
+  }
+
+  /**
+   * Completes pending commands and closes the connections.
+   */
+  void close() {
+    executor.close();
+    pool.close();
+  }
+
+  @Override
+  public String toString() {
+    return address.toString();
+  }
+}
@@ -0,0 +1,314 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisSentinelPool;
+import redis.clients.jedis.Protocol;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Redis client discovering the master through Sentinel, and following it on failover.
+ *
+ * <p>Sentinel URL lists any of the sentinels and names the monitored master,
+ * {@code redis-sentinel://[:password@]host:port[,host:port...][/database]#master}.
+ * The password and database apply to the Redis nodes, not to the sentinels.
+ *
+ * <p>Optionally, reads are served by the replicas known to Sentinel. A key written by this
+ * client is read from the master for {@value #RECENT_WRITE_WINDOW_MILLIS} ms afterwards,
+ * so that a node always sees its own writes despite the replication lag. Keys missing on
+ * a replica are read from the master as well. Replica reads may be {@linkplain HedgedReads hedged}.
+ */
+public class RedisSentinelStorageClient extends RedisStorageClient {
+
+  public static final String SCHEME = "redis-sentinel";
+
+  /** Period reads of a key written by this client are served by the master. */
+  static final long RECENT_WRITE_WINDOW_MILLIS = 2000;
+
+  private static final long REPLICAS_REFRESH_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final Sentinel sentinel;
+  private final JedisSentinelPool pool;
+  private final CommandExecutor master;
+
+  /** Replica reads, {@code null} if disabled. */
+  private final ReplicaReadExecutor replicas;
+  private final ScheduledExecutorService scheduler;
+
+  /** Keys recently written, to their read-your-writes deadlines. */
+  private final ConcurrentMap<String, Long> recentWrites = new ConcurrentHashMap<>();
+
+  /**
+   * @param readFromReplicas Whether reads are served by the replicas.
+   * @param hedging          Hedging of replica reads, {@code null} to disable.
+   */
+  public RedisSentinelStorageClient(String sentinelUrl,
+                                    int timeout,
+                                    int ioThreads,
+                                    boolean pipelining,
+                                    boolean readFromReplicas,
+                                    HedgedReads hedging) {
+    this(parse(sentinelUrl), timeout(timeout), ioThreads(ioThreads), pipelining, readFromReplicas, hedging);
+  }
+
+  private RedisSentinelStorageClient(Sentinel sentinel,
+                                     int timeout,
+                                     int ioThreads,
+                                     boolean pipelining,
+                                     boolean readFromReplicas,
+                                     HedgedReads hedging) {
+    this(sentinel,
+        new JedisSentinelPool(sentinel.masterName, sentinel.addresses,
+            poolConfig(ioThreads), timeout, sentinel.password, sentinel.database),
+        timeout, ioThreads, pipelining, readFromReplicas, hedging);
+  }
+
+  private RedisSentinelStorageClient(Sentinel sentinel,
+                                     JedisSentinelPool pool,
+                                     int timeout,
+                                     int ioThreads,
+                                     boolean pipelining,
+                                     boolean readFromReplicas,
+                                     HedgedReads hedging) {
+    this(sentinel, pool, executor(pool, ioThreads, pipelining),
+        timeout, ioThreads, pipelining, readFromReplicas, hedging);
+  }
+
+  private RedisSentinelStorageClient(Sentinel sentinel,
+                                     JedisSentinelPool pool,
+                                     CommandExecutor master,
+                                     int timeout,
+                                     int ioThreads,
+                                     boolean pipelining,
+                                     boolean readFromReplicas,
+                                     HedgedReads hedging) {
+    super(pool, master, () -> connectToMaster(pool, sentinel, timeout));
+
+    this.sentinel = sentinel;
+    this.pool = pool;
+    this.master = master;
+
+    if (readFromReplicas) {
+      // Sentinel queries shouldn't delay the hedges.
+      scheduler = Executors.newScheduledThreadPool(2, new IoThreadFactory("rsm-sentinel"));
+      replicas = new ReplicaReadExecutor(
+          master, hedging, scheduler, timeout, sentinel.password, sentinel.database, ioThreads, pipelining);
+
+      refreshReplicas();
+      scheduler.scheduleWithFixedDelay(this::refreshReplicas,
+          REPLICAS_REFRESH_INTERVAL_MILLIS, REPLICAS_REFRESH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      scheduler.scheduleWithFixedDelay(this::expireRecentWrites,
+          RECENT_WRITE_WINDOW_MILLIS, RECENT_WRITE_WINDOW_MILLIS, TimeUnit.MILLISECONDS);
+
+    } else {
+      replicas = null;
+      scheduler = null;
+    }
+  }
+
+  private static Jedis connectToMaster(JedisSentinelPool pool, Sentinel sentinel, int timeout) {
+    final HostAndPort address = pool.getCurrentHostMaster();
+
+    final Jedis jedis = new Jedis(address.getHost(), address.getPort(), timeout);
+    if (sentinel.password != null) {
+      jedis.auth(sentinel.password);
+    }
+    if (sentinel.database != Protocol.DEFAULT_DATABASE) {
+      jedis.select(sentinel.database);
+    }
+    return jedis;
+  }
+
+  @Override
+  CommandExecutor readExecutor(String key) {
+    if (replicas == null) {
+      return master;
+    }
+
+    final Long deadline = recentWrites.get(key);
+    return deadline != null && deadline > System.currentTimeMillis() ? master : replicas;
+  }
+
+  private void written(String key) {
+    if (replicas != null) {
+      recentWrites.put(key, System.currentTimeMillis() + RECENT_WRITE_WINDOW_MILLIS);
+    }
+  }
+
+  private void expireRecentWrites() {
+    final long now = System.currentTimeMillis();
+    recentWrites.values().removeIf(deadline -> deadline <= now);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload) {
+    written(key);
+    return super.setIfAbsent(key, lifetimeSeconds, payload);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] payload) {
+    written(key);
+    return super.set(key, lifetimeSeconds, payload);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> delete(String key) {
+    written(key);
+    return super.delete(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    written(key);
+    return super.setFieldsIfAbsent(key, lifetimeSeconds, fields);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    written(key);
+    return super.setFields(key, lifetimeSeconds, fields);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> updateFields(String key,
+                                                 int lifetimeSeconds,
+                                                 Map<String, byte[]> fields,
+                                                 Collection<String> removed) {
+    written(key);
+    return super.updateFields(key, lifetimeSeconds, fields, removed);
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+    written(key);
+    return super.addToIndex(key, value, maxSize);
+  }
+
+  /**
+   * Loads the replicas of the current master from the first sentinel responding,
+   * skipping the ones down or not in sync.
+   */
+  private void refreshReplicas() {
+    for (String address : sentinel.addresses) {
+      final HostAndPort sentinelAddress = HostAndPort.parseString(address);
+
+      final List<Map<String, String>> slaves;
+      try (Jedis jedis = new Jedis(sentinelAddress.getHost(), sentinelAddress.getPort(), Protocol.DEFAULT_TIMEOUT)) {
+        slaves = jedis.sentinelSlaves(sentinel.masterName);
+
+      } catch (Exception e) {
+        log.log(Level.FINE, "Failed loading replicas from sentinel " + address, e);
+        continue;
+      }
+
+      final List<HostAndPort> available = new ArrayList<>();
+      for (Map<String, String> slave : slaves) {
+        final String flags = slave.getOrDefault("flags", "");
+        if (flags.contains("down") || flags.contains("disconnected") ||
+            !"ok".equals(slave.get("master-link-status"))) {
+          continue;
+        }
+        available.add(new HostAndPort(slave.get("ip"), Integer.parseInt(slave.get("port"))));
+      }
+
+      replicas.update(available);
+      return;
+    }
+
+    log.warning("Failed loading replicas of [" + sentinel.masterName + "] from any of the sentinels " +
+        sentinel.addresses + ", reading from " + pool.getCurrentHostMaster());
+    replicas.update(Collections.emptyList());
+  }
+
+  @Override
+  public void close() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      replicas.close();
+    }
+    super.close();
+  }
+
+  private static Sentinel parse(String sentinelUrl) {
+    requireNonNull(sentinelUrl, "Redis sentinel URL not set");
+
+    final String prefix = SCHEME + "://";
+    if (!sentinelUrl.startsWith(prefix)) {
+      throw new IllegalArgumentException("Not a Redis sentinel URL: [" + sentinelUrl + "]");
+    }
+
+    String rest = sentinelUrl.substring(prefix.length());
+
+    final int hash = rest.indexOf('#');
+    if (hash < 0 || hash == rest.length() - 1) {
+      throw new IllegalArgumentException("Master name not set in [" + sentinelUrl + "]," +
+          " expected " + prefix + "host:port#master");
+    }
+    final String masterName = rest.substring(hash + 1);
+    rest = rest.substring(0, hash);
+
+    int database = Protocol.DEFAULT_DATABASE;
+    final int slash = rest.indexOf('/');
+    if (slash >= 0) {
+      final String path = rest.substring(slash + 1);
+      if (!path.isEmpty()) {
+        database = Integer.parseInt(path);
+      }
+      rest = rest.substring(0, slash);
+    }
+
+    String password = null;
+    final int at = rest.lastIndexOf('@');
+    if (at >= 0) {
+      final String userInfo = rest.substring(0, at);
+      password = userInfo.substring(userInfo.indexOf(':') + 1);
+      rest = rest.substring(at + 1);
+    }
+
+    final Set<String> addresses = new LinkedHashSet<>();
+    for (String node : rest.split(",")) {
+      final int colon = node.lastIndexOf(':');
+      if (colon <= 0) {
+        throw new IllegalArgumentException("Invalid sentinel address [" + node + "]," +
+            " expected host:port in [" + sentinelUrl + "]");
+      }
+      addresses.add(new HostAndPort(node.substring(0, colon), Integer.parseInt(node.substring(colon + 1))).toString());
+    }
+
+    return new Sentinel(addresses, masterName, password, database);
+  }
+
+  private static class Sentinel {
+    final Set<String> addresses;
+    final String masterName;
+    final String password;
+    final int database;
+
+    Sentinel(Set<String> addresses, String masterName, String password, int database) {
+      this.addresses = addresses;
+      this.masterName = masterName;
+      this.password = password;
+      this.database = database;
+    }
+  }
+}
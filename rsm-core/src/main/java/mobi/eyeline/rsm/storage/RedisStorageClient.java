@@ -2,42 +2,149 @@ package mobi.eyeline.rsm.storage;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
 import redis.clients.jedis.Protocol;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.util.Pool;
 
+import java.io.Closeable;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static java.util.Objects.requireNonNull;
 import static redis.clients.util.SafeEncoder.encode;
 
+/**
+ * Redis client.
+ *
+ * <p>Commands are executed by a dedicated set of I/O threads, so callers are never blocked
+ * unless they explicitly wait for the result. In pipelining mode commands issued concurrently
+ * are batched together over a few shared connections.
+ */
 public class RedisStorageClient implements StorageClient {
 
+  /** Default number of I/O threads (and pooled Redis connections). */
+  public static final int DEFAULT_IO_THREADS = 8;
+
+  private static final byte[] NX = encode("NX");
+  private static final byte[] EX = encode("EX");
+
+  //
+  //  Field-wise entries are written by scripts, so that each write is atomic and takes
+  //  a single round trip. Arguments: lifetime, then field names and values.
+  //  RespServer recognizes these scripts and runs their equivalents.
+  //
+
+  static final byte[] SET_FIELDS_IF_ABSENT = encode(
+      "if redis.call('exists', KEYS[1]) == 1 then return 0 end\n" +
+      "for i = 2, #ARGV, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end\n" +
+      "if tonumber(ARGV[1]) > 0 then redis.call('expire', KEYS[1], ARGV[1]) end\n" +
+      "return 1");
+
+  static final byte[] SET_FIELDS = encode(
+      "redis.call('del', KEYS[1])\n" +
+      "for i = 2, #ARGV, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end\n" +
+      "if tonumber(ARGV[1]) > 0 then redis.call('expire', KEYS[1], ARGV[1]) end\n" +
+      "return 1");
+
+  /** Arguments: lifetime, number of fields to set, their names and values, then the names to delete. */
+  static final byte[] UPDATE_FIELDS = encode(
+      "if redis.call('exists', KEYS[1]) == 0 then return 0 end\n" +
+      "local n = tonumber(ARGV[2])\n" +
+      "for i = 3, 2 + 2 * n, 2 do redis.call('hset', KEYS[1], ARGV[i], ARGV[i + 1]) end\n" +
+      "for i = 3 + 2 * n, #ARGV do redis.call('hdel', KEYS[1], ARGV[i]) end\n" +
+      "if tonumber(ARGV[1]) > 0 then redis.call('expire', KEYS[1], ARGV[1]) end\n" +
+      "return 1");
+
+  /** Arguments: value, maximal index size. */
+  static final byte[] ADD_TO_INDEX = encode(
+      "local i = redis.call('hget', KEYS[1], ARGV[1])\n" +
+      "if i then return tonumber(i) end\n" +
+      "local n = redis.call('hlen', KEYS[1])\n" +
+      "if n >= tonumber(ARGV[2]) then return -1 end\n" +
+      "redis.call('hset', KEYS[1], ARGV[1], n)\n" +
+      "return n");
+
   private final Logger log = Logger.getLogger(getClass().getName());
 
-  private final JedisPool jedisPool;
+  /** Connections of the executor, {@code null} if owned by the executor itself. */
+  private final Pool<Jedis> jedisPool;
+  private final CommandExecutor executor;
+
+  /** Opens dedicated connections for subscriptions. */
+  private final Supplier<Jedis> subscriberConnections;
 
   public RedisStorageClient(String redisUrl, int timeout) {
+    this(redisUrl, timeout, DEFAULT_IO_THREADS, false);
+  }
+
+  public RedisStorageClient(String redisUrl, int timeout, int ioThreads, boolean pipelining) {
     requireNonNull(redisUrl, "Redis database URL not set");
 
-    timeout = timeout <= 0 ? Protocol.DEFAULT_TIMEOUT : timeout;
+    final int socketTimeout = timeout(timeout);
+    ioThreads = ioThreads(ioThreads);
 
+    final URI uri;
     try {
-      final URI uri = new URI(redisUrl);
-      jedisPool = new JedisPool(uri, timeout);
+      uri = new URI(redisUrl);
 
     } catch (URISyntaxException e) {
       throw new RuntimeException(e);
     }
+
+    jedisPool = new JedisPool(poolConfig(ioThreads), uri, socketTimeout);
+    executor = executor(jedisPool, ioThreads, pipelining);
+    subscriberConnections = () -> new Jedis(uri, socketTimeout);
+  }
+
+  /**
+   * @param jedisPool             Closed along with the client, {@code null} if the executor owns
+   *                              the connections.
+   * @param executor              Routes the commands.
+   * @param subscriberConnections Opens dedicated connections for subscriptions.
+   */
+  RedisStorageClient(Pool<Jedis> jedisPool, CommandExecutor executor, Supplier<Jedis> subscriberConnections) {
+    this.jedisPool = jedisPool;
+    this.executor = executor;
+    this.subscriberConnections = subscriberConnections;
+  }
+
+  static int timeout(int timeout) {
+    return timeout <= 0 ? Protocol.DEFAULT_TIMEOUT : timeout;
+  }
+
+  static int ioThreads(int ioThreads) {
+    return ioThreads <= 0 ? DEFAULT_IO_THREADS : ioThreads;
+  }
+
+  static JedisPoolConfig poolConfig(int ioThreads) {
+    // Each I/O thread holds at most one connection at a time.
+    final JedisPoolConfig poolConfig = new JedisPoolConfig();
+    poolConfig.setMaxTotal(ioThreads);
+    poolConfig.setMaxIdle(ioThreads);
+    return poolConfig;
+  }
+
+  static CommandExecutor executor(Pool<Jedis> pool, int ioThreads, boolean pipelining) {
+    return pipelining ?
+        new PipeliningCommandExecutor(pool, ioThreads) :
+        new PooledCommandExecutor(pool, ioThreads);
   }
 
   @Override
-  public Future<Boolean> setIfAbsent(final String key, final int lifetimeSeconds, final byte[] payload) {
+  public CompletableFuture<Boolean> setIfAbsent(final String key, final int lifetimeSeconds, final byte[] payload) {
     if (log.isLoggable(Level.FINE)) {
       log.fine("setIfAbsent:" +
           " key = [" + key + "]," +
@@ -45,128 +152,243 @@ public class RedisStorageClient implements StorageClient {
           " payload size = " + (payload == null ? "null" : payload.length));
     }
 
-    return submit(jedis -> {
-      if (jedis.setnx(encode(key), payload) != 1) {
-        return false;
-      }
-
-      return lifetimeSeconds == 0 || jedis.expire(key, lifetimeSeconds) == 1;
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<String> rc = lifetimeSeconds == 0 ?
+          pipeline.set(rawKey, payload, NX) :
+          pipeline.set(rawKey, payload, NX, EX, lifetimeSeconds);
+      return () -> "OK".equals(rc.get());
     });
   }
 
   @Override
-  public Future<Boolean> setIfAbsent(final String key, final byte[] payload) {
+  public CompletableFuture<Boolean> set(final String key, final int lifetimeSeconds, final byte[] payload) {
     if (log.isLoggable(Level.FINE)) {
-      log.fine("setIfAbsent: key = [" + key + "]");
+      log.fine("set:" +
+          " key = [" + key + "]," +
+          " lifetimeSeconds = [" + lifetimeSeconds + "]," +
+          " payload size = " + (payload == null ? "null" : payload.length));
     }
 
-    return submit(jedis -> jedis.setnx(encode(key), payload) == 1);
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<String> rc = lifetimeSeconds == 0 ?
+          pipeline.set(rawKey, payload) :
+          pipeline.setex(rawKey, lifetimeSeconds, payload);
+      return () -> "OK".equals(rc.get());
+    });
   }
 
   @Override
-  public Future<Boolean> set(final String key, final int lifetimeSeconds, final byte[] payload) {
+  public CompletableFuture<byte[]> get(final String key) {
     if (log.isLoggable(Level.FINE)) {
-      log.fine("set:" +
-          " key = [" + key + "]," +
-          " lifetimeSeconds = [" + lifetimeSeconds + "]," +
-          " payload size = " + (payload == null ? "null" : payload.length));
+      log.fine("get: key = [" + key + "]");
     }
 
-    return submit(jedis -> lifetimeSeconds == 0 ?
-        jedis.set(encode(key), payload).equals("OK") :
-        jedis.setex(encode(key), lifetimeSeconds, payload).equals("OK"));
+    final byte[] rawKey = encode(key);
+    return readExecutor(key).execute(rawKey, pipeline -> pipeline.get(rawKey)::get);
   }
 
   @Override
-  public Future<byte[]> get(final String key) {
+  public CompletableFuture<Boolean> touch(final String key, final int lifetimeSeconds) {
     if (log.isLoggable(Level.FINE)) {
-      log.fine("get: key = [" + key + "]");
+      log.fine("touch:" +
+          " key = [" + key + "]," +
+          " lifetimeSeconds = [" + lifetimeSeconds + "]");
     }
 
-    return submit(jedis -> jedis.get(encode(key)));
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<Long> rc = pipeline.expire(rawKey, lifetimeSeconds);
+      return () -> rc.get() == 1;
+    });
   }
 
   @Override
-  public Future<Boolean> delete(final String key) {
+  public CompletableFuture<Boolean> delete(final String key) {
     if (log.isLoggable(Level.FINE)) {
       log.fine("delete: key = [" + key + "]");
     }
 
-    return submit( jedis -> jedis.del(key) == 1);
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<Long> rc = pipeline.del(rawKey);
+      return () -> rc.get() == 1;
+    });
   }
 
   @Override
-  public void close() {
-    jedisPool.close();
+  public CompletableFuture<Boolean> setFieldsIfAbsent(final String key,
+                                                      final int lifetimeSeconds,
+                                                      final Map<String, byte[]> fields) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("setFieldsIfAbsent:" +
+          " key = [" + key + "]," +
+          " lifetimeSeconds = [" + lifetimeSeconds + "]," +
+          " fields = " + fields.keySet());
+    }
+
+    final List<byte[]> args = new ArrayList<>(1 + 2 * fields.size());
+    args.add(encode(String.valueOf(lifetimeSeconds)));
+    addFields(args, fields);
+
+    return eval(SET_FIELDS_IF_ABSENT, key, args);
   }
 
-  private <T> Future<T> submit(Function<Jedis, T> task) {
-    final long startMillis = log.isLoggable(Level.FINER) ? System.currentTimeMillis() : 0;
+  @Override
+  public CompletableFuture<Boolean> setFields(final String key,
+                                              final int lifetimeSeconds,
+                                              final Map<String, byte[]> fields) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("setFields:" +
+          " key = [" + key + "]," +
+          " lifetimeSeconds = [" + lifetimeSeconds + "]," +
+          " fields = " + fields.keySet());
+    }
 
-    try (Jedis jedis = jedisPool.getResource()) {
-      return ImmediateFuture.completedFuture(task.apply(jedis));
+    final List<byte[]> args = new ArrayList<>(1 + 2 * fields.size());
+    args.add(encode(String.valueOf(lifetimeSeconds)));
+    addFields(args, fields);
 
-    } catch (Exception e) {
-      log.log(Level.WARNING, "Failed executing command", e);
-      return ImmediateFuture.failedFuture(e);
+    return eval(SET_FIELDS, key, args);
+  }
 
-    } finally {
-      if (startMillis > 0) {
-        log.finer("Operation time, ms.: " + (System.currentTimeMillis() - startMillis));
-      }
+  @Override
+  public CompletableFuture<Boolean> updateFields(final String key,
+                                                 final int lifetimeSeconds,
+                                                 final Map<String, byte[]> fields,
+                                                 final Collection<String> removed) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("updateFields:" +
+          " key = [" + key + "]," +
+          " lifetimeSeconds = [" + lifetimeSeconds + "]," +
+          " fields = " + fields.keySet() + "," +
+          " removed = " + removed);
     }
-  }
 
+    final List<byte[]> args = new ArrayList<>(2 + 2 * fields.size() + removed.size());
+    args.add(encode(String.valueOf(lifetimeSeconds)));
+    args.add(encode(String.valueOf(fields.size())));
+    addFields(args, fields);
+    for (String field : removed) {
+      args.add(encode(field));
+    }
 
-  //
-  //
-  //
+    return eval(UPDATE_FIELDS, key, args);
+  }
 
-  private static class ImmediateFuture<T> implements Future<T> {
-    private final T value;
-    private final Throwable failure;
+  /**
+   * @return Executor of the read-only commands on the key.
+   */
+  CommandExecutor readExecutor(String key) {
+    return executor;
+  }
 
-    private ImmediateFuture(T v, Throwable failure) {
-      this.value = v;
-      this.failure = failure;
+  private static void addFields(List<byte[]> args, Map<String, byte[]> fields) {
+    for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+      args.add(encode(field.getKey()));
+      args.add(field.getValue());
     }
+  }
 
-    static <T> ImmediateFuture<T> completedFuture(T value) {
-      return new ImmediateFuture<>(value, null);
+  private CompletableFuture<Boolean> eval(byte[] script, String key, List<byte[]> args) {
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<Object> rc = pipeline.eval(script, Collections.singletonList(rawKey), args);
+      return () -> Long.valueOf(1).equals(rc.get());
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, byte[]>> getFields(final String key) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("getFields: key = [" + key + "]");
     }
 
-    static <T> ImmediateFuture<T> failedFuture(Throwable e) {
-      return new ImmediateFuture<>(null, requireNonNull(e));
+    final byte[] rawKey = encode(key);
+    return readExecutor(key).execute(rawKey, pipeline -> {
+      final Response<Map<byte[], byte[]>> rc = pipeline.hgetAll(rawKey);
+      return () -> {
+        final Map<byte[], byte[]> fields;
+        try {
+          fields = rc.get();
+
+        } catch (JedisDataException e) {
+          if (e.getMessage() != null && e.getMessage().startsWith("WRONGTYPE")) {
+            // Not a hash, e.g. written with another layout.
+            return null;
+          }
+          throw e;
+        }
+
+        if (fields.isEmpty()) {
+          return null;
+        }
+
+        final Map<String, byte[]> decoded = new HashMap<>(fields.size() * 4 / 3 + 1);
+        fields.forEach((k, v) -> decoded.put(encode(k), v));
+        return decoded;
+      };
+    });
+  }
+
+  @Override
+  public CompletableFuture<List<byte[]>> getFields(final String key, final String... fields) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("getFields: key = [" + key + "], fields = " + Arrays.toString(fields));
     }
 
-    @Override
-    public boolean cancel(boolean mayInterruptIfRunning) {
-      return false;
+    final byte[][] encodedFields = new byte[fields.length][];
+    for (int i = 0; i < fields.length; i++) {
+      encodedFields[i] = encode(fields[i]);
     }
 
-    @Override
-    public boolean isCancelled() {
-      return false;
+    final byte[] rawKey = encode(key);
+    return readExecutor(key).execute(rawKey, pipeline -> pipeline.hmget(rawKey, encodedFields)::get);
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(final String key, final String value, final int maxSize) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("addToIndex: key = [" + key + "], value = [" + value + "]");
     }
 
-    @Override
-    public boolean isDone() {
-      return true;
+    final List<byte[]> args = Arrays.asList(encode(value), encode(String.valueOf(maxSize)));
+
+    final byte[] rawKey = encode(key);
+    return executor.execute(rawKey, pipeline -> {
+      final Response<Object> rc = pipeline.eval(ADD_TO_INDEX, Collections.singletonList(rawKey), args);
+      return () -> (Long) rc.get();
+    });
+  }
+
+  @Override
+  public CompletableFuture<Long> publish(final String channel, final byte[] message) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("publish: channel = [" + channel + "], message size = " + message.length);
     }
 
-    @Override
-    public T get() throws ExecutionException {
-      if (this.failure != null) {
-        throw new ExecutionException(this.failure);
+    final byte[] rawChannel = encode(channel);
+    return executor.execute(rawChannel, pipeline -> pipeline.publish(rawChannel, message)::get);
+  }
 
-      } else {
-        return this.value;
-      }
+  /**
+   * Note: each subscription holds a dedicated connection, in addition to the pooled ones.
+   */
+  @Override
+  public Closeable subscribe(String channel, MessageListener listener) {
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("subscribe: channel = [" + channel + "]");
     }
 
-    @Override
-    public T get(long timeout, TimeUnit unit) throws ExecutionException {
-      return this.get();
+    return new RedisSubscriber(subscriberConnections, channel, listener);
+  }
+
+  @Override
+  public void close() {
+    executor.close();
+    if (jedisPool != null) {
+      jedisPool.close();
     }
   }
 
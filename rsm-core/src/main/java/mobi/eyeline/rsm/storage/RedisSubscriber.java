@@ -0,0 +1,127 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static redis.clients.util.SafeEncoder.encode;
+
+/**
+ * Channel subscription, held on a dedicated connection and thread.
+ *
+ * <p>The connection is re-established on failures until the subscription is closed.
+ */
+class RedisSubscriber implements Closeable {
+
+  private static final long RECONNECT_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final Supplier<Jedis> connections;
+  private final byte[] channel;
+  private final MessageListener listener;
+
+  private final Thread thread;
+
+  private volatile boolean closed;
+  private volatile Jedis jedis;
+
+  private final BinaryJedisPubSub pubSub = new BinaryJedisPubSub() {
+    @Override
+    public void onSubscribe(byte[] channel, int subscribedChannels) {
+      listener.onSubscribe();
+    }
+
+    @Override
+    public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+      listener.onUnsubscribe();
+    }
+
+    @Override
+    public void onMessage(byte[] channel, byte[] message) {
+      try {
+        listener.onMessage(message);
+
+      } catch (Exception e) {
+        log.log(Level.WARNING, "Failed processing message", e);
+      }
+    }
+  };
+
+  /**
+   * @param connections Opens a new connection on each call.
+   */
+  RedisSubscriber(Supplier<Jedis> connections, String channel, MessageListener listener) {
+    this.connections = connections;
+    this.channel = encode(channel);
+    this.listener = listener;
+
+    thread = new IoThreadFactory("rsm-subscriber").newThread(this::run);
+    thread.start();
+  }
+
+  private void run() {
+    while (!closed) {
+      try (Jedis jedis = connections.get()) {
+        this.jedis = jedis;
+        if (!closed) {
+          // Blocks until unsubscribed or disconnected.
+          jedis.subscribe(pubSub, channel);
+        }
+
+      } catch (Exception e) {
+        if (pubSub.isSubscribed()) {
+          // Connection dropped with no UNSUBSCRIBE reply.
+          listener.onUnsubscribe();
+        }
+
+        if (closed) {
+          break;
+        }
+
+        log.log(Level.WARNING, "Subscription failed, reconnecting", e);
+        try {
+          Thread.sleep(RECONNECT_DELAY_MILLIS);
+
+        } catch (InterruptedException ie) {
+          break;
+        }
+
+      } finally {
+        this.jedis = null;
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+
+    try {
+      if (pubSub.isSubscribed()) {
+        pubSub.unsubscribe();
+      }
+
+    } catch (Exception e) {
+      // Connection is dropped below anyway.
+      log.log(Level.FINE, "Failed unsubscribing", e);
+    }
+
+    final Jedis jedis = this.jedis;
+    if (jedis != null) {
+      try {
+        jedis.disconnect();
+
+      } catch (Exception e) {
+        log.log(Level.FINE, "Failed closing subscriber connection", e);
+      }
+    }
+
+    thread.interrupt();
+  }
+}
@@ -0,0 +1,205 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Executes read-only commands on a random replica, falling back to the master.
+ *
+ * <p>A command is repeated on the master if the replica is unreachable, or if the key is
+ * missing there, as it may have been written moments ago and not replicated yet.
+ *
+ * <p>With {@linkplain HedgedReads hedging}, a read taking longer than usual is duplicated
+ * to another replica, or to the master if there's a single one.
+ */
+class ReplicaReadExecutor implements CommandExecutor {
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final CommandExecutor master;
+
+  private final int timeout;
+  private final String password;
+  private final int database;
+  private final int ioThreads;
+  private final boolean pipelining;
+
+  /** Hedging policy, {@code null} if disabled. */
+  private final HedgedReads hedging;
+  private final ScheduledExecutorService timer;
+
+  private volatile List<RedisNode> replicas = Collections.emptyList();
+
+  /**
+   * @param hedging Hedging policy, {@code null} to disable.
+   * @param timer   Sends the hedges.
+   */
+  ReplicaReadExecutor(CommandExecutor master,
+                      HedgedReads hedging,
+                      ScheduledExecutorService timer,
+                      int timeout,
+                      String password,
+                      int database,
+                      int ioThreads,
+                      boolean pipelining) {
+    this.master = master;
+    this.hedging = hedging;
+    this.timer = timer;
+    this.timeout = timeout;
+    this.password = password;
+    this.database = database;
+    this.ioThreads = ioThreads;
+    this.pipelining = pipelining;
+  }
+
+  @Override
+  public <T> CompletableFuture<T> execute(byte[] key, RedisCommand<T> command) {
+    final List<RedisNode> replicas = this.replicas;
+    if (replicas.isEmpty()) {
+      return master.execute(key, command);
+    }
+
+    final int i = ThreadLocalRandom.current().nextInt(replicas.size());
+    final RedisNode replica = replicas.get(i);
+
+    if (hedging == null) {
+      return read(replica, key, command);
+    }
+
+    final long delayMicros = hedging.started();
+    final long start = System.nanoTime();
+
+    final CompletableFuture<T> read = read(replica, key, command);
+    read.whenComplete((value, e) -> hedging.completed(System.nanoTime() - start));
+
+    if (delayMicros < 0) {
+      return read;
+    }
+
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+    read.whenComplete((value, e) -> {
+      if (e == null) {
+        rc.complete(value);
+      } else {
+        rc.completeExceptionally(e);
+      }
+    });
+
+    try {
+      timer.schedule(() -> {
+        if (rc.isDone() || !hedging.tryHedge()) {
+          return;
+        }
+
+        final CompletableFuture<T> hedge;
+        if (replicas.size() > 1) {
+          // Any replica but the one asked.
+          final int other = (i + 1 + ThreadLocalRandom.current().nextInt(replicas.size() - 1)) % replicas.size();
+          hedge = read(replicas.get(other), key, command);
+
+        } else {
+          hedge = master.execute(key, command);
+        }
+
+        hedge.whenComplete((value, e) -> {
+          // Failures are left to the original read.
+          if (e == null && rc.complete(value)) {
+            hedging.won();
+          }
+        });
+      }, delayMicros, TimeUnit.MICROSECONDS);
+
+    } catch (RejectedExecutionException e) {
+      // Closed.
+    }
+
+    return rc;
+  }
+
+  /**
+   * Reads from the replica, then from the master if that fails or the key is missing.
+   */
+  private <T> CompletableFuture<T> read(RedisNode replica, byte[] key, RedisCommand<T> command) {
+    final CompletableFuture<T> rc = new CompletableFuture<>();
+    replica.executor.execute(key, command).whenComplete((value, e) -> {
+      final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+
+      final boolean fallback = e == null ?
+          value == null :
+          cause instanceof JedisConnectionException || cause instanceof RejectedExecutionException;
+
+      if (!fallback) {
+        if (e == null) {
+          rc.complete(value);
+        } else {
+          rc.completeExceptionally(cause);
+        }
+        return;
+      }
+
+      if (e != null && log.isLoggable(Level.FINE)) {
+        log.log(Level.FINE, "Failed reading from replica " + replica + ", reading from master", e);
+      }
+
+      master.execute(key, command).whenComplete((retried, re) -> {
+        if (re == null) {
+          rc.complete(retried);
+        } else {
+          rc.completeExceptionally(re);
+        }
+      });
+    });
+
+    return rc;
+  }
+
+  /**
+   * Replaces the set of replicas, keeping the connections to the ones still there.
+   */
+  synchronized void update(Collection<HostAndPort> addresses) {
+    final Map<HostAndPort, RedisNode> current = new HashMap<>();
+    for (RedisNode replica : replicas) {
+      current.put(replica.address, replica);
+    }
+
+    final List<RedisNode> updated = new ArrayList<>();
+    for (HostAndPort address : addresses) {
+      final RedisNode replica = current.remove(address);
+      updated.add(replica != null ?
+          replica : new RedisNode(address, timeout, password, database, ioThreads, pipelining));
+    }
+
+    if (!current.isEmpty() || updated.size() != replicas.size()) {
+      log.info("Reading from replicas: " + updated);
+    }
+    replicas = Collections.unmodifiableList(updated);
+
+    // Dropped ones, after no longer being picked.
+    current.values().forEach(RedisNode::close);
+  }
+
+  /**
+   * Closes the replica connections, but not the master ones.
+   */
+  @Override
+  public synchronized void close() {
+    final List<RedisNode> replicas = this.replicas;
+    this.replicas = Collections.emptyList();
+    replicas.forEach(RedisNode::close);
+  }
+}
@@ -0,0 +1,542 @@
+package mobi.eyeline.rsm.storage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Stand-in for a Redis server, speaking just enough of the RESP protocol for
+ * {@link RedisStorageClient}, on top of a {@link MemoryStorageClient}.
+ *
+ * <p>Field-wise writes are recognized by their scripts rather than interpreted. With latency
+ * set, replies are held back that much per round trip, i.e. once per pipelined batch.
+ */
+public class RespServer implements Closeable {
+
+  private static final byte[] CRLF = {'\r', '\n'};
+
+  private final Logger log = Logger.getLogger(getClass().getName());
+
+  private final long latencyMillis;
+
+  private final MemoryStorageClient storage = new MemoryStorageClient();
+
+  private final ServerSocket serverSocket;
+  private final IoThreadFactory threads = new IoThreadFactory("rsm-resp");
+
+  private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean closed;
+
+  /**
+   * @param port          Port to listen on, {@code 0} for any free one.
+   * @param latencyMillis Delay of each reply, {@code 0} for none.
+   */
+  public RespServer(int port, long latencyMillis) throws IOException {
+    this.latencyMillis = latencyMillis;
+
+    serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    threads.newThread(this::accept).start();
+  }
+
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return URL to connect {@link RedisStorageClient} with.
+   */
+  public String getUrl() {
+    return "redis://localhost:" + getPort();
+  }
+
+  public MemoryStorageClient getStorage() {
+    return storage;
+  }
+
+  private void accept() {
+    while (!closed) {
+      try {
+        final Socket socket = serverSocket.accept();
+        socket.setTcpNoDelay(true);
+        connections.add(socket);
+        threads.newThread(() -> serve(socket)).start();
+
+      } catch (IOException e) {
+        if (!closed) {
+          log.log(Level.WARNING, "Failed accepting connection", e);
+        }
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (Connection connection = new Connection(socket)) {
+      connection.run();
+
+    } catch (EOFException | SocketException e) {
+      // Disconnected.
+
+    } catch (Exception e) {
+      if (!closed) {
+        log.log(Level.WARNING, "Connection failed", e);
+      }
+
+    } finally {
+      connections.remove(socket);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    closed = true;
+    serverSocket.close();
+
+    for (Socket socket : connections) {
+      try {
+        socket.close();
+
+      } catch (IOException e) {
+        log.log(Level.FINE, "Failed closing connection", e);
+      }
+    }
+
+    storage.close();
+  }
+
+  /**
+   * Runs the server until killed. Arguments: port, then optionally latency, milliseconds.
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : 6379;
+    final long latencyMillis = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+    try (RespServer server = new RespServer(port, latencyMillis)) {
+      server.log.info("Listening on " + server.getUrl());
+      Thread.currentThread().join();
+    }
+  }
+
+  private class Connection implements Closeable {
+
+    private final Socket socket;
+    private final InputStream in;
+
+    /** Shared with message delivery, guarded by itself. */
+    private final OutputStream out;
+
+    private final Map<String, Closeable> subscriptions = new LinkedHashMap<>();
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream());
+      this.out = new BufferedOutputStream(socket.getOutputStream());
+    }
+
+    void run() throws IOException, InterruptedException {
+      while (!closed) {
+        final List<byte[]> command = readCommand();
+        final String name = string(command.get(0)).toUpperCase();
+
+        synchronized (out) {
+          try {
+            if (!execute(name, command)) {
+              out.flush();
+              return;
+            }
+
+          } catch (RuntimeException e) {
+            error("ERR " + e.getMessage());
+          }
+        }
+
+        if (in.available() == 0) {
+          // End of a batch.
+          if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+          }
+          synchronized (out) {
+            out.flush();
+          }
+        }
+      }
+    }
+
+    /**
+     * @return Whether the connection should be kept.
+     */
+    private boolean execute(String name, List<byte[]> args) throws IOException {
+      switch (name) {
+        case "PING":
+          simple("PONG");
+          break;
+
+        case "ECHO":
+          bulk(args.get(1));
+          break;
+
+        case "AUTH":
+        case "SELECT":
+        case "CLIENT":
+          simple("OK");
+          break;
+
+        case "QUIT":
+          simple("OK");
+          return false;
+
+        case "FLUSHDB":
+        case "FLUSHALL":
+          storage.clear();
+          simple("OK");
+          break;
+
+        case "SET":
+          set(args);
+          break;
+
+        case "SETEX":
+          storage.set(string(args.get(1)), parseInt(args.get(2)), args.get(3)).join();
+          simple("OK");
+          break;
+
+        case "GET":
+          bulk(storage.get(string(args.get(1))).join());
+          break;
+
+        case "EXPIRE":
+          integer(storage.touch(string(args.get(1)), parseInt(args.get(2))).join() ? 1 : 0);
+          break;
+
+        case "DEL": {
+          int deleted = 0;
+          for (int i = 1; i < args.size(); i++) {
+            if (storage.delete(string(args.get(i))).join()) {
+              deleted++;
+            }
+          }
+          integer(deleted);
+          break;
+        }
+
+        case "HGETALL": {
+          final Map<String, byte[]> fields = storage.getFields(string(args.get(1))).join();
+          if (fields == null) {
+            arrayHeader(0);
+
+          } else {
+            arrayHeader(2 * fields.size());
+            for (Map.Entry<String, byte[]> field : fields.entrySet()) {
+              bulk(field.getKey().getBytes(UTF_8));
+              bulk(field.getValue());
+            }
+          }
+          break;
+        }
+
+        case "HMGET": {
+          final String[] fields = new String[args.size() - 2];
+          for (int i = 0; i < fields.length; i++) {
+            fields[i] = string(args.get(i + 2));
+          }
+
+          final List<byte[]> values = storage.getFields(string(args.get(1)), fields).join();
+          arrayHeader(values.size());
+          for (byte[] value : values) {
+            bulk(value);
+          }
+          break;
+        }
+
+        case "EVAL":
+          eval(args);
+          break;
+
+        case "PUBLISH":
+          integer(storage.publish(string(args.get(1)), args.get(2)).join());
+          break;
+
+        case "SUBSCRIBE":
+          for (int i = 1; i < args.size(); i++) {
+            subscribe(string(args.get(i)));
+          }
+          break;
+
+        case "UNSUBSCRIBE":
+          unsubscribe(args.size() > 1 ?
+              args.subList(1, args.size()).stream().map(RespServer::string).toArray(String[]::new) :
+              subscriptions.keySet().toArray(new String[0]));
+          break;
+
+        default:
+          error("ERR unknown command '" + name + "'");
+      }
+      return true;
+    }
+
+    /**
+     * Supports {@code SET key value [NX] [EX seconds]}.
+     */
+    private void set(List<byte[]> args) throws IOException {
+      final String key = string(args.get(1));
+      final byte[] value = args.get(2);
+
+      boolean nx = false;
+      int lifetimeSeconds = 0;
+      for (int i = 3; i < args.size(); i++) {
+        final String option = string(args.get(i)).toUpperCase();
+        if ("NX".equals(option)) {
+          nx = true;
+
+        } else if ("EX".equals(option)) {
+          lifetimeSeconds = parseInt(args.get(++i));
+
+        } else {
+          error("ERR syntax error");
+          return;
+        }
+      }
+
+      if (!nx) {
+        storage.set(key, lifetimeSeconds, value).join();
+        simple("OK");
+
+      } else if (storage.setIfAbsent(key, lifetimeSeconds, value).join()) {
+        simple("OK");
+
+      } else {
+        bulk(null);
+      }
+    }
+
+    /**
+     * Runs the equivalent of a {@link RedisStorageClient} script.
+     */
+    private void eval(List<byte[]> args) throws IOException {
+      final byte[] script = args.get(1);
+      final String key = string(args.get(3));
+      final List<byte[]> argv = args.subList(4, args.size());
+
+      if (Arrays.equals(script, RedisStorageClient.ADD_TO_INDEX)) {
+        integer(storage.addToIndex(key, string(argv.get(0)), parseInt(argv.get(1))).join());
+        return;
+      }
+
+      final int lifetimeSeconds = parseInt(argv.get(0));
+      final boolean rc;
+      if (Arrays.equals(script, RedisStorageClient.SET_FIELDS_IF_ABSENT)) {
+        rc = storage.setFieldsIfAbsent(key, lifetimeSeconds, fields(argv, 1, argv.size())).join();
+
+      } else if (Arrays.equals(script, RedisStorageClient.SET_FIELDS)) {
+        rc = storage.setFields(key, lifetimeSeconds, fields(argv, 1, argv.size())).join();
+
+      } else if (Arrays.equals(script, RedisStorageClient.UPDATE_FIELDS)) {
+        final int end = 2 + 2 * parseInt(argv.get(1));
+
+        final List<String> removed = new ArrayList<>(argv.size() - end);
+        for (int i = end; i < argv.size(); i++) {
+          removed.add(string(argv.get(i)));
+        }
+
+        rc = storage.updateFields(key, lifetimeSeconds, fields(argv, 2, end), removed).join();
+
+      } else {
+        error("NOSCRIPT unknown script");
+        return;
+      }
+
+      integer(rc ? 1 : 0);
+    }
+
+    private Map<String, byte[]> fields(List<byte[]> argv, int from, int to) {
+      final Map<String, byte[]> fields = new HashMap<>();
+      for (int i = from; i < to; i += 2) {
+        fields.put(string(argv.get(i)), argv.get(i + 1));
+      }
+      return fields;
+    }
+
+    private void subscribe(String channel) throws IOException {
+      if (!subscriptions.containsKey(channel)) {
+        subscriptions.put(channel, storage.subscribe(channel, message -> push(channel, message)));
+      }
+
+      arrayHeader(3);
+      bulk("subscribe".getBytes(UTF_8));
+      bulk(channel.getBytes(UTF_8));
+      integer(subscriptions.size());
+    }
+
+    private void unsubscribe(String... channels) throws IOException {
+      if (channels.length == 0) {
+        arrayHeader(3);
+        bulk("unsubscribe".getBytes(UTF_8));
+        bulk(null);
+        integer(0);
+        return;
+      }
+
+      for (String channel : channels) {
+        final Closeable subscription = subscriptions.remove(channel);
+        if (subscription != null) {
+          subscription.close();
+        }
+
+        arrayHeader(3);
+        bulk("unsubscribe".getBytes(UTF_8));
+        bulk(channel.getBytes(UTF_8));
+        integer(subscriptions.size());
+      }
+    }
+
+    private void push(String channel, byte[] message) {
+      synchronized (out) {
+        try {
+          arrayHeader(3);
+          bulk("message".getBytes(UTF_8));
+          bulk(channel.getBytes(UTF_8));
+          bulk(message);
+          out.flush();
+
+        } catch (IOException e) {
+          log.log(Level.FINE, "Failed delivering message", e);
+        }
+      }
+    }
+
+    //
+    //  Protocol.
+    //
+
+    private List<byte[]> readCommand() throws IOException {
+      final int type = in.read();
+      if (type < 0) {
+        throw new EOFException();
+      }
+      if (type != '*') {
+        throw new IOException("Expected array, got [" + (char) type + "]");
+      }
+
+      final int size = (int) readLong();
+      final List<byte[]> command = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        if (in.read() != '$') {
+          throw new IOException("Expected bulk string");
+        }
+
+        final byte[] arg = new byte[(int) readLong()];
+        for (int read = 0; read < arg.length; ) {
+          final int n = in.read(arg, read, arg.length - read);
+          if (n < 0) {
+            throw new EOFException();
+          }
+          read += n;
+        }
+        readCrlf();
+        command.add(arg);
+      }
+
+      if (command.isEmpty()) {
+        throw new IOException("Empty command");
+      }
+      return command;
+    }
+
+    private long readLong() throws IOException {
+      final StringBuilder line = new StringBuilder();
+      for (int c; (c = in.read()) != '\r'; ) {
+        if (c < 0) {
+          throw new EOFException();
+        }
+        line.append((char) c);
+      }
+      if (in.read() != '\n') {
+        throw new IOException("Expected CRLF");
+      }
+      return Long.parseLong(line.toString());
+    }
+
+    private void readCrlf() throws IOException {
+      if (in.read() != '\r' || in.read() != '\n') {
+        throw new IOException("Expected CRLF");
+      }
+    }
+
+    private void simple(String value) throws IOException {
+      out.write('+');
+      out.write(value.getBytes(UTF_8));
+      out.write(CRLF);
+    }
+
+    private void error(String message) throws IOException {
+      out.write('-');
+      out.write(message.replace('\r', ' ').replace('\n', ' ').getBytes(UTF_8));
+      out.write(CRLF);
+    }
+
+    private void integer(long value) throws IOException {
+      out.write(':');
+      out.write(String.valueOf(value).getBytes(UTF_8));
+      out.write(CRLF);
+    }
+
+    /**
+     * @param value Value, or {@code null} for the null bulk string.
+     */
+    private void bulk(byte[] value) throws IOException {
+      if (value == null) {
+        out.write("$-1".getBytes(UTF_8));
+        out.write(CRLF);
+        return;
+      }
+
+      out.write('$');
+      out.write(String.valueOf(value.length).getBytes(UTF_8));
+      out.write(CRLF);
+      out.write(value);
+      out.write(CRLF);
+    }
+
+    private void arrayHeader(int size) throws IOException {
+      out.write('*');
+      out.write(String.valueOf(size).getBytes(UTF_8));
+      out.write(CRLF);
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (Closeable subscription : subscriptions.values()) {
+        subscription.close();
+      }
+      socket.close();
+    }
+  }
+
+  private static String string(byte[] value) {
+    return new String(value, UTF_8);
+  }
+
+  private static int parseInt(byte[] value) {
+    return Integer.parseInt(string(value));
+  }
+}
@@ -0,0 +1,160 @@
+package mobi.eyeline.rsm.storage;
+
+import redis.clients.jedis.Protocol;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Distributes keys across standalone storage instances with a {@linkplain HashRing consistent
+ * hash ring}, so that adding one of N instances only moves about 1/N of the sessions.
+ *
+ * <p>Each shard is a client of its own, with separate connections and I/O threads.
+ * Channels are placed on the ring the same way as keys, so publishers and subscribers
+ * of a channel meet on the same shard.
+ *
+ * <p>Keys and channels shared by all the sessions, those prefixed with {@value #SHARED_PREFIX},
+ * are kept on the first shard regardless of the ring. Otherwise adding a shard could move
+ * e.g. the shared attribute name table to an empty one, and the names would be numbered anew
+ * while the stored sessions still refer to the old numbers.
+ */
+public class ShardedStorageClient implements StorageClient {
+
+  /** Prefix of the keys and channels pinned to the first shard. */
+  public static final String SHARED_PREFIX = "rsm:";
+
+  private final List<StorageClient> shards;
+  private final HashRing<StorageClient> ring;
+
+  /**
+   * @param shards Shards by their names, which determine the placement of keys.
+   *               The first one also holds the {@linkplain #SHARED_PREFIX shared} keys.
+   */
+  public ShardedStorageClient(Map<String, StorageClient> shards) {
+    this.shards = new ArrayList<>(shards.values());
+    this.ring = new HashRing<>(shards);
+  }
+
+  /**
+   * @param redisUrls  Comma-separated {@code redis://} URLs of the shards,
+   *                   the first one also holding the shared keys.
+   * @param ioThreads  I/O threads and connections per shard.
+   */
+  public static ShardedStorageClient create(String redisUrls, int timeout, int ioThreads, boolean pipelining) {
+    requireNonNull(redisUrls, "Redis database URL not set");
+
+    final Map<String, StorageClient> shards = new LinkedHashMap<>();
+    try {
+      for (String url : redisUrls.split(",")) {
+        url = url.trim();
+
+        final String name = shardName(url);
+        if (shards.containsKey(name)) {
+          throw new IllegalArgumentException("Duplicate shard [" + name + "] in [" + redisUrls + "]");
+        }
+        shards.put(name, new RedisStorageClient(url, timeout, ioThreads, pipelining));
+      }
+
+    } catch (RuntimeException e) {
+      shards.values().forEach(StorageClient::close);
+      throw e;
+    }
+
+    return new ShardedStorageClient(shards);
+  }
+
+  /**
+   * @return Shard name independent of credentials, e.g. {@code host:6379/0}.
+   */
+  private static String shardName(String redisUrl) {
+    final URI uri = URI.create(redisUrl);
+    final String path = uri.getPath();
+    final int port = uri.getPort() < 0 ? Protocol.DEFAULT_PORT : uri.getPort();
+    return uri.getHost() + ":" + port + (path == null || path.isEmpty() ? "/0" : path);
+  }
+
+  StorageClient shardFor(String key) {
+    return key.startsWith(SHARED_PREFIX) ? shards.get(0) : ring.get(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload) {
+    return shardFor(key).setIfAbsent(key, lifetimeSeconds, payload);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] o) {
+    return shardFor(key).set(key, lifetimeSeconds, o);
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String key) {
+    return shardFor(key).get(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> touch(String key, int lifetimeSeconds) {
+    return shardFor(key).touch(key, lifetimeSeconds);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> delete(String key) {
+    return shardFor(key).delete(key);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    return shardFor(key).setFieldsIfAbsent(key, lifetimeSeconds, fields);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    return shardFor(key).setFields(key, lifetimeSeconds, fields);
+  }
+
+  @Override
+  public CompletableFuture<Boolean> updateFields(String key,
+                                                 int lifetimeSeconds,
+                                                 Map<String, byte[]> fields,
+                                                 Collection<String> removed) {
+    return shardFor(key).updateFields(key, lifetimeSeconds, fields, removed);
+  }
+
+  @Override
+  public CompletableFuture<Map<String, byte[]>> getFields(String key) {
+    return shardFor(key).getFields(key);
+  }
+
+  @Override
+  public CompletableFuture<List<byte[]>> getFields(String key, String... fields) {
+    return shardFor(key).getFields(key, fields);
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+    return shardFor(key).addToIndex(key, value, maxSize);
+  }
+
+  @Override
+  public CompletableFuture<Long> publish(String channel, byte[] message) {
+    return shardFor(channel).publish(channel, message);
+  }
+
+  @Override
+  public Closeable subscribe(String channel, MessageListener listener) {
+    return shardFor(channel).subscribe(channel, listener);
+  }
+
+  @Override
+  public void close() {
+    shards.forEach(StorageClient::close);
+  }
+}
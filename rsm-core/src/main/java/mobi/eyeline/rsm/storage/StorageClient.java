@@ -1,20 +1,105 @@
 package mobi.eyeline.rsm.storage;
 
 import java.io.Closeable;
-import java.util.concurrent.Future;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Asynchronous key-value storage.
+ *
+ * <p>All the operations return immediately, results are delivered via returned futures.
+ * Callers which need the result right away may still block on {@link CompletableFuture#get()}.
+ */
 public interface StorageClient extends Closeable {
 
-  Future<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload);
+  /**
+   * Atomically stores the value along with its lifetime unless the key already exists.
+   *
+   * @param lifetimeSeconds Entry lifetime, {@code 0} for no expiration.
+   * @return {@code true} if the value has been stored.
+   */
+  CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload);
 
-  Future<Boolean> setIfAbsent(String key, byte[] payload);
+  CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] o);
 
-  Future<Boolean> set(String key, int lifetimeSeconds, byte[] o);
-    
-  Future<byte[]> get(String key);
+  CompletableFuture<byte[]> get(String key);
+
+  /**
+   * Refreshes the entry lifetime.
+   *
+   * @return {@code true} if the entry exists.
+   */
+  CompletableFuture<Boolean> touch(String key, int lifetimeSeconds);
 
   @SuppressWarnings("UnusedReturnValue")
-  Future<Boolean> delete(String key);
+  CompletableFuture<Boolean> delete(String key);
+
+  //
+  //  Entries consisting of named fields (e.g. Redis hashes).
+  //  Note that `touch' and `delete' apply to these entries as well.
+  //
+
+  /**
+   * Atomically stores the fields along with the entry lifetime unless the key already exists.
+   *
+   * @return {@code true} if the entry has been stored.
+   */
+  CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields);
+
+  /**
+   * Atomically replaces the entry with the fields specified.
+   */
+  CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields);
+
+  /**
+   * Atomically updates and deletes the fields and refreshes the entry lifetime,
+   * unless the entry doesn't exist.
+   *
+   * @return {@code true} if the entry exists and has been updated.
+   */
+  CompletableFuture<Boolean> updateFields(String key,
+                                          int lifetimeSeconds,
+                                          Map<String, byte[]> fields,
+                                          Collection<String> removed);
+
+  /**
+   * @return All the entry fields or {@code null} if there's no such entry
+   *         (or it's not a field-wise one).
+   */
+  CompletableFuture<Map<String, byte[]>> getFields(String key);
+
+  /**
+   * @return Values of the fields requested, {@code null} for the missing ones.
+   */
+  CompletableFuture<List<byte[]>> getFields(String key, String... fields);
+
+  /**
+   * Atomically assigns the next position to the value in an append-only index, unless it's
+   * already there. The index is a field-wise entry with no expiration, mapping values to their
+   * positions in decimal, see {@link #getFields(String)}.
+   *
+   * @param maxSize Maximal number of values in the index.
+   * @return Position of the value, or {@code -1} if the index is full.
+   */
+  CompletableFuture<Long> addToIndex(String key, String value, int maxSize);
+
+  /**
+   * Publishes the message to all the current channel subscribers, on any node.
+   *
+   * @return Number of subscribers that received the message.
+   */
+  @SuppressWarnings("UnusedReturnValue")
+  CompletableFuture<Long> publish(String channel, byte[] message);
+
+  /**
+   * Subscribes to the channel. Delivery is best effort, i.e. messages may be lost
+   * on connection failures, see {@link MessageListener#onSubscribe()}.
+   *
+   * @return Handle to cancel the subscription.
+   */
+  Closeable subscribe(String channel, MessageListener listener);
 
   void close();
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package mobi.eyeline.rsm.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Creates the storage client matching the database URL scheme.
+ */
+public final class StorageClients {
+
+  private StorageClients() {}
+
+  public static StorageClient create(String url, int timeout, int ioThreads, boolean pipelining) {
+    return create(url, timeout, ioThreads, pipelining, false, null);
+  }
+
+  /**
+   * @param url              Database URL, {@code redis://} for a single Redis instance,
+   *                         comma-separated {@code redis://} URLs for instances sharded on
+   *                         the client side, {@code redis-sentinel://} for a master monitored
+   *                         by Sentinel, {@code redis-cluster://} for Redis Cluster,
+   *                         {@code file://} for a local directory or {@code mem://} for
+   *                         the process memory.
+   * @param timeout          Socket timeout, milliseconds, {@code 0} for default.
+   * @param ioThreads        Number of I/O threads, {@code 0} for default.
+   * @param pipelining       Whether commands issued concurrently are batched.
+   * @param readFromReplicas Whether reads are served by the replicas, Sentinel only.
+   * @param hedging          Hedging of replica reads, {@code null} to disable.
+   */
+  public static StorageClient create(String url,
+                                     int timeout,
+                                     int ioThreads,
+                                     boolean pipelining,
+                                     boolean readFromReplicas,
+                                     HedgedReads hedging) {
+    final String scheme = scheme(url);
+
+    if (RedisClusterStorageClient.SCHEME.equals(scheme)) {
+      return new RedisClusterStorageClient(url, timeout, ioThreads, pipelining);
+    }
+
+    if (RedisSentinelStorageClient.SCHEME.equals(scheme)) {
+      return new RedisSentinelStorageClient(url, timeout, ioThreads, pipelining, readFromReplicas, hedging);
+    }
+
+    if (FileStorageClient.SCHEME.equals(scheme)) {
+      try {
+        return new FileStorageClient(url);
+
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    if (MemoryStorageClient.SCHEME.equals(scheme)) {
+      return new MemoryStorageClient(url);
+    }
+
+    if (url != null && url.indexOf(',') >= 0) {
+      return ShardedStorageClient.create(url, timeout, ioThreads, pipelining);
+    }
+
+    return new RedisStorageClient(url, timeout, ioThreads, pipelining);
+  }
+
+  private static String scheme(String url) {
+    final int end = url == null ? -1 : url.indexOf("://");
+    return end < 0 ? null : url.substring(0, end);
+  }
+}
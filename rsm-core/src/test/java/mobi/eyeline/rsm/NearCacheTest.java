@@ -0,0 +1,124 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.pack.SessionSerializer;
+import mobi.eyeline.rsm.pack.SessionSnapshot;
+import mobi.eyeline.rsm.storage.MessageListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class NearCacheTest {
+
+  private final SessionSerializer serializer = new SessionSerializer(null);
+
+  private PubSubStorageClient storage;
+  private NearCache node1;
+  private NearCache node2;
+
+  @Before
+  public void setUp() {
+    storage = new PubSubStorageClient();
+
+    node1 = new NearCache(storage, 2, 60_000);
+    node2 = new NearCache(storage, 2, 60_000);
+    node1.start();
+    node2.start();
+  }
+
+  @Test
+  public void testInvalidation() throws Exception {
+    final SessionSnapshot v1 = snapshot("s1", "v1");
+    node1.loaded(v1, node1.stamp());
+    node2.loaded(v1, node2.stamp());
+
+    // Own notification keeps the entry, others drop theirs.
+    final SessionSnapshot v2 = snapshot("s1", "v2");
+    node1.saved(v2);
+    assertSame(v2, node1.get("s1"));
+    assertNull(node2.get("s1"));
+
+    node2.removed("s1");
+    assertNull(node1.get("s1"));
+  }
+
+  @Test
+  public void testOutdatedLoad() throws Exception {
+    final long stamp = node2.stamp();
+    node1.saved(snapshot("s1", "v2"));
+
+    // Loaded data may precede the update, so it's not cached.
+    node2.loaded(snapshot("s1", "v1"), stamp);
+    assertNull(node2.get("s1"));
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    final SessionSnapshot s1 = snapshot("s1", "v1");
+    node1.loaded(s1, node1.stamp());
+    node1.loaded(snapshot("s2", "v1"), node1.stamp());
+
+    assertSame(s1, node1.get("s1"));
+    node1.loaded(snapshot("s3", "v1"), node1.stamp());
+
+    // Least recently used one is evicted.
+    assertSame(s1, node1.get("s1"));
+    assertNull(node1.get("s2"));
+
+    final NearCache expiring = new NearCache(storage, 2, 0);
+    expiring.start();
+    expiring.loaded(s1, expiring.stamp());
+    assertNull(expiring.get("s1"));
+  }
+
+  @Test
+  public void testUnsubscribed() throws Exception {
+    final SessionSnapshot s1 = snapshot("s1", "v1");
+    node1.loaded(s1, node1.stamp());
+
+    node1.onUnsubscribe();
+    assertNull(node1.get("s1"));
+
+    node1.loaded(s1, node1.stamp());
+    assertNull(node1.get("s1"));
+  }
+
+  private SessionSnapshot snapshot(String id, String value) throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = id;
+    session.attributes = new HashMap<>();
+    session.attributes.put("key", value);
+
+    return serializer.snapshot(serializer.serialize(session, new PersistedSessionMetadata()));
+  }
+
+  /**
+   * Delivers published messages synchronously, no key-value operations.
+   */
+  private static class PubSubStorageClient extends StorageClientStub {
+
+    private final List<MessageListener> listeners = new ArrayList<>();
+
+    @Override
+    public CompletableFuture<Long> publish(String channel, byte[] message) {
+      listeners.forEach(listener -> listener.onMessage(message));
+      return CompletableFuture.completedFuture((long) listeners.size());
+    }
+
+    @Override
+    public Closeable subscribe(String channel, MessageListener listener) {
+      listeners.add(listener);
+      listener.onSubscribe();
+      return () -> listeners.remove(listener);
+    }
+  }
+}
@@ -2,18 +2,60 @@ package mobi.eyeline.rsm;
 
 import mobi.eyeline.rsm.model.PersistedSession;
 import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.pack.AttributeCodec;
+import mobi.eyeline.rsm.pack.CompactAttributeMap;
+import mobi.eyeline.rsm.pack.Compression;
+import mobi.eyeline.rsm.pack.DictionaryTrainer;
+import mobi.eyeline.rsm.pack.EncodedSession;
+import mobi.eyeline.rsm.pack.LazyAttributeMap;
+import mobi.eyeline.rsm.pack.SessionFields;
 import mobi.eyeline.rsm.pack.SessionSerializer;
+import mobi.eyeline.rsm.pack.SessionSnapshot;
 import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TemporaryFolder;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class PersistedSessionSerializerTest {
 
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
   private SessionSerializer serializer;
 
   @Before
@@ -106,5 +148,471 @@ public class PersistedSessionSerializerTest {
     assertArrayEquals(new UUID[] { refUUID }, (Object[]) session.attributes.get("uuidArrayKey"));
   }
 
+  @Test
+  public void testAfterFailure() throws Exception {
+    final PersistedSession bad = new PersistedSession();
+    bad.id = "bad";
+    bad.attributes = new LinkedHashMap<>();
+    bad.attributes.put("x", "left behind by the failed encoding");
+    bad.attributes.put("y", new AbstractList<Object>() {
+      @Override
+      public Object get(int index) {
+        throw new ConcurrentModificationException();
+      }
+
+      @Override
+      public int size() {
+        return 1;
+      }
+    });
+
+    try {
+      serializer.serialize(bad, new PersistedSessionMetadata());
+      fail();
+
+    } catch (ConcurrentModificationException expected) {
+      // Modified concurrently.
+    }
+
+    final PersistedSession good = new PersistedSession();
+    good.id = "good";
+    good.attributes = Collections.singletonMap("k", "v");
+
+    final PersistedSession restored = new PersistedSession();
+    serializer.deserialize(
+        serializer.serialize(good, new PersistedSessionMetadata()), restored, new PersistedSessionMetadata());
+
+    assertEquals("good", restored.id);
+    assertEquals(Collections.singletonMap("k", "v"), new HashMap<>(restored.attributes));
+  }
+
+  @Test
+  public void testEncodedAttributesHash() throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<String, Object>() {{
+      put("intKey", 1);
+      put("stringKey", "foo");
+    }};
+
+    // Note: encoded session is valid until the next encoding on the same thread.
+    final EncodedSession encoded = serializer.encode(session, true);
+    final byte[] bytes = serializer.serialize(encoded, new PersistedSessionMetadata(encoded.getAttrHash()));
+
+    assertEquals(serializer.attributesHashFrom(session.attributes), encoded.getAttrHash());
+    assertEquals(0, serializer.encode(session, false).getAttrHash());
+    assertArrayEquals(bytes, serializer.serialize(session, new PersistedSessionMetadata(encoded.getAttrHash())));
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final PersistedSession restored = new PersistedSession();
+    serializer.deserialize(bytes, restored, metadata);
 
-}
\ No newline at end of file
+    assertEquals(encoded.getAttrHash(), metadata.getAttrHash());
+    assertEquals(encoded.getAttrHash(), serializer.attributesHashFrom(restored.attributes));
+  }
+
+  @Test
+  public void testLazyAttributes() throws Exception {
+    final SessionSerializer lazySerializer = new SessionSerializer(null, true);
+
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<String, Object>() {{
+      put("longKey", 42L);
+      put("stringKey", "foo");
+      put("mapKey", new HashMap<String, Object>() {{
+        put("nested", "bar");
+      }});
+    }};
+
+    final byte[] bytes = serializer.serialize(session, new PersistedSessionMetadata());
+
+    final PersistedSession restored = new PersistedSession();
+    lazySerializer.deserialize(bytes, restored, new PersistedSessionMetadata());
+    assertTrue(restored.attributes instanceof LazyAttributeMap);
+
+    // Untouched attributes are written back as is.
+    assertArrayEquals(bytes, lazySerializer.serialize(restored, new PersistedSessionMetadata()));
+
+    assertEquals("foo", restored.attributes.get("stringKey"));
+    assertEquals(42L, restored.attributes.remove("longKey"));
+    restored.attributes.put("uuidKey", UUID.fromString("43305804-cd5b-4b42-8e40-124743140d00"));
+
+    final PersistedSession reread = new PersistedSession();
+    serializer.deserialize(
+        lazySerializer.serialize(restored, new PersistedSessionMetadata()),
+        reread,
+        new PersistedSessionMetadata());
+
+    assertEquals(session.attributes.get("mapKey"), reread.attributes.get("mapKey"));
+    assertEquals("foo", reread.attributes.get("stringKey"));
+    assertFalse(reread.attributes.containsKey("longKey"));
+    assertTrue(reread.attributes.containsKey("uuidKey"));
+  }
+
+  @Test
+  public void testSnapshot() throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.principalRoles = new String[] {"ADMIN"};
+    session.attributes = new HashMap<String, Object>() {{
+      put("stringKey", "foo");
+      put("mapKey", new HashMap<String, Object>() {{
+        put("nested", "bar");
+      }});
+    }};
+
+    final byte[] bytes = serializer.serialize(session, new PersistedSessionMetadata(42));
+    final SessionSnapshot snapshot = serializer.snapshot(bytes);
+    assertEquals("test-session-id", snapshot.getId());
+
+    for (SessionSerializer s : new SessionSerializer[] {serializer, new SessionSerializer(null, true)}) {
+      final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+      final PersistedSession restored = new PersistedSession();
+      s.restore(snapshot, restored, metadata);
+
+      assertEquals(42, metadata.getAttrHash());
+      assertArrayEquals(bytes, s.serialize(restored, metadata));
+
+      // Restored sessions are independent.
+      restored.principalRoles[0] = "CLIENTS";
+      ((Map) restored.attributes.get("mapKey")).clear();
+    }
+
+    assertEquals(snapshot.getVersion(), serializer.snapshot(bytes).getVersion());
+    final PersistedSession restored = new PersistedSession();
+    serializer.restore(snapshot, restored, new PersistedSessionMetadata());
+    assertEquals(session.attributes, restored.attributes);
+    assertArrayEquals(new String[] {"ADMIN"}, restored.principalRoles);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testFields() throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<String, Object>() {{
+      put("longKey", 42L);
+      put("stringKey", "foo");
+      put("mapKey", new HashMap<String, Object>() {{
+        put("nested", "bar");
+      }});
+    }};
+
+    final SessionFields complete = serializer.serializeFields(session, null, Collections.emptySet());
+    assertTrue(complete.isComplete());
+    assertEquals(4, complete.getFields().size());
+    assertTrue(complete.getFields().containsKey("a:stringKey"));
+
+    for (SessionSerializer s : new SessionSerializer[] {serializer, new SessionSerializer(null, true)}) {
+      final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+      final PersistedSession restored = new PersistedSession();
+      s.deserializeFields(complete.getFields(), restored, metadata);
+
+      assertEquals("test-session-id", restored.id);
+      assertEquals("foo", restored.attributes.get("stringKey"));
+
+      // Nothing changed, header only.
+      final SessionFields unchanged = s.serializeFields(restored, metadata, Collections.emptySet());
+      assertFalse(unchanged.isComplete());
+      assertFalse(unchanged.hasAttributeChanges());
+
+      // Changed in place, set and removed.
+      ((Map<String, Object>) restored.attributes.get("mapKey")).put("nested", "baz");
+      restored.attributes.put("uuidKey", UUID.fromString("43305804-cd5b-4b42-8e40-124743140d00"));
+      restored.attributes.remove("longKey");
+
+      final SessionFields changed = s.serializeFields(restored, metadata, Collections.emptySet());
+      assertEquals(
+          new HashSet<>(Arrays.asList("h", "a:mapKey", "a:uuidKey")),
+          changed.getFields().keySet());
+      assertEquals(Collections.singletonList("a:longKey"), changed.getRemoved());
+      assertEquals(
+          new HashSet<>(Arrays.asList("stringKey", "mapKey", "uuidKey")),
+          changed.getMetadata().getAttrHashes().keySet());
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testAttributesChanged() throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<String, Object>() {{
+      put("stringKey", "foo");
+      put("mapKey", new HashMap<String, Object>() {{
+        put("nested", "bar");
+      }});
+    }};
+
+    final byte[] bytes = serializer.serialize(session, new PersistedSessionMetadata());
+
+    for (SessionSerializer s : new SessionSerializer[] {serializer, new SessionSerializer(null, true)}) {
+      final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+      final PersistedSession restored = new PersistedSession();
+      s.deserialize(bytes, restored, metadata);
+
+      // Hashes are computed on demand, and kept along with the metadata.
+      assertEquals(2, metadata.getAttrHashes().size());
+      assertEquals(metadata.getAttrHashes(), copy(metadata).getAttrHashes());
+
+      final Map<String, Object> nested = (Map<String, Object>) restored.attributes.get("mapKey");
+      final Set<String> accessed = Collections.singleton("mapKey");
+
+      assertFalse(s.attributesChanged(metadata, accessed, restored.attributes::get));
+
+      nested.put("nested", "baz");
+      assertTrue(s.attributesChanged(metadata, accessed, restored.attributes::get));
+
+      // Not handed out, so not checked.
+      assertFalse(s.attributesChanged(metadata, Collections.emptySet(), restored.attributes::get));
+
+      // Same for a session restored from a snapshot.
+      final PersistedSessionMetadata cachedMetadata = new PersistedSessionMetadata();
+      final PersistedSession cached = new PersistedSession();
+      s.restore(s.snapshot(bytes), cached, cachedMetadata);
+      cached.attributes.get("mapKey");
+
+      assertFalse(s.attributesChanged(cachedMetadata, accessed, cached.attributes::get));
+      cached.attributes.remove("mapKey");
+      assertTrue(s.attributesChanged(cachedMetadata, accessed, cached.attributes::get));
+    }
+  }
+
+  private static PersistedSessionMetadata copy(PersistedSessionMetadata metadata) throws Exception {
+    final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+      out.writeObject(metadata);
+    }
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buf.toByteArray()))) {
+      return (PersistedSessionMetadata) in.readObject();
+    }
+  }
+
+  @Test
+  public void testCompression() throws Exception {
+    final DictionaryTrainer trainer = new DictionaryTrainer();
+    for (int i = 0; i < 10; i++) {
+      trainer.add(serializer.serialize(createCompressibleSession(i), new PersistedSessionMetadata()));
+    }
+    final byte[] dictionary = trainer.build(Compression.MAX_DICTIONARY_SIZE);
+    assertTrue(dictionary.length > 0);
+
+    final SessionSerializer compressing =
+        new SessionSerializer(null, false, new Compression(64, dictionary));
+
+    final PersistedSession session = createCompressibleSession(42);
+    final byte[] plain = serializer.serialize(session, new PersistedSessionMetadata());
+    final byte[] compressed = compressing.serialize(session, new PersistedSessionMetadata());
+    assertTrue(compressed.length < plain.length);
+
+    // Both formats are readable.
+    for (byte[] bytes : new byte[][] {plain, compressed}) {
+      final PersistedSession restored = new PersistedSession();
+      compressing.deserialize(bytes, restored, new PersistedSessionMetadata());
+      assertEquals(session.attributes, restored.attributes);
+    }
+
+    // Unknown dictionary.
+    try {
+      serializer.deserialize(compressed, new PersistedSession(), new PersistedSessionMetadata());
+      fail();
+    } catch (IOException expected) {
+      // Expected.
+    }
+
+    // Corrupt uncompressed length.
+    for (int length : new int[] {-1, Integer.MAX_VALUE}) {
+      final byte[] corrupt = compressed.clone();
+      for (int i = 0; i < 4; i++) {
+        corrupt[2 + i] = (byte) (length >>> (24 - 8 * i));
+      }
+
+      try {
+        compressing.deserialize(corrupt, new PersistedSession(), new PersistedSessionMetadata());
+        fail();
+      } catch (IOException expected) {
+        assertEquals("Compressed payload malformed", expected.getMessage());
+      }
+    }
+  }
+
+  private static PersistedSession createCompressibleSession(int seed) {
+    final PersistedSession session = new PersistedSession();
+    session.id = "session-" + seed;
+    session.attributes = new HashMap<>();
+    session.attributes.put("javax.faces.request.charset", "UTF-8");
+    session.attributes.put("org.springframework.security.context.SPRING_SECURITY_CONTEXT", "user-" + seed);
+    session.attributes.put("campaignStatus", seed % 2 == 0 ? "ACTIVE" : "PAUSED");
+    return session;
+  }
+
+  @Test
+  public void testLegacyFormat() throws Exception {
+    // Payload as written before the format was versioned.
+    final MessageBufferPacker legacy = MessagePack.newDefaultBufferPacker();
+    legacy.packLong(-10L);
+    legacy.packLong(1502092058281L);
+    legacy.packLong(1502092058281L + 60_000);
+    legacy.packInt(3600);
+    legacy.packBoolean(false);
+    legacy.packBoolean(true);
+    legacy.packLong(1502092058281L + 61_000);
+    legacy.packString("test-session-id");
+    legacy.packString("tester");
+    legacy.packArrayHeader(1).packString("ADMIN");
+    legacy.packMapHeader(1).packString("stringKey").packString("foo");
+    final byte[] v1 = legacy.toByteArray();
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final PersistedSession session = new PersistedSession();
+    serializer.deserialize(v1, session, metadata);
+
+    assertEquals(-10L, metadata.getAttrHash());
+    assertEquals(1502092058281L + 61_000, session.thisAccessedTime);
+    assertEquals(3600, session.maxInactiveInterval);
+    assertTrue(session.isValid);
+    assertEquals("foo", session.attributes.get("stringKey"));
+
+    // Rewritten in the compact format.
+    final byte[] v2 = serializer.serialize(session, metadata);
+    assertEquals((byte) 0xC1, v2[0]);
+    assertTrue(v2.length < v1.length);
+
+    final PersistedSessionMetadata restoredMetadata = new PersistedSessionMetadata();
+    final PersistedSession restored = new PersistedSession();
+    serializer.deserialize(v2, restored, restoredMetadata);
+
+    assertEquals(-10L, restoredMetadata.getAttrHash());
+    assertEquals(session.creationTime, restored.creationTime);
+    assertEquals(session.lastAccessedTime, restored.lastAccessedTime);
+    assertEquals(session.thisAccessedTime, restored.thisAccessedTime);
+    assertEquals(session.maxInactiveInterval, restored.maxInactiveInterval);
+    assertEquals(session.isNew, restored.isNew);
+    assertEquals(session.isValid, restored.isValid);
+    assertEquals(session.attributes, restored.attributes);
+  }
+
+  @Test
+  public void testAttributeCodecs() throws Exception {
+    final Map<String, Object> values = new HashMap<>();
+    values.put("double", 42.5);
+    values.put("float", 0.25f);
+    values.put("decimal", new BigDecimal("-12345678901234567890.001"));
+    values.put("instant", Instant.ofEpochSecond(1502092058L, 281_000_000));
+    values.put("farInstant", Instant.ofEpochSecond(1L << 40, 1));
+    values.put("date", new Date(1502092058281L));
+    values.put("enum", TimeUnit.SECONDS);
+    values.put("bytes", new byte[] {1, 2, 3});
+    values.put("ints", new int[] {-1, 0, Integer.MAX_VALUE});
+    values.put("doubles", new double[] {0.5, -1});
+    values.put("list", Arrays.asList(1.5, TimeUnit.DAYS));
+    values.put("point", new Point(3, 4));
+
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = values;
+
+    // Application codec discovered through the web application class loader.
+    final Path services = tmp.newFolder("codecs").toPath();
+    final Path config = services.resolve("META-INF/services/" + AttributeCodec.class.getName());
+    Files.createDirectories(config.getParent());
+    Files.write(config, PointCodec.class.getName().getBytes(StandardCharsets.UTF_8));
+
+    final ClassLoader loader = new URLClassLoader(new URL[] {services.toUri().toURL()}, getClass().getClassLoader());
+    final SessionSerializer withCodec = new SessionSerializer(loader);
+
+    final PersistedSession restored = new PersistedSession();
+    withCodec.deserialize(withCodec.serialize(session, new PersistedSessionMetadata()), restored, new PersistedSessionMetadata());
+
+    for (Map.Entry<String, Object> entry : values.entrySet()) {
+      final Object expected = entry.getValue();
+      final Object actual = restored.attributes.get(entry.getKey());
+
+      if (expected instanceof byte[]) {
+        assertArrayEquals((byte[]) expected, (byte[]) actual);
+      } else if (expected instanceof int[]) {
+        assertArrayEquals((int[]) expected, (int[]) actual);
+      } else if (expected instanceof double[]) {
+        assertArrayEquals((double[]) expected, (double[]) actual, 0);
+      } else if (expected instanceof List) {
+        assertArrayEquals(((List) expected).toArray(), (Object[]) actual);
+      } else {
+        assertEquals(entry.getKey(), expected, actual);
+      }
+    }
+
+    // Unknown without the codec.
+    final PersistedSession plain = new PersistedSession();
+    serializer.deserialize(serializer.serialize(session, new PersistedSessionMetadata()), plain, new PersistedSessionMetadata());
+    assertEquals(TimeUnit.SECONDS, plain.attributes.get("enum"));
+    assertEquals(null, plain.attributes.get("point"));
+  }
+
+  @Test
+  public void testCompactAttributes() throws Exception {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<>();
+    session.attributes.put("stringKey", "foo");
+    session.attributes.put("longKey", 42L);
+    final byte[] data = serializer.serialize(session, new PersistedSessionMetadata());
+
+    final PersistedSession first = new PersistedSession();
+    serializer.deserialize(data, first, new PersistedSessionMetadata());
+    final PersistedSession second = new PersistedSession();
+    serializer.deserialize(data, second, new PersistedSessionMetadata());
+
+    assertTrue(first.attributes instanceof CompactAttributeMap);
+    assertEquals(session.attributes, first.attributes);
+
+    // Names are shared by the loaded sessions.
+    for (String name : session.attributes.keySet()) {
+      final String firstName = first.attributes.keySet().stream().filter(name::equals).findFirst().get();
+      final String secondName = second.attributes.keySet().stream().filter(name::equals).findFirst().get();
+      assertSame(firstName, secondName);
+    }
+  }
+
+  public static class Point {
+    final int x;
+    final int y;
+
+    Point(int x, int y) {
+      this.x = x;
+      this.y = y;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Point && ((Point) o).x == x && ((Point) o).y == y;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * x + y;
+    }
+  }
+
+  public static class PointCodec implements AttributeCodec<Point> {
+    @Override
+    public Class<Point> getType() {
+      return Point.class;
+    }
+
+    @Override
+    public byte getExtensionType() {
+      return 42;
+    }
+
+    @Override
+    public byte[] encode(Point value) {
+      return new byte[] {(byte) value.x, (byte) value.y};
+    }
+
+    @Override
+    public Point decode(byte[] data) {
+      return new Point(data[0], data[1]);
+    }
+  }
+}
@@ -0,0 +1,115 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.pack.Compression;
+import mobi.eyeline.rsm.pack.SessionSerializer;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SharedNameTableTest {
+
+  private static final String NAME = "org.springframework.security.context.SPRING_SECURITY_CONTEXT";
+
+  private final IndexStorageClient storageClient = new IndexStorageClient();
+
+  @Test
+  public void testSharedNames() throws Exception {
+    final SharedNameTable names = new SharedNameTable(storageClient);
+    names.start();
+
+    final SessionSerializer serializer = new SessionSerializer(null, false, Compression.NONE, names);
+    final PersistedSession session = createSession();
+
+    byte[] literal = null;
+    for (int i = 0; i < SharedNameTable.REGISTER_AFTER; i++) {
+      literal = serializer.serialize(session, new PersistedSessionMetadata());
+    }
+    assertEquals(1, names.size());
+
+    final byte[] indexed = serializer.serialize(session, new PersistedSessionMetadata());
+    assertTrue(indexed.length < literal.length);
+
+    // Another node, started before the name was registered.
+    final SharedNameTable otherNames = new SharedNameTable(new IndexStorageClient());
+    otherNames.start();
+    final SessionSerializer other = new SessionSerializer(null, false, Compression.NONE, otherNames);
+    try {
+      other.deserialize(indexed, new PersistedSession(), new PersistedSessionMetadata());
+      fail();
+    } catch (IOException expected) {
+      // Expected.
+    }
+
+    // Same storage, loads the name on demand.
+    final SessionSerializer reader = new SessionSerializer(
+        null, true, Compression.NONE, new SharedNameTable(storageClient));
+
+    for (byte[] bytes : new byte[][] {literal, indexed}) {
+      final PersistedSession restored = new PersistedSession();
+      reader.deserialize(bytes, restored, new PersistedSessionMetadata());
+      assertEquals("user", restored.attributes.get(NAME));
+    }
+  }
+
+  @Test
+  public void testRemoteNames() throws Exception {
+    final SharedNameTable names = new SharedNameTable(storageClient);
+    names.start();
+
+    // Registered by other nodes back to back, each read soon after.
+    storageClient.addToIndex(SharedNameTable.KEY, "first", SharedNameTable.MAX_SIZE).get();
+    assertEquals("first", names.nameAt(0));
+
+    storageClient.addToIndex(SharedNameTable.KEY, "second", SharedNameTable.MAX_SIZE).get();
+    assertEquals("second", names.nameAt(1));
+
+    // Repeated misses of an index missing in the storage are throttled.
+    final int reloads = storageClient.reloads;
+    assertNull(names.nameAt(5));
+    assertNull(names.nameAt(5));
+    assertNull(names.nameAt(3));
+    assertEquals(reloads + 1, storageClient.reloads);
+  }
+
+  private static PersistedSession createSession() {
+    final PersistedSession session = new PersistedSession();
+    session.id = "test-session-id";
+    session.attributes = new HashMap<>();
+    session.attributes.put(NAME, "user");
+    return session;
+  }
+
+  private static class IndexStorageClient extends StorageClientStub {
+    private final Map<String, byte[]> index = new HashMap<>();
+    int reloads;
+
+    @Override
+    public synchronized CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+      final byte[] existing = index.get(value);
+      if (existing != null) {
+        return CompletableFuture.completedFuture(Long.valueOf(new String(existing, UTF_8)));
+      }
+
+      final long position = index.size();
+      index.put(value, String.valueOf(position).getBytes(UTF_8));
+      return CompletableFuture.completedFuture(position);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Map<String, byte[]>> getFields(String key) {
+      reloads++;
+      return CompletableFuture.completedFuture(index.isEmpty() ? null : new HashMap<>(index));
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.storage.MessageListener;
+import mobi.eyeline.rsm.storage.StorageClient;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage client with no operations supported, to override the ones required by a test.
+ */
+class StorageClientStub implements StorageClient {
+
+  @Override
+  public CompletableFuture<Boolean> setIfAbsent(String key, int lifetimeSeconds, byte[] payload) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] o) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<byte[]> get(String key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> touch(String key, int lifetimeSeconds) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> delete(String key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFieldsIfAbsent(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> setFields(String key, int lifetimeSeconds, Map<String, byte[]> fields) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Boolean> updateFields(String key,
+                                                 int lifetimeSeconds,
+                                                 Map<String, byte[]> fields,
+                                                 Collection<String> removed) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Map<String, byte[]>> getFields(String key) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<List<byte[]>> getFields(String key, String... fields) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Long> addToIndex(String key, String value, int maxSize) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public CompletableFuture<Long> publish(String channel, byte[] message) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Closeable subscribe(String channel, MessageListener listener) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,125 @@
+package mobi.eyeline.rsm;
+
+import mobi.eyeline.rsm.WriteBehindQueue.OverflowPolicy;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WriteBehindQueueTest {
+
+  @Test
+  public void testCoalescing() throws Exception {
+    final GatedStorageClient storage = new GatedStorageClient();
+    final WriteBehindQueue queue = new WriteBehindQueue(storage, 10, OverflowPolicy.SYNC);
+
+    // First write is taken by the writer and blocks it.
+    assertTrue(queue.set("s1", 60, bytes(1), null));
+    storage.awaitWrites(1);
+
+    assertTrue(queue.set("s1", 60, bytes(2), null));
+    assertTrue(queue.set("s1", 60, bytes(3), null));
+    assertTrue(queue.set("s2", 60, bytes(4), null));
+    queue.delete("s2", null);
+
+    assertArrayEquals(bytes(3), queue.pending("s1").getPayload());
+    assertTrue(queue.pending("s2").isDelete());
+    assertEquals(2, queue.getCoalescedCount());
+
+    storage.open();
+    queue.close();
+
+    assertEquals("set s1 1, set s1 3, delete s2", String.join(", ", storage.writes));
+    assertNull(queue.pending("s1"));
+    assertEquals(0, queue.getDepth());
+  }
+
+  @Test
+  public void testSupersededCallback() throws Exception {
+    final GatedStorageClient storage = new GatedStorageClient();
+    final WriteBehindQueue queue = new WriteBehindQueue(storage, 10, OverflowPolicy.SYNC);
+
+    final List<String> written = new CopyOnWriteArrayList<>();
+    assertTrue(queue.set("s1", 60, bytes(1), () -> written.add("1")));
+    storage.awaitWrites(1);
+
+    // Queued while the first one is in flight.
+    assertTrue(queue.set("s1", 60, bytes(2), () -> written.add("2")));
+
+    storage.open();
+    queue.close();
+
+    assertEquals("set s1 1, set s1 2", String.join(", ", storage.writes));
+    assertEquals(Collections.singletonList("2"), written);
+  }
+
+  @Test
+  public void testOverflow() throws Exception {
+    final GatedStorageClient storage = new GatedStorageClient();
+    final WriteBehindQueue queue = new WriteBehindQueue(storage, 1, OverflowPolicy.SYNC);
+
+    assertTrue(queue.set("s1", 60, bytes(1), null));
+    storage.awaitWrites(1);
+
+    assertTrue(queue.set("s2", 60, bytes(2), null));
+    assertFalse(queue.set("s3", 60, bytes(3), null));
+    assertEquals(1, queue.getOverflowCount());
+
+    final CountDownLatch written = new CountDownLatch(1);
+    assertTrue(queue.set("s2", 60, bytes(4), written::countDown));
+
+    storage.open();
+    assertTrue(written.await(5, TimeUnit.SECONDS));
+    queue.close();
+
+    // Closed queue rejects writes, so that callers fall back to synchronous ones.
+    assertFalse(queue.set("s1", 60, bytes(5), null));
+  }
+
+  private static byte[] bytes(int value) {
+    return new byte[] {(byte) value};
+  }
+
+  /**
+   * Records writes, completing them only once opened.
+   */
+  private static class GatedStorageClient extends StorageClientStub {
+
+    private final List<String> writes = new CopyOnWriteArrayList<>();
+    private final CompletableFuture<Boolean> gate = new CompletableFuture<>();
+
+    @Override
+    public CompletableFuture<Boolean> set(String key, int lifetimeSeconds, byte[] payload) {
+      writes.add("set " + key + " " + payload[0]);
+      return gate.thenApply(ok -> true);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> delete(String key) {
+      writes.add("delete " + key);
+      return gate.thenApply(ok -> true);
+    }
+
+    void awaitWrites(int count) throws InterruptedException {
+      final long deadline = System.currentTimeMillis() + 5_000;
+      while (writes.size() < count && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(count, writes.size());
+    }
+
+    void open() {
+      gate.complete(true);
+    }
+  }
+}
@@ -0,0 +1,87 @@
+package mobi.eyeline.rsm.pack;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CompactAttributeMapTest {
+
+  @Test
+  public void testAgainstHashMap() {
+    final Random random = new Random(42);
+
+    for (int maxKeys : new int[] {4, CompactAttributeMap.MAX_LINEAR_SIZE, 100}) {
+      final Map<String, Integer> expected = new HashMap<>();
+      final Map<String, Integer> actual = new CompactAttributeMap<>();
+
+      for (int i = 0; i < 10_000; i++) {
+        final String key = "key" + random.nextInt(maxKeys);
+
+        switch (random.nextInt(4)) {
+          case 0:
+          case 1:
+            assertEquals(expected.put(key, i), actual.put(key, i));
+            break;
+
+          case 2:
+            assertEquals(expected.remove(key), actual.remove(key));
+            break;
+
+          default:
+            // Remove some of the entries while iterating.
+            final Iterator<Map.Entry<String, Integer>> it = actual.entrySet().iterator();
+            while (it.hasNext()) {
+              final Map.Entry<String, Integer> entry = it.next();
+              if (entry.getValue() % 3 == 0) {
+                it.remove();
+                expected.remove(entry.getKey());
+              }
+            }
+        }
+
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected.get(key), actual.get(key));
+      }
+
+      assertEquals(expected, actual);
+      assertEquals(expected.hashCode(), actual.hashCode());
+    }
+  }
+
+  @Test
+  public void testNullValues() {
+    final Map<String, Object> map = new CompactAttributeMap<>(1);
+    map.put("a", null);
+
+    assertEquals(1, map.size());
+    assertNull(map.get("a"));
+    assertNull(map.get(null));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    final Map<String, Object> map = new CompactAttributeMap<>();
+    for (int i = 0; i < 20; i++) {
+      map.put("key" + i, i);
+    }
+
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(map);
+    }
+
+    try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+      assertEquals(map, in.readObject());
+    }
+  }
+}
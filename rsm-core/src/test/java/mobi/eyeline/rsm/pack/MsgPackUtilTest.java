@@ -0,0 +1,145 @@
+package mobi.eyeline.rsm.pack;
+
+import org.junit.Test;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.Value;
+import org.msgpack.value.ValueFactory;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MsgPackUtilTest {
+
+  private static final UUID REF_UUID = UUID.fromString("43305804-cd5b-4b42-8e40-124743140d00");
+
+  @Test
+  public void testScalarsEncoding() throws Exception {
+    for (Object v : new Object[] {
+        null, true, false, "", "foo", "привет", REF_UUID,
+        0, 1, -1, 127, 128, -32, -33, 255, 256, 65535, 65536, Integer.MIN_VALUE, Integer.MAX_VALUE,
+        0L, -129L, Long.MIN_VALUE, Long.MAX_VALUE, (long) Integer.MAX_VALUE + 1
+    }) {
+      assertSameEncoding(v);
+    }
+  }
+
+  @Test
+  public void testCollectionsEncoding() throws Exception {
+    final Map<String, Object> nested = new LinkedHashMap<>();
+    nested.put("list", Arrays.asList(1, 2L, "three", null));
+    nested.put("uuids", new UUID[] {REF_UUID, REF_UUID});
+    nested.put("map", new HashMap<String, Object>() {{
+      put("a", 1);
+      put("b", Arrays.asList("x", "y"));
+    }});
+
+    final StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < 10_000; i++) {
+      longString.append(i);
+    }
+    nested.put("longString", longString.toString());
+
+    assertSameEncoding(nested);
+    assertSameEncoding(new String[0]);
+    assertSameEncoding(new HashMap<>());
+  }
+
+  @Test
+  public void testDecoding() throws Exception {
+    final MessageBufferPacker pk = MessagePack.newDefaultBufferPacker();
+    MsgPackUtil.pack(pk, new UUID[] {REF_UUID, REF_UUID});
+    MsgPackUtil.pack(pk, Arrays.asList("foo", 1, null));
+    MsgPackUtil.pack(pk, Arrays.asList(null, "foo"));
+    MsgPackUtil.pack(pk, new String[0]);
+    MsgPackUtil.pack(pk, new HashMap<String, Object>() {{
+      put("int", 1);
+      put("strings", Arrays.asList("x", "y"));
+    }});
+    pk.packDouble(42.5);
+    pk.packBigInteger(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+
+    final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(pk.toByteArray());
+
+    final Object uuids = MsgPackUtil.unpack(unpacker);
+    assertArrayEquals(new UUID[] {REF_UUID, REF_UUID}, (UUID[]) uuids);
+
+    // Mixed types and nulls.
+    assertArrayEquals(new Object[] {"foo", 1L, null}, (Object[]) MsgPackUtil.unpack(unpacker));
+    assertArrayEquals(new Object[] {null, "foo"}, (Object[]) MsgPackUtil.unpack(unpacker));
+
+    // Element type of an empty array is unknown.
+    assertEquals(Collections.emptyList(), MsgPackUtil.unpack(unpacker));
+
+    final Map<?, ?> map = MsgPackUtil.unpack(unpacker);
+    assertEquals(1L, map.get("int"));
+    assertArrayEquals(new String[] {"x", "y"}, (String[]) map.get("strings"));
+
+    assertEquals(42L, (long) MsgPackUtil.unpack(unpacker));
+    assertEquals(-1L, (long) MsgPackUtil.unpack(unpacker));
+  }
+
+  private static void assertSameEncoding(Object v) throws Exception {
+    final MessageBufferPacker expected = MessagePack.newDefaultBufferPacker();
+    expected.packValue(asValue(v));
+
+    final MessageBufferPacker actual = MessagePack.newDefaultBufferPacker();
+    MsgPackUtil.pack(actual, v);
+
+    assertArrayEquals(String.valueOf(v), expected.toByteArray(), actual.toByteArray());
+  }
+
+  /** Reference encoder, builds {@link Value} tree first. */
+  private static Value asValue(Object v) {
+    if (v == null) {
+      return ValueFactory.newNil();
+    }
+
+    if (v instanceof Integer) {
+      return ValueFactory.newInteger((Integer) v);
+    }
+
+    if (v instanceof Long) {
+      return ValueFactory.newInteger((Long) v);
+    }
+
+    if (v instanceof String) {
+      return ValueFactory.newString((String) v);
+    }
+
+    if (v instanceof Boolean) {
+      return ValueFactory.newBoolean((boolean) v);
+    }
+
+    if (v instanceof UUID) {
+      return UUIDValue.newUUID((UUID) v);
+    }
+
+    if (v instanceof Collection) {
+      return ValueFactory.newArray(
+          ((Collection<?>) v).stream().map(MsgPackUtilTest::asValue).collect(Collectors.toList())
+      );
+    }
+
+    if (v instanceof Map) {
+      final ValueFactory.MapBuilder builder = ValueFactory.newMapBuilder();
+      ((Map<?, ?>) v).forEach((k, kv) -> builder.put(asValue(k), asValue(kv)));
+      return builder.build();
+    }
+
+    return ValueFactory.newArray(
+        Arrays.stream((Object[]) v).map(MsgPackUtilTest::asValue).toArray(Value[]::new)
+    );
+  }
+}
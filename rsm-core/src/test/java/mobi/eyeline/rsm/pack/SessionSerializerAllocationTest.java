@@ -0,0 +1,96 @@
+package mobi.eyeline.rsm.pack;
+
+import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Ensures steady-state save path only allocates the resulting payload.
+ */
+public class SessionSerializerAllocationTest {
+
+  private static final int WARMUP_ITERATIONS = 50_000;
+  private static final int ITERATIONS = 10_000;
+
+  /** Allowance for a few small objects per save (encoded session, iterators etc.) */
+  private static final int OVERHEAD_BYTES = 256;
+
+  @Test
+  public void testSaveAllocation() throws Exception {
+    final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+    assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+
+    final SessionSerializer serializer = new SessionSerializer(null);
+    final PersistedSession session = createSession();
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+
+    int payloadSize = 0;
+    for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+      payloadSize = save(serializer, session, metadata);
+    }
+
+    final long threadId = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < ITERATIONS; i++) {
+      save(serializer, session, metadata);
+    }
+    final long perSave = (threads.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+
+    // Payload array itself, 16 bytes header plus contents.
+    final long expected = 16 + payloadSize + OVERHEAD_BYTES;
+    assertTrue("Allocated per save: " + perSave + ", expected at most " + expected, perSave <= expected);
+  }
+
+  private static int save(SessionSerializer serializer,
+                          PersistedSession session,
+                          PersistedSessionMetadata metadata) throws Exception {
+    final EncodedSession encoded = serializer.encode(session, true);
+    metadata.setAttrHash(encoded.getAttrHash());
+    return serializer.serialize(encoded, metadata).length;
+  }
+
+  private static PersistedSession createSession() {
+    final PersistedSession session = new PersistedSession();
+    session.id = "DBD6DD67314082987E33590E0EDB2B8C";
+    session.creationTime = System.currentTimeMillis();
+    session.lastAccessedTime = session.creationTime;
+    session.thisAccessedTime = session.creationTime;
+    session.maxInactiveInterval = 3600;
+    session.isValid = true;
+    session.principalName = "tester";
+    session.principalRoles = new String[] {"ADMIN", "CLIENTS"};
+
+    final Map<String, Object> nested = new HashMap<>();
+    nested.put("locale", "ru_RU");
+    nested.put("counter", 42L);
+
+    session.attributes = new HashMap<>();
+    session.attributes.put("javax.faces.request.charset", "UTF-8");
+    session.attributes.put("userId", 123456789L);
+    session.attributes.put("uuid", UUID.randomUUID());
+    session.attributes.put("uuids", new UUID[] {UUID.randomUUID(), UUID.randomUUID()});
+    session.attributes.put("flags", Arrays.asList(true, false, true));
+    session.attributes.put("greeting", "Здравствуйте");
+    session.attributes.put("preferences", nested);
+    return session;
+  }
+
+  private static com.sun.management.ThreadMXBean getThreadMXBean() {
+    try {
+      return (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    } catch (ClassCastException e) {
+      return null;
+    }
+  }
+}
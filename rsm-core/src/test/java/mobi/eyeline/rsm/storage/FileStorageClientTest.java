@@ -0,0 +1,179 @@
+package mobi.eyeline.rsm.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FileStorageClientTest {
+
+  private Path dir;
+  private FileStorageClient client;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("rsm-file");
+    client = open();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    client.close();
+    try (Stream<Path> files = Files.list(dir)) {
+      for (Path file : (Iterable<Path>) files::iterator) {
+        Files.delete(file);
+      }
+    }
+    Files.delete(dir);
+  }
+
+  private FileStorageClient open() throws IOException {
+    return new FileStorageClient(dir.toUri().toString());
+  }
+
+  private FileStorageClient reopen() throws IOException {
+    client.close();
+    return client = open();
+  }
+
+  @Test
+  public void testBlobs() throws Exception {
+    assertTrue(client.setIfAbsent("a", 60, bytes("1")).get());
+    assertFalse(client.setIfAbsent("a", 60, bytes("2")).get());
+    assertTrue(client.set("b", 60, bytes("3")).get());
+    assertTrue(client.set("b", 60, bytes("4")).get());
+
+    assertArrayEquals(bytes("1"), client.get("a").get());
+    assertArrayEquals(bytes("4"), client.get("b").get());
+    assertNull(client.get("c").get());
+
+    assertTrue(client.delete("a").get());
+    assertFalse(client.delete("a").get());
+    assertNull(client.get("a").get());
+
+    client = reopen();
+    assertNull(client.get("a").get());
+    assertArrayEquals(bytes("4"), client.get("b").get());
+  }
+
+  @Test
+  public void testFields() throws Exception {
+    final Map<String, byte[]> fields = new HashMap<>();
+    fields.put("x", bytes("1"));
+    fields.put("y", bytes("2"));
+
+    assertTrue(client.setFieldsIfAbsent("s", 60, fields).get());
+    assertFalse(client.setFieldsIfAbsent("s", 60, fields).get());
+    assertTrue(client.updateFields(
+        "s", 60, Collections.singletonMap("z", bytes("3")), Collections.singletonList("x")).get());
+    assertFalse(client.updateFields(
+        "missing", 60, Collections.singletonMap("z", bytes("3")), Collections.emptyList()).get());
+
+    client = reopen();
+
+    final Map<String, byte[]> loaded = client.getFields("s").get();
+    assertEquals(2, loaded.size());
+    assertArrayEquals(bytes("2"), loaded.get("y"));
+    assertArrayEquals(bytes("3"), loaded.get("z"));
+
+    final List<byte[]> values = client.getFields("s", "x", "z").get();
+    assertNull(values.get(0));
+    assertArrayEquals(bytes("3"), values.get(1));
+
+    assertEquals(0L, (long) client.addToIndex("names", "a", 2).get());
+    assertEquals(1L, (long) client.addToIndex("names", "b", 2).get());
+    assertEquals(0L, (long) client.addToIndex("names", "a", 2).get());
+    assertEquals(-1L, (long) client.addToIndex("names", "c", 2).get());
+  }
+
+  @Test
+  public void testExpiration() throws Exception {
+    client.set("a", 1, bytes("1")).get();
+    client.set("b", 1, bytes("2")).get();
+    assertTrue(client.touch("b", 60).get());
+    assertFalse(client.touch("c", 60).get());
+
+    Thread.sleep(1100);
+    assertNull(client.get("a").get());
+    assertFalse(client.touch("a", 60).get());
+    assertArrayEquals(bytes("2"), client.get("b").get());
+
+    client = reopen();
+    assertNull(client.get("a").get());
+    assertArrayEquals(bytes("2"), client.get("b").get());
+  }
+
+  @Test
+  public void testInterruptedWrite() throws Exception {
+    client.set("a", 0, bytes("1")).get();
+    client.set("b", 0, bytes("2")).get();
+    client.close();
+
+    // Corrupt the last record's value.
+    final Path file = dir.resolve(FileStorageClient.DATA_FILE);
+    try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+      long pos = 0;
+      for (int i = 0; i < 2; i++) {
+        raf.seek(pos);
+        final int length = raf.readInt();
+        if (i == 1) {
+          raf.seek(pos + length - 1);
+          raf.write('x');
+        }
+        pos += length;
+      }
+    }
+
+    client = open();
+    assertArrayEquals(bytes("1"), client.get("a").get());
+    assertNull(client.get("b").get());
+
+    // Appended over the discarded record.
+    client.set("c", 0, bytes("3")).get();
+    client = reopen();
+    assertArrayEquals(bytes("3"), client.get("c").get());
+  }
+
+  @Test
+  public void testCompaction() throws Exception {
+    final byte[] payload = new byte[64 * 1024];
+
+    // Superseded records exceeding the initial size force compaction on append.
+    for (int i = 0; i < 1000; i++) {
+      payload[0] = (byte) i;
+      client.set("key-" + (i % 10), 0, payload).get();
+    }
+
+    for (int i = 990; i < 1000; i++) {
+      payload[0] = (byte) i;
+      assertArrayEquals(payload, client.get("key-" + (i % 10)).get());
+    }
+
+    client = reopen();
+    for (int i = 990; i < 1000; i++) {
+      payload[0] = (byte) i;
+      assertArrayEquals(payload, client.get("key-" + (i % 10)).get());
+    }
+    assertTrue(Files.size(dir.resolve(FileStorageClient.DATA_FILE)) < 1000 * payload.length);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(UTF_8);
+  }
+}
@@ -0,0 +1,76 @@
+package mobi.eyeline.rsm.storage;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HashRingTest {
+
+  private static final int KEYS = 100_000;
+
+  @Test
+  public void testBalance() {
+    final HashRing<String> ring = new HashRing<>(nodes(4));
+
+    final Map<String, Integer> counts = new HashMap<>();
+    for (int i = 0; i < KEYS; i++) {
+      counts.merge(ring.get(key(i)), 1, Integer::sum);
+    }
+
+    assertEquals(4, counts.size());
+    for (int count : counts.values()) {
+      assertTrue("Unbalanced: " + counts, Math.abs(count - KEYS / 4) < KEYS / 4 / 5);
+    }
+  }
+
+  @Test
+  public void testAddNode() {
+    final HashRing<String> before = new HashRing<>(nodes(4));
+    final HashRing<String> after = new HashRing<>(nodes(5));
+
+    int moved = 0;
+    for (int i = 0; i < KEYS; i++) {
+      final String prev = before.get(key(i));
+      final String next = after.get(key(i));
+
+      if (!prev.equals(next)) {
+        assertEquals("Moved between the existing nodes", "node-4", next);
+        moved++;
+      }
+    }
+
+    assertTrue("Moved " + moved + " keys", Math.abs(moved - KEYS / 5) < KEYS / 5 / 5);
+  }
+
+  @Test
+  public void testNodeOrder() {
+    final Map<String, String> reversed = new LinkedHashMap<>();
+    for (int i = 3; i >= 0; i--) {
+      reversed.put("node-" + i, "node-" + i);
+    }
+
+    final HashRing<String> ring = new HashRing<>(nodes(4));
+    final HashRing<String> other = new HashRing<>(reversed);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(ring.get(key(i)), other.get(key(i)));
+    }
+  }
+
+  private static Map<String, String> nodes(int n) {
+    final Map<String, String> nodes = new LinkedHashMap<>();
+    for (int i = 0; i < n; i++) {
+      nodes.put("node-" + i, "node-" + i);
+    }
+    return nodes;
+  }
+
+  private static String key(int i) {
+    return "rsm:session:" + new UUID(i, 31L * i).toString();
+  }
+}
@@ -0,0 +1,45 @@
+package mobi.eyeline.rsm.storage;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HedgedReadsTest {
+
+  @Test
+  public void testDelay() {
+    final HedgedReads hedging = new HedgedReads(90, 5);
+
+    // Not estimated yet.
+    assertEquals(-1, hedging.started());
+
+    for (int i = 1; i <= 1000; i++) {
+      hedging.started();
+      hedging.completed(TimeUnit.MICROSECONDS.toNanos(i));
+    }
+
+    final long delay = hedging.getDelayMicros();
+    assertTrue("Delay " + delay, delay >= 850 && delay <= 950);
+  }
+
+  @Test
+  public void testRateLimit() {
+    final HedgedReads hedging = new HedgedReads(90, 5);
+
+    int hedged = 0;
+    for (int i = 0; i < 10_000; i++) {
+      hedging.started();
+      if (hedging.tryHedge()) {
+        hedged++;
+      }
+    }
+
+    // 5% of reads, plus the initial burst.
+    assertTrue("Hedged " + hedged, hedged >= 500 && hedged <= 510);
+    assertEquals(hedged, hedging.getHedgedCount());
+    assertEquals(10_000, hedging.getReadCount());
+  }
+}
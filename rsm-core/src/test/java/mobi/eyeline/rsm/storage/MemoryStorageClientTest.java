@@ -0,0 +1,56 @@
+package mobi.eyeline.rsm.storage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryStorageClientTest {
+
+  private MemoryStorageClient client;
+
+  @After
+  public void tearDown() {
+    client.close();
+  }
+
+  @Test
+  public void testExpiration() throws Exception {
+    client = new MemoryStorageClient();
+
+    client.set("a", 1, bytes("1")).get();
+    client.set("b", 1, bytes("2")).get();
+    client.setFields("c", 1, Collections.singletonMap("x", bytes("3"))).get();
+    assertTrue(client.touch("b", 60).get());
+
+    Thread.sleep(1100);
+    assertNull(client.get("a").get());
+    assertFalse(client.touch("a", 60).get());
+    assertTrue(client.setIfAbsent("a", 60, bytes("4")).get());
+    assertArrayEquals(bytes("4"), client.get("a").get());
+    assertArrayEquals(bytes("2"), client.get("b").get());
+    assertNull(client.getFields("c").get());
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    client = new MemoryStorageClient("mem://?latency=200");
+
+    final long start = System.nanoTime();
+    final CompletableFuture<Boolean> rc = client.set("a", 0, bytes("1"));
+    assertFalse(rc.isDone());
+    assertTrue(rc.get());
+    assertTrue(System.nanoTime() - start >= 200_000_000L);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(UTF_8);
+  }
+}
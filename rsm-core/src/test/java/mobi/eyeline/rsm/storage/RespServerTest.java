@@ -0,0 +1,142 @@
+package mobi.eyeline.rsm.storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RespServerTest {
+
+  private RespServer server;
+  private RedisStorageClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new RespServer(0, 0);
+    client = new RedisStorageClient(server.getUrl(), 0, 0, true);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    client.close();
+    server.close();
+  }
+
+  @Test
+  public void testBlobs() throws Exception {
+    assertTrue(client.setIfAbsent("a", 60, bytes("1")).get());
+    assertFalse(client.setIfAbsent("a", 60, bytes("2")).get());
+    assertTrue(client.set("b", 0, bytes("3")).get());
+    assertTrue(client.set("b", 60, bytes("4")).get());
+
+    assertArrayEquals(bytes("1"), client.get("a").get());
+    assertArrayEquals(bytes("4"), client.get("b").get());
+    assertNull(client.get("c").get());
+
+    assertTrue(client.touch("a", 60).get());
+    assertFalse(client.touch("c", 60).get());
+
+    assertTrue(client.delete("a").get());
+    assertFalse(client.delete("a").get());
+    assertNull(server.getStorage().get("a").get());
+  }
+
+  @Test
+  public void testFields() throws Exception {
+    final Map<String, byte[]> fields = new HashMap<>();
+    fields.put("x", bytes("1"));
+    fields.put("y", bytes("2"));
+
+    assertTrue(client.setFieldsIfAbsent("s", 60, fields).get());
+    assertFalse(client.setFieldsIfAbsent("s", 60, fields).get());
+    assertTrue(client.updateFields(
+        "s", 60, Collections.singletonMap("z", bytes("3")), Collections.singletonList("x")).get());
+    assertFalse(client.updateFields(
+        "missing", 60, Collections.singletonMap("z", bytes("3")), Collections.emptyList()).get());
+
+    final Map<String, byte[]> loaded = client.getFields("s").get();
+    assertEquals(2, loaded.size());
+    assertArrayEquals(bytes("2"), loaded.get("y"));
+    assertArrayEquals(bytes("3"), loaded.get("z"));
+    assertNull(client.getFields("missing").get());
+
+    final List<byte[]> values = client.getFields("s", "x", "z").get();
+    assertNull(values.get(0));
+    assertArrayEquals(bytes("3"), values.get(1));
+
+    assertEquals(0L, (long) client.addToIndex("names", "a", 2).get());
+    assertEquals(1L, (long) client.addToIndex("names", "b", 2).get());
+    assertEquals(0L, (long) client.addToIndex("names", "a", 2).get());
+    assertEquals(-1L, (long) client.addToIndex("names", "c", 2).get());
+  }
+
+  @Test
+  public void testPubSub() throws Exception {
+    final BlockingQueue<String> received = new ArrayBlockingQueue<>(10);
+    final CompletableFuture<Void> subscribed = new CompletableFuture<>();
+
+    final Closeable subscription = client.subscribe("channel", new MessageListener() {
+      @Override
+      public void onMessage(byte[] message) {
+        received.add(new String(message, UTF_8));
+      }
+
+      @Override
+      public void onSubscribe() {
+        subscribed.complete(null);
+      }
+    });
+
+    subscribed.get(5, TimeUnit.SECONDS);
+    assertEquals(1L, (long) client.publish("channel", bytes("hello")).get());
+    assertEquals("hello", received.poll(5, TimeUnit.SECONDS));
+
+    subscription.close();
+  }
+
+  @Test
+  public void testLatency() throws Exception {
+    server.close();
+    client.close();
+
+    server = new RespServer(0, 100);
+    client = new RedisStorageClient(server.getUrl(), 0, 1, true);
+
+    // Warm up the connection.
+    client.get("a").get();
+
+    final long start = System.nanoTime();
+    final List<CompletableFuture<Boolean>> writes = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      writes.add(client.set("key-" + i, 0, bytes(String.valueOf(i))));
+    }
+    for (CompletableFuture<Boolean> write : writes) {
+      assertTrue(write.get());
+    }
+    final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+    // Batched into a few round trips, far less than one per command.
+    assertTrue("Elapsed " + elapsedMillis, elapsedMillis >= 100 && elapsedMillis < 50 * 100 / 2);
+  }
+
+  private static byte[] bytes(String value) {
+    return value.getBytes(UTF_8);
+  }
+}
@@ -0,0 +1,53 @@
+package mobi.eyeline.rsm.storage;
+
+import mobi.eyeline.rsm.SharedNameTable;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class ShardedStorageClientTest {
+
+  private final List<MemoryStorageClient> instances = new ArrayList<>();
+
+  @After
+  public void tearDown() {
+    instances.forEach(MemoryStorageClient::close);
+  }
+
+  @Test
+  public void testSharedKeysOnShardAdded() throws Exception {
+    final Map<String, StorageClient> shards = new LinkedHashMap<>();
+    shards.put("host1:6379/0", instance());
+    shards.put("host2:6379/0", instance());
+
+    final ShardedStorageClient client = new ShardedStorageClient(shards);
+    assertEquals(0L, (long) client.addToIndex(SharedNameTable.KEY, "a", 100).get());
+    assertEquals(1L, (long) client.addToIndex(SharedNameTable.KEY, "b", 100).get());
+
+    for (int i = 3; i <= 10; i++) {
+      shards.put("host" + i + ":6379/0", instance());
+
+      final ShardedStorageClient grown = new ShardedStorageClient(shards);
+      assertSame(instances.get(0), grown.shardFor(SharedNameTable.KEY));
+
+      final Map<String, byte[]> names = grown.getFields(SharedNameTable.KEY).get();
+      assertNotNull("Name table lost with " + i + " shards", names);
+      assertEquals(2, names.size());
+      assertEquals(1L, (long) grown.addToIndex(SharedNameTable.KEY, "b", 100).get());
+    }
+  }
+
+  private MemoryStorageClient instance() {
+    final MemoryStorageClient instance = new MemoryStorageClient();
+    instances.add(instance);
+    return instance;
+  }
+}
@@ -23,6 +23,31 @@ public class RedisSessionBinder {
     return this;
   }
 
+  public RedisSessionBinder setIoThreads(int ioThreads) {
+    manager.setIoThreads(ioThreads);
+    return this;
+  }
+
+  public RedisSessionBinder setPipelining(boolean pipelining) {
+    manager.setPipelining(pipelining);
+    return this;
+  }
+
+  public RedisSessionBinder setReadFromReplicas(boolean readFromReplicas) {
+    manager.setReadFromReplicas(readFromReplicas);
+    return this;
+  }
+
+  public RedisSessionBinder setHedgePercentile(int hedgePercentile) {
+    manager.setHedgePercentile(hedgePercentile);
+    return this;
+  }
+
+  public RedisSessionBinder setHedgeMaxPercent(int hedgeMaxPercent) {
+    manager.setHedgeMaxPercent(hedgeMaxPercent);
+    return this;
+  }
+
   public RedisSessionBinder setPersistenceStrategy(String strategy) {
     manager.setPersistenceStrategy(strategy);
     return this;
@@ -43,6 +68,59 @@ public class RedisSessionBinder {
     return this;
   }
 
+  public RedisSessionBinder setTouchIntervalSeconds(int touchIntervalSeconds) {
+    manager.setTouchIntervalSeconds(touchIntervalSeconds);
+    return this;
+  }
+
+  public RedisSessionBinder setLazyAttributes(boolean lazyAttributes) {
+    manager.setLazyAttributes(lazyAttributes);
+    return this;
+  }
+
+  public RedisSessionBinder setCompressionThreshold(int compressionThreshold) {
+    manager.setCompressionThreshold(compressionThreshold);
+    return this;
+  }
+
+  public RedisSessionBinder setCompressionDictionary(String path) {
+    manager.setCompressionDictionary(path);
+    return this;
+  }
+
+  public RedisSessionBinder setSharedAttributeNames(boolean sharedAttributeNames) {
+    manager.setSharedAttributeNames(sharedAttributeNames);
+    return this;
+  }
+
+  public RedisSessionBinder setNearCacheSize(int nearCacheSize) {
+    manager.setNearCacheSize(nearCacheSize);
+    return this;
+  }
+
+  public RedisSessionBinder setNearCacheTtlSeconds(int nearCacheTtlSeconds) {
+    manager.setNearCacheTtlSeconds(nearCacheTtlSeconds);
+    return this;
+  }
+
+  public RedisSessionBinder setWriteBehindQueueSize(int writeBehindQueueSize) {
+    manager.setWriteBehindQueueSize(writeBehindQueueSize);
+    return this;
+  }
+
+  public RedisSessionBinder setWriteBehindOverflow(String policy) {
+    manager.setWriteBehindOverflow(policy);
+    return this;
+  }
+
+  /**
+   * Requires {@link RedisSessionPrefetchFilter} to be registered along with this binder.
+   */
+  public RedisSessionBinder setPrefetch(boolean prefetch) {
+    manager.setPrefetch(prefetch);
+    return this;
+  }
+
   public RedisSessionBinder setSessionCookieName(String sessionCookieName) {
     manager.setSessionCookieName(sessionCookieName);
     return this;
@@ -3,7 +3,8 @@ package mobi.eyeline.rsm.jersey;
 import org.glassfish.hk2.api.Factory;
 
 import javax.inject.Inject;
-import javax.ws.rs.core.Cookie;
+import javax.inject.Provider;
+import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.core.HttpHeaders;
 import java.io.IOException;
 import java.util.logging.Level;
@@ -17,15 +18,19 @@ public class RedisSessionFactory implements Factory<RedisSession> {
 
   private final RedisSessionManager manager;
   private final HttpHeaders headers;
+  private final Provider<ContainerRequestContext> requestContext;
 
   @Inject
-  public RedisSessionFactory(RedisSessionManager manager, HttpHeaders headers) {
+  public RedisSessionFactory(RedisSessionManager manager,
+                             HttpHeaders headers,
+                             Provider<ContainerRequestContext> requestContext) {
     if (log.isLoggable(Level.FINEST)) {
       log.finest("RedisSessionFactory initialized");
     }
 
     this.manager = manager;
     this.headers = headers;
+    this.requestContext = requestContext;
   }
 
   @Override
@@ -33,19 +38,8 @@ public class RedisSessionFactory implements Factory<RedisSession> {
     // Session ID might be set either:
     //  - As a separate header,
     //  - Or in cookie.
-    final String sessionId;
-    {
-      final String sessionCookieName = manager.getSessionCookieName();
-
-      final String sessionIdHeader = headers.getHeaderString(sessionCookieName);
-      if (sessionIdHeader == null || sessionIdHeader.isEmpty()) {
-        final Cookie sessionCookie = headers.getCookies().get(sessionCookieName);
-        sessionId = (sessionCookie == null) ? null : sessionCookie.getValue();
-
-      } else {
-        sessionId = sessionIdHeader;
-      }
-    }
+    final String sessionId = manager.getRequestedSessionId(
+        headers.getHeaderString(manager.getSessionCookieName()), headers.getCookies());
 
     if (sessionId == null || sessionId.isEmpty()) {
       if (log.isLoggable(Level.FINEST)) {
@@ -60,7 +54,13 @@ public class RedisSessionFactory implements Factory<RedisSession> {
     }
 
     try {
-      final RedisSession redisSession = manager.findSession(sessionId);
+      // Only look up the request context when there could be a prefetched load.
+      final RedisSessionManager.SessionLoad prefetched = manager.getPrefetch() ?
+          (RedisSessionManager.SessionLoad) requestContext.get()
+              .getProperty(RedisSessionPrefetchFilter.PREFETCHED_SESSION_PROPERTY) :
+          null;
+
+      final RedisSession redisSession = manager.findSession(sessionId, prefetched);
       if (redisSession == null) {
         log.finest("Session ID = [" + sessionId + "] not found");
         return NULL_SESSION;
@@ -1,22 +1,40 @@
 package mobi.eyeline.rsm.jersey;
 
 import mobi.eyeline.rsm.GenericSessionManager;
+import mobi.eyeline.rsm.NearCache;
 import mobi.eyeline.rsm.PersistenceStrategy;
-import mobi.eyeline.rsm.model.PersistableSession;
+import mobi.eyeline.rsm.SharedNameTable;
+import mobi.eyeline.rsm.TouchThrottle;
+import mobi.eyeline.rsm.WriteBehindQueue;
 import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.pack.Compression;
+import mobi.eyeline.rsm.pack.EncodedSession;
+import mobi.eyeline.rsm.pack.NameTable;
 import mobi.eyeline.rsm.pack.SessionSerializer;
+import mobi.eyeline.rsm.pack.SessionSnapshot;
+import mobi.eyeline.rsm.storage.HedgedReads;
 import mobi.eyeline.rsm.storage.RedisStorageClient;
 import mobi.eyeline.rsm.storage.StorageClient;
+import mobi.eyeline.rsm.storage.StorageClients;
 
 import javax.annotation.PreDestroy;
+import javax.ws.rs.core.Cookie;
 import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
 
+  private static final int DEFAULT_TOUCH_INTERVAL_SECONDS = 60;
+  private static final int DEFAULT_NEAR_CACHE_TTL_SECONDS = 30;
+  private static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10_000;
+  private static final int DEFAULT_HEDGE_MAX_PERCENT = 5;
+
   private final Logger log = Logger.getLogger(RedisSessionManager.class.getName());
 
   //
@@ -25,6 +43,11 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
 
   private String dbUrl;
   private int timeout;
+  private int ioThreads = RedisStorageClient.DEFAULT_IO_THREADS;
+  private boolean pipelining;
+  private boolean readFromReplicas;
+  private int hedgePercentile;
+  private int hedgeMaxPercent = DEFAULT_HEDGE_MAX_PERCENT;
 
   private PersistenceStrategy persistenceStrategy = PersistenceStrategy.ALWAYS;
 
@@ -32,6 +55,16 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
   private Pattern skipAttributes;
 
   private int sessionTimeoutSeconds;
+  private int touchIntervalSeconds = DEFAULT_TOUCH_INTERVAL_SECONDS;
+  private boolean lazyAttributes;
+  private int compressionThreshold;
+  private String compressionDictionary;
+  private boolean sharedAttributeNames;
+  private int nearCacheSize;
+  private int nearCacheTtlSeconds = DEFAULT_NEAR_CACHE_TTL_SECONDS;
+  private int writeBehindQueueSize = DEFAULT_WRITE_BEHIND_QUEUE_SIZE;
+  private WriteBehindQueue.OverflowPolicy writeBehindOverflow = WriteBehindQueue.OverflowPolicy.SYNC;
+  private boolean prefetch;
 
   private String sessionCookieName = "session_id";
 
@@ -43,6 +76,20 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
   public int getTimeout()      { return timeout; }
   void setTimeout(int timeout) { this.timeout = timeout; }
 
+  @SuppressWarnings("unused")
+  public int getIoThreads()           { return ioThreads; }
+  void setIoThreads(int ioThreads)    { this.ioThreads = ioThreads; }
+
+  @SuppressWarnings("unused")
+  public boolean getPipelining()              { return pipelining; }
+  void setPipelining(boolean pipelining)      { this.pipelining = pipelining; }
+
+  void setReadFromReplicas(boolean readFromReplicas) { this.readFromReplicas = readFromReplicas; }
+
+  void setHedgePercentile(int hedgePercentile) { this.hedgePercentile = hedgePercentile; }
+
+  void setHedgeMaxPercent(int hedgeMaxPercent) { this.hedgeMaxPercent = hedgeMaxPercent; }
+
   void setPersistenceStrategy(String strategy)        { persistenceStrategy = PersistenceStrategy.fromName(strategy); }
   @SuppressWarnings("unused")
   public String getPersistenceStrategy()              { return persistenceStrategy.name(); }
@@ -57,6 +104,28 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
 
   void setSessionTimeoutSeconds(int sessionTimeoutSeconds) { this.sessionTimeoutSeconds = sessionTimeoutSeconds; }
 
+  void setTouchIntervalSeconds(int touchIntervalSeconds) { this.touchIntervalSeconds = touchIntervalSeconds; }
+
+  void setLazyAttributes(boolean lazyAttributes) { this.lazyAttributes = lazyAttributes; }
+
+  void setCompressionThreshold(int compressionThreshold) { this.compressionThreshold = compressionThreshold; }
+
+  void setCompressionDictionary(String compressionDictionary) { this.compressionDictionary = compressionDictionary; }
+
+  void setSharedAttributeNames(boolean sharedAttributeNames) { this.sharedAttributeNames = sharedAttributeNames; }
+
+  void setNearCacheSize(int nearCacheSize) { this.nearCacheSize = nearCacheSize; }
+
+  void setNearCacheTtlSeconds(int nearCacheTtlSeconds) { this.nearCacheTtlSeconds = nearCacheTtlSeconds; }
+
+  void setWriteBehindQueueSize(int writeBehindQueueSize) { this.writeBehindQueueSize = writeBehindQueueSize; }
+
+  void setWriteBehindOverflow(String policy) { writeBehindOverflow = WriteBehindQueue.OverflowPolicy.fromName(policy); }
+
+  @SuppressWarnings("unused")
+  public boolean getPrefetch()         { return prefetch; }
+  void setPrefetch(boolean prefetch)   { this.prefetch = prefetch; }
+
   String getSessionCookieName() { return sessionCookieName; }
   void setSessionCookieName(String sessionCookieName) { this.sessionCookieName = sessionCookieName; }
 
@@ -66,6 +135,10 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
 
   private StorageClient storageClient;
   private SessionSerializer serializer;
+  private TouchThrottle touchThrottle;
+  private NearCache nearCache;
+  private WriteBehindQueue writeBehindQueue;
+  private HedgedReads hedgedReads;
 
   RedisSessionManager() {
     if (log.isLoggable(Level.FINE)) {
@@ -74,8 +147,53 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
   }
 
   void initialize() {
-    storageClient = new RedisStorageClient(dbUrl, timeout);
-    serializer = new SessionSerializer(null);
+    hedgedReads = hedgePercentile > 0 ? new HedgedReads(hedgePercentile, hedgeMaxPercent) : null;
+    storageClient = StorageClients.create(dbUrl, timeout, ioThreads, pipelining, readFromReplicas, hedgedReads);
+
+    NameTable names = NameTable.NONE;
+    if (sharedAttributeNames) {
+      final SharedNameTable sharedNames = new SharedNameTable(storageClient);
+      sharedNames.start();
+      names = sharedNames;
+    }
+
+    try {
+      serializer = new SessionSerializer(
+          null, lazyAttributes, Compression.create(compressionThreshold, compressionDictionary), names);
+
+    } catch (IOException e) {
+      throw new RuntimeException("Failed reading compression dictionary", e);
+    }
+
+    // Keep at least two touches per session lifetime.
+    touchThrottle = new TouchThrottle(
+        TimeUnit.SECONDS.toMillis(Math.min(touchIntervalSeconds, sessionTimeoutSeconds / 2)));
+
+    if (nearCacheSize > 0) {
+      nearCache = new NearCache(
+          storageClient, nearCacheSize, TimeUnit.SECONDS.toMillis(nearCacheTtlSeconds));
+      nearCache.start();
+    }
+
+    if (persistenceStrategy == PersistenceStrategy.ASYNC) {
+      writeBehindQueue = new WriteBehindQueue(storageClient, writeBehindQueueSize, writeBehindOverflow);
+    }
+  }
+
+  /**
+   * @return Write-behind queue, e.g. to expose its metrics, {@code null} unless in async mode.
+   */
+  @SuppressWarnings("unused")
+  public WriteBehindQueue getWriteBehindQueue() {
+    return writeBehindQueue;
+  }
+
+  /**
+   * @return Hedged read policy, e.g. to expose its metrics, {@code null} unless enabled.
+   */
+  @SuppressWarnings("unused")
+  public HedgedReads getHedgedReads() {
+    return hedgedReads;
   }
 
   @PreDestroy
@@ -84,6 +202,15 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
       log.fine("RedisSessionManager destroyed");
     }
 
+    if (writeBehindQueue != null) {
+      // Flush pending writes while the connection is still open.
+      writeBehindQueue.close();
+    }
+
+    if (nearCache != null) {
+      nearCache.close();
+    }
+
     storageClient.close();
   }
 
@@ -109,37 +236,88 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
                    boolean force) throws IOException {
 
     if (force || session.isDirty()) {
-      final PersistableSession impl = session.asPersistableSession();
-
-      try {
-        storageClient.set(
-            session.getId(),
-            sessionTimeoutSeconds,
-            serializer.serialize(
-                impl,
-                new PersistedSessionMetadata(
-                    serializer.attributesHashFrom(impl.asPersistedSession().attributes)
-                )
-            )
-        ).get();
-      } catch (InterruptedException | ExecutionException e) {
-        throw new IOException(e);
+      final EncodedSession encoded = serializer.encode(session.asPersistableSession(), !doSaveAlways());
+
+      final String id = session.getId();
+      final byte[] data = serializer.serialize(encoded, new PersistedSessionMetadata(encoded.getAttrHash()));
+
+      final SessionSnapshot snapshot = nearCache != null ? serializer.snapshot(data) : null;
+      final Runnable onWritten = () -> {
+        touchThrottle.refreshed(id);
+        if (snapshot != null) {
+          nearCache.saved(snapshot);
+        }
+      };
+
+      if (writeBehindQueue == null ||
+          !writeBehindQueue.set(id, sessionTimeoutSeconds, data, onWritten)) {
+        try {
+          storageClient.set(id, sessionTimeoutSeconds, data).get();
+        } catch (InterruptedException | ExecutionException e) {
+          throw new IOException(e);
+        }
+
+        onWritten.run();
       }
 
     } else {
       if (log.isLoggable(Level.FINE)) {
         log.fine("Save was determined to be unnecessary");
       }
+
+      touch(session);
     }
   }
 
+  /**
+   * Refreshes lifetime of the unchanged session, at most once per {@code touchIntervalSeconds}.
+   */
+  private void touch(RedisSessionImpl session) {
+    if (sessionTimeoutSeconds <= 0) {
+      // Session never expires.
+      return;
+    }
+
+    final String id = session.getId();
+    if (!touchThrottle.tryTouch(id)) {
+      return;
+    }
+
+    if (log.isLoggable(Level.FINE)) {
+      log.fine("Touching session: " + id);
+    }
+
+    storageClient
+        .touch(id, sessionTimeoutSeconds)
+        .whenComplete((found, e) -> {
+          if (e != null) {
+            touchThrottle.forget(id);
+            log.log(Level.WARNING, "Failed refreshing session lifetime, ID = [" + id + "]", e);
+
+          } else if (!found && log.isLoggable(Level.FINE)) {
+            log.fine("Session to refresh not found, ID = [" + id + "]");
+          }
+        });
+  }
+
   @Override
   public void remove(RedisSessionImpl session) {
     if (log.isLoggable(Level.FINE)) {
       log.fine("Removing session ID: " + session.getId());
     }
 
-    storageClient.delete(session.getId());
+    final String id = session.getId();
+    touchThrottle.forget(id);
+
+    final Runnable onDeleted = () -> {
+      if (nearCache != null) {
+        nearCache.removed(id);
+      }
+    };
+
+    if (writeBehindQueue == null || !writeBehindQueue.delete(id, onDeleted)) {
+      storageClient.delete(id).thenRun(onDeleted);
+    }
   }
 
   void afterRequest(RedisSessionImpl session) {
@@ -164,11 +342,78 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
     }
   }
 
-  RedisSessionImpl findSession(String id) throws IOException {
+  /**
+   * @return Session ID passed either as a separate header or in a cookie, {@code null} if none.
+   */
+  String getRequestedSessionId(String header, Map<String, Cookie> cookies) {
+    if (header != null && !header.isEmpty()) {
+      return header;
+    }
+
+    final Cookie sessionCookie = cookies.get(sessionCookieName);
+    return (sessionCookie == null) ? null : sessionCookie.getValue();
+  }
+
+  /**
+   * Starts loading session data for the requested session ID, so that Redis round trip
+   * overlaps with the request processing preceding {@link #findSession} call.
+   *
+   * @return Pending load or {@code null} if prefetching is disabled or not needed.
+   */
+  SessionLoad prefetchSession(String id) {
+    if (!prefetch || id == null || id.isEmpty()) {
+      return null;
+    }
+
+    if (nearCache != null && nearCache.get(id) != null) {
+      return null;
+    }
+
+    if (log.isLoggable(Level.FINEST)) {
+      log.finest("Prefetching session " + id);
+    }
+
+    return startLoading(id);
+  }
+
+  /**
+   * @param prefetched Load started by {@link #prefetchSession}, if any.
+   * @return Session or {@code null} if not found.
+   */
+  RedisSessionImpl findSession(String id, SessionLoad prefetched) throws IOException {
+    if (prefetched != null && !id.equals(prefetched.id)) {
+      prefetched = null;
+    }
+
+    final WriteBehindQueue.PendingWrite pending =
+        writeBehindQueue != null ? writeBehindQueue.pending(id) : null;
+    if (pending != null) {
+      if (pending.isDelete()) {
+        return null;
+      }
+
+      final RedisSessionImpl session = new RedisSessionImpl(this);
+      serializer.deserialize(
+          pending.getPayload(), session.asPersistableSession(), new PersistedSessionMetadata());
+      return session;
+    }
+
+    final SessionSnapshot cached = nearCache != null ? nearCache.get(id) : null;
+    if (cached != null) {
+      final RedisSessionImpl session = new RedisSessionImpl(this);
+      serializer.restore(cached, session.asPersistableSession(), new PersistedSessionMetadata());
+      return session;
+    }
+
+    // Request is issued before the session object is set up, so that the two overlap.
+    final SessionLoad load = prefetched != null ? prefetched : startLoading(id);
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final RedisSessionImpl session = new RedisSessionImpl(this);
 
     final byte[] data;
     try {
-      data = storageClient.get(id).get();
+      data = load.data.get();
 
     } catch (Exception e) {
       throw new IOException(e);
@@ -178,12 +423,40 @@ class RedisSessionManager implements GenericSessionManager<RedisSessionImpl> {
       return null;
     }
 
-    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
-    final RedisSessionImpl session = new RedisSessionImpl(this);
+    if (nearCache != null) {
+      final SessionSnapshot snapshot = serializer.snapshot(data);
+      nearCache.loaded(snapshot, load.nearCacheStamp);
+      serializer.restore(snapshot, session.asPersistableSession(), metadata);
 
-    serializer.deserialize(data, session.asPersistableSession(), metadata);
+    } else {
+      serializer.deserialize(data, session.asPersistableSession(), metadata);
+    }
 
     return session;
   }
 
+  private SessionLoad startLoading(String id) {
+    // Stamp is taken before the request, so that concurrent updates are not missed.
+    final long stamp = nearCache != null ? nearCache.stamp() : 0;
+    return new SessionLoad(id, storageClient.get(id), stamp);
+  }
+
+  /**
+   * Pending session data request.
+   */
+  static class SessionLoad {
+
+    final String id;
+    final CompletableFuture<byte[]> data;
+
+    /** {@link NearCache#stamp()} taken before the request. */
+    final long nearCacheStamp;
+
+    private SessionLoad(String id, CompletableFuture<byte[]> data, long nearCacheStamp) {
+      this.id = id;
+      this.data = data;
+      this.nearCacheStamp = nearCacheStamp;
+    }
+  }
+
 }
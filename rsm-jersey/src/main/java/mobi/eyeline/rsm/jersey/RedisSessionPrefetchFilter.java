@@ -0,0 +1,37 @@
+package mobi.eyeline.rsm.jersey;
+
+import javax.inject.Inject;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.PreMatching;
+
+/**
+ * Starts loading the requested session as soon as the request arrives, see
+ * {@link RedisSessionBinder#setPrefetch(boolean)}. Has no effect unless prefetching is enabled.
+ */
+@PreMatching
+public class RedisSessionPrefetchFilter implements ContainerRequestFilter {
+
+  /** Request property holding the pending {@link RedisSessionManager.SessionLoad}. */
+  static final String PREFETCHED_SESSION_PROPERTY = RedisSessionPrefetchFilter.class.getName();
+
+  private final RedisSessionManager manager;
+
+  @Inject
+  public RedisSessionPrefetchFilter(RedisSessionManager manager) {
+    this.manager = manager;
+  }
+
+  @Override
+  public void filter(ContainerRequestContext requestContext) {
+    final String sessionId = manager.getRequestedSessionId(
+        requestContext.getHeaderString(manager.getSessionCookieName()),
+        requestContext.getCookies());
+
+    final RedisSessionManager.SessionLoad load = manager.prefetchSession(sessionId);
+    if (load != null) {
+      requestContext.setProperty(PREFETCHED_SESSION_PROPERTY, load);
+    }
+  }
+
+}
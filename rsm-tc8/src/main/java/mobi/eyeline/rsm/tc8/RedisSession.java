@@ -4,6 +4,8 @@ import mobi.eyeline.rsm.DirtySessionTracker;
 import mobi.eyeline.rsm.model.GenericSession;
 import mobi.eyeline.rsm.model.PersistableSession;
 import mobi.eyeline.rsm.model.PersistedSession;
+import mobi.eyeline.rsm.pack.CompactAttributeMap;
+import mobi.eyeline.rsm.pack.LazyAttributeMap;
 import org.apache.catalina.Manager;
 import org.apache.catalina.realm.GenericPrincipal;
 import org.apache.catalina.session.StandardSession;
@@ -17,7 +19,7 @@ import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 
 public class RedisSession extends StandardSession implements PersistableSession, GenericSession {
@@ -39,6 +41,27 @@ public class RedisSession extends StandardSession implements PersistableSession,
     dirtyTracker.reset();
   }
 
+  /**
+   * @return Names of the attributes set or removed since the last save.
+   */
+  Set<String> getChangedAttributes() {
+    return dirtyTracker.getChangedAttributes();
+  }
+
+  /**
+   * @return Names of the attributes with mutable values returned by {@link #getAttribute}.
+   */
+  Set<String> getAccessedAttributes() {
+    return dirtyTracker.getAccessedAttributes();
+  }
+
+  @Override
+  public Object getAttribute(String name) {
+    final Object value = super.getAttribute(name);
+    dirtyTracker.markAccessed(name, value);
+    return value;
+  }
+
   @Override
   public void setAttribute(String key, Object value) {
     final RedisSessionManager manager = getManager();
@@ -67,7 +90,7 @@ public class RedisSession extends StandardSession implements PersistableSession,
         }
 
       } else {
-        dirtyTracker.markDirty();
+        dirtyTracker.markDirty(key);
       }
     }
   }
@@ -86,7 +109,7 @@ public class RedisSession extends StandardSession implements PersistableSession,
       }
 
     } else {
-      dirtyTracker.markDirty();
+      dirtyTracker.markDirty(name);
     }
   }
 
@@ -115,6 +138,13 @@ public class RedisSession extends StandardSession implements PersistableSession,
     }
   }
 
+  /**
+   * Sets session ID without persisting the session or notifying listeners.
+   */
+  void assignId(String id) {
+    this.id = id;
+  }
+
   @Override
   public void setPrincipal(Principal principal) {
     dirtyTracker.markDirty();
@@ -145,20 +175,35 @@ public class RedisSession extends StandardSession implements PersistableSession,
       rc.userPrincipal = principal.getUserPrincipal();
     }
 
-    if (this.attributes != null) {
-      rc.attributes = this.attributes
-          .entrySet()
-          .stream()
-          .filter(attr ->
-              attr.getValue() != null &&
-                  isAttributeDistributable(attr.getKey(), attr.getValue()) &&
-                  !exclude(attr.getKey(), attr.getValue())
-          ).collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    if (this.attributes instanceof LazyAttributeMap) {
+      // Avoid decoding attributes which were never accessed.
+      rc.attributes = ((LazyAttributeMap) this.attributes).snapshot(this::isPersistable);
+
+    } else if (this.attributes != null) {
+      final Map<String, Object> persistable = new CompactAttributeMap<>(this.attributes.size());
+      this.attributes.forEach((k, v) -> {
+        if (isPersistable(k, v)) {
+          persistable.put(k, v);
+        }
+      });
+      rc.attributes = persistable;
     }
 
     return rc;
   }
 
+  /**
+   * @return Attribute value, or {@code null} if there's none or it's not persisted.
+   */
+  Object getPersistableAttribute(String name) {
+    final Object value = attributes.get(name);
+    return isPersistable(name, value) ? value : null;
+  }
+
+  private boolean isPersistable(String name, Object value) {
+    return value != null && isAttributeDistributable(name, value) && !exclude(name, value);
+  }
+
   @Override
   public void fromPersistedSession(PersistedSession rc) {
     authType = null;
@@ -171,7 +216,12 @@ public class RedisSession extends StandardSession implements PersistableSession,
     principal = null;
     id = rc.id;
 
-    rc.attributes.forEach((k, v) -> attributes.put(k, v));
+    if (rc.attributes instanceof LazyAttributeMap) {
+      attributes = (LazyAttributeMap) rc.attributes;
+
+    } else {
+      rc.attributes.forEach((k, v) -> attributes.put(k, v));
+    }
 
     if (listeners == null) {
       listeners = new ArrayList<>();
@@ -60,6 +60,9 @@ public class RedisSessionHandlerValve extends ValveBase {
       }
 
       skipSession.set(true);
+
+    } else {
+      manager.prefetchSession(request.getRequestedSessionId());
     }
   }
 
@@ -1,10 +1,24 @@
 package mobi.eyeline.rsm.tc8;
 
 import mobi.eyeline.rsm.GenericSessionManager;
+import mobi.eyeline.rsm.NearCache;
 import mobi.eyeline.rsm.PersistenceStrategy;
+import mobi.eyeline.rsm.SharedNameTable;
+import mobi.eyeline.rsm.StorageLayout;
+import mobi.eyeline.rsm.TouchThrottle;
+import mobi.eyeline.rsm.WriteBehindQueue;
+import mobi.eyeline.rsm.model.PersistedSession;
 import mobi.eyeline.rsm.model.PersistedSessionMetadata;
+import mobi.eyeline.rsm.pack.Compression;
+import mobi.eyeline.rsm.pack.EncodedSession;
+import mobi.eyeline.rsm.pack.NameTable;
+import mobi.eyeline.rsm.pack.SessionFields;
+import mobi.eyeline.rsm.pack.SessionSerializer;
+import mobi.eyeline.rsm.pack.SessionSnapshot;
+import mobi.eyeline.rsm.storage.HedgedReads;
 import mobi.eyeline.rsm.storage.RedisStorageClient;
 import mobi.eyeline.rsm.storage.StorageClient;
+import mobi.eyeline.rsm.storage.StorageClients;
 import org.apache.catalina.Lifecycle;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.LifecycleState;
@@ -18,8 +32,13 @@ import org.apache.juli.logging.LogFactory;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 
@@ -27,12 +46,22 @@ public class RedisSessionManager
     extends ManagerBase
     implements Lifecycle, GenericSessionManager<RedisSession> {
 
+  private static final int DEFAULT_TOUCH_INTERVAL_SECONDS = 60;
+  private static final int DEFAULT_NEAR_CACHE_TTL_SECONDS = 30;
+  private static final int DEFAULT_WRITE_BEHIND_QUEUE_SIZE = 10_000;
+  private static final int DEFAULT_HEDGE_MAX_PERCENT = 5;
+
   private final Log log = LogFactory.getLog(RedisSessionManager.class);
 
+  /** Placeholder value written by previous versions on session ID generation. */
   private final byte[] NULL_SESSION = "null".getBytes();
 
   private StorageClient storageClient;
-  private RedisSessionSerializer serializer;
+  private SessionSerializer serializer;
+  private TouchThrottle touchThrottle;
+  private NearCache nearCache;
+  private WriteBehindQueue writeBehindQueue;
+  private HedgedReads hedgedReads;
 
   // Current request context.
   private final ThreadLocal<RedisSession> currentSession = new ThreadLocal<>();
@@ -40,6 +69,10 @@ public class RedisSessionManager
   private final ThreadLocal<String> currentSessionId = new ThreadLocal<>();
   private final ThreadLocal<Boolean> currentSessionIsPersisted = new ThreadLocal<>();
 
+  // Session data requested ahead of `findSession' call.
+  private final ThreadLocal<String> prefetchedSessionId = new ThreadLocal<>();
+  private final ThreadLocal<SessionLoad> prefetchedSessionData = new ThreadLocal<>();
+
 
   //
   // BEGIN Manager configuration.
@@ -47,8 +80,24 @@ public class RedisSessionManager
 
   private String dbUrl;
   private int timeout;
+  private int ioThreads = RedisStorageClient.DEFAULT_IO_THREADS;
+  private boolean pipelining;
+  private boolean readFromReplicas;
+  private int hedgePercentile;
+  private int hedgeMaxPercent = DEFAULT_HEDGE_MAX_PERCENT;
+  private boolean prefetch;
 
   private PersistenceStrategy persistenceStrategy = PersistenceStrategy.ALWAYS;
+  private StorageLayout storageLayout = StorageLayout.BLOB;
+  private int touchInterval = DEFAULT_TOUCH_INTERVAL_SECONDS;
+  private boolean lazyAttributes;
+  private int compressionThreshold;
+  private String compressionDictionary;
+  private boolean sharedAttributeNames;
+  private int nearCacheSize;
+  private int nearCacheTtl = DEFAULT_NEAR_CACHE_TTL_SECONDS;
+  private int writeBehindQueueSize = DEFAULT_WRITE_BEHIND_QUEUE_SIZE;
+  private WriteBehindQueue.OverflowPolicy writeBehindOverflow = WriteBehindQueue.OverflowPolicy.SYNC;
 
   private Pattern skipUrls;
   private Pattern skipAttributes;
@@ -63,11 +112,91 @@ public class RedisSessionManager
   @SuppressWarnings("unused")
   public void setTimeout(int timeout) { this.timeout = timeout; }
 
+  @SuppressWarnings("unused")
+  public int getIoThreads()                 { return ioThreads; }
+  @SuppressWarnings("unused")
+  public void setIoThreads(int ioThreads)   { this.ioThreads = ioThreads; }
+
+  @SuppressWarnings("unused")
+  public boolean getPipelining()                { return pipelining; }
+  @SuppressWarnings("unused")
+  public void setPipelining(boolean pipelining) { this.pipelining = pipelining; }
+
+  @SuppressWarnings("unused")
+  public boolean getReadFromReplicas()                      { return readFromReplicas; }
+  @SuppressWarnings("unused")
+  public void setReadFromReplicas(boolean readFromReplicas) { this.readFromReplicas = readFromReplicas; }
+
+  @SuppressWarnings("unused")
+  public int getHedgePercentile()                     { return hedgePercentile; }
+  @SuppressWarnings("unused")
+  public void setHedgePercentile(int hedgePercentile) { this.hedgePercentile = hedgePercentile; }
+
+  @SuppressWarnings("unused")
+  public int getHedgeMaxPercent()                     { return hedgeMaxPercent; }
+  @SuppressWarnings("unused")
+  public void setHedgeMaxPercent(int hedgeMaxPercent) { this.hedgeMaxPercent = hedgeMaxPercent; }
+
+  @SuppressWarnings("unused")
+  public boolean getPrefetch()              { return prefetch; }
+  @SuppressWarnings("unused")
+  public void setPrefetch(boolean prefetch) { this.prefetch = prefetch; }
+
   @SuppressWarnings("unused")
   public void setPersistenceStrategy(String strategy) { persistenceStrategy = PersistenceStrategy.fromName(strategy); }
   @SuppressWarnings("unused")
   public String getPersistenceStrategy()              { return persistenceStrategy.name(); }
 
+  @SuppressWarnings("unused")
+  public void setStorageLayout(String layout)         { storageLayout = StorageLayout.fromName(layout); }
+  @SuppressWarnings("unused")
+  public String getStorageLayout()                    { return storageLayout.name(); }
+
+  @SuppressWarnings("unused")
+  public int getTouchInterval()                       { return touchInterval; }
+  @SuppressWarnings("unused")
+  public void setTouchInterval(int touchInterval)     { this.touchInterval = touchInterval; }
+
+  @SuppressWarnings("unused")
+  public boolean getLazyAttributes()                  { return lazyAttributes; }
+  @SuppressWarnings("unused")
+  public void setLazyAttributes(boolean lazy)         { this.lazyAttributes = lazy; }
+
+  @SuppressWarnings("unused")
+  public int getCompressionThreshold()                { return compressionThreshold; }
+  @SuppressWarnings("unused")
+  public void setCompressionThreshold(int threshold)  { this.compressionThreshold = threshold; }
+
+  @SuppressWarnings("unused")
+  public String getCompressionDictionary()            { return compressionDictionary; }
+  @SuppressWarnings("unused")
+  public void setCompressionDictionary(String path)   { this.compressionDictionary = path; }
+
+  @SuppressWarnings("unused")
+  public boolean getSharedAttributeNames()            { return sharedAttributeNames; }
+  @SuppressWarnings("unused")
+  public void setSharedAttributeNames(boolean shared) { this.sharedAttributeNames = shared; }
+
+  @SuppressWarnings("unused")
+  public int getNearCacheSize()                       { return nearCacheSize; }
+  @SuppressWarnings("unused")
+  public void setNearCacheSize(int nearCacheSize)     { this.nearCacheSize = nearCacheSize; }
+
+  @SuppressWarnings("unused")
+  public int getNearCacheTtl()                        { return nearCacheTtl; }
+  @SuppressWarnings("unused")
+  public void setNearCacheTtl(int nearCacheTtl)       { this.nearCacheTtl = nearCacheTtl; }
+
+  @SuppressWarnings("unused")
+  public int getWriteBehindQueueSize()                { return writeBehindQueueSize; }
+  @SuppressWarnings("unused")
+  public void setWriteBehindQueueSize(int size)       { this.writeBehindQueueSize = size; }
+
+  @SuppressWarnings("unused")
+  public String getWriteBehindOverflow()              { return writeBehindOverflow.name(); }
+  @SuppressWarnings("unused")
+  public void setWriteBehindOverflow(String policy)   { writeBehindOverflow = WriteBehindQueue.OverflowPolicy.fromName(policy); }
+
   @SuppressWarnings("unused")
   public void setSkipUrls(String pattern)   { this.skipUrls = pattern == null ? null : Pattern.compile(pattern); }
   @SuppressWarnings("unused")
@@ -82,6 +211,49 @@ public class RedisSessionManager
   // END Manager configuration.
   //
 
+  //
+  // BEGIN Write-behind metrics.
+  //
+
+  @SuppressWarnings("unused")
+  public int getWriteBehindQueueDepth()       { return writeBehindQueue == null ? 0 : writeBehindQueue.getDepth(); }
+
+  @SuppressWarnings("unused")
+  public long getWriteBehindFlushLag()        { return writeBehindQueue == null ? 0 : writeBehindQueue.getFlushLagMillis(); }
+
+  @SuppressWarnings("unused")
+  public long getWriteBehindLastFlushLag()    { return writeBehindQueue == null ? 0 : writeBehindQueue.getLastFlushLagMillis(); }
+
+  @SuppressWarnings("unused")
+  public long getWriteBehindCoalesced()       { return writeBehindQueue == null ? 0 : writeBehindQueue.getCoalescedCount(); }
+
+  @SuppressWarnings("unused")
+  public long getWriteBehindOverflows()       { return writeBehindQueue == null ? 0 : writeBehindQueue.getOverflowCount(); }
+
+  @SuppressWarnings("unused")
+  public long getWriteBehindFailures()        { return writeBehindQueue == null ? 0 : writeBehindQueue.getFailureCount(); }
+
+  //
+  // END Write-behind metrics.
+  //
+
+  //
+  // BEGIN Hedged read metrics.
+  //
+
+  @SuppressWarnings("unused")
+  public long getHedgedReads()                { return hedgedReads == null ? 0 : hedgedReads.getHedgedCount(); }
+
+  @SuppressWarnings("unused")
+  public long getHedgedReadsWon()             { return hedgedReads == null ? 0 : hedgedReads.getWonCount(); }
+
+  @SuppressWarnings("unused")
+  public long getHedgeDelayMicros()           { return hedgedReads == null ? -1 : hedgedReads.getDelayMicros(); }
+
+  //
+  // END Hedged read metrics.
+  //
+
 
   @Override
   public Pattern getSkipUrlsPattern()                { return skipUrls; }
@@ -100,6 +272,10 @@ public class RedisSessionManager
     return persistenceStrategy == PersistenceStrategy.ALWAYS;
   }
 
+  private boolean doSaveAsync() {
+    return persistenceStrategy == PersistenceStrategy.ASYNC;
+  }
+
   @Override
   public int getRejectedSessions() {
     return 0;
@@ -114,9 +290,16 @@ public class RedisSessionManager
     super.startInternal();
     setState(LifecycleState.STARTING);
 
+    if (storageLayout == StorageLayout.HASH && (nearCacheSize > 0 || doSaveAsync())) {
+      throw new LifecycleException("Hash storage layout supports neither near cache nor async persistence");
+    }
+
     initValve();
-    serializer = initializeSerializer();
+    touchThrottle = initializeTouchThrottle();
     initializeDatabaseConnection();
+    serializer = initializeSerializer();
+    nearCache = initializeNearCache();
+    writeBehindQueue = initializeWriteBehindQueue();
 
     getContext().setDistributable(true);
 
@@ -148,6 +331,15 @@ public class RedisSessionManager
 
     setState(LifecycleState.STOPPING);
 
+    if (writeBehindQueue != null) {
+      // Flush pending writes while the connection is still open.
+      writeBehindQueue.close();
+    }
+
+    if (nearCache != null) {
+      nearCache.close();
+    }
+
     try {
       if (storageClient != null) {
         storageClient.close();
@@ -168,61 +360,90 @@ public class RedisSessionManager
       return null;
     }
 
-    RedisSession session = null;
+    RedisSession session = createEmptySession();
+    session.setNew(true);
+    session.setValid(true);
+    session.setCreationTime(System.currentTimeMillis());
+    session.setMaxInactiveInterval(getSessionTimeoutSeconds());
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+
+    String sessionId;
+    try {
+      sessionId = insertNewSession(session, requestedSessionId, metadata);
 
-    final String sessionId = generateSessionId(requestedSessionId);
+    } catch (IOException e) {
+      log.error("Error saving newly created session: " + e.getMessage());
+      sessionId = null;
+    }
 
     if (sessionId != null) {
-      session = createEmptySession();
-      session.setNew(true);
-      session.setValid(true);
-      session.setCreationTime(System.currentTimeMillis());
-      session.setMaxInactiveInterval(getSessionTimeoutSeconds());
-      session.setId(sessionId);
+      touchThrottle.refreshed(sessionId);
       session.tellNew();
+
+    } else {
+      session = null;
     }
 
     currentSession.set(session);
     currentSessionId.set(sessionId);
-    currentSessionIsPersisted.set(false);
-    currentSessionSerializationMetadata.set(new PersistedSessionMetadata());
-
-    if (session != null) {
-      try {
-        saveInternal(session, true);
-
-      } catch (IOException e) {
-        log.error("Error saving newly created session: " + e.getMessage());
-        currentSession.set(null);
-        currentSessionId.set(null);
-        session = null;
-      }
-    }
+    currentSessionIsPersisted.set(session != null);
+    currentSessionSerializationMetadata.set(session != null ? metadata : null);
 
     return session;
   }
 
   /**
-   * Ensure generation of a unique session identifier.
+   * Ensures uniqueness of the session identifier and persists the initial session state,
+   * both in a single atomic command per ID candidate.
+   *
+   * @return Session ID or {@code null} if the requested ID is already in use.
    */
-  private String generateSessionId(String requestedSessionId) {
-    String sessionId;
+  private String insertNewSession(RedisSession session,
+                                  String requestedSessionId,
+                                  PersistedSessionMetadata metadata) throws IOException {
 
     try {
       if (requestedSessionId != null) {
-        sessionId = requestedSessionId;
-        if (!storageClient.setIfAbsent(sessionId, NULL_SESSION).get()) {
-          sessionId = null;
-        }
-      } else {
-        do {
-          sessionId = generateSessionId();
-        } while (!storageClient.setIfAbsent(sessionId, NULL_SESSION).get());
+        session.assignId(requestedSessionId);
+        return insertIfAbsent(session, metadata) ? requestedSessionId : null;
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
+
+      String sessionId;
+      do {
+        sessionId = generateSessionId();
+        session.assignId(sessionId);
+      } while (!insertIfAbsent(session, metadata));
+
+      return sessionId;
+
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private boolean insertIfAbsent(RedisSession session, PersistedSessionMetadata metadata)
+      throws IOException, ExecutionException, InterruptedException {
+
+    if (storageLayout == StorageLayout.HASH) {
+      final SessionFields fields = serializer.serializeFields(session, null, Collections.emptySet());
+      metadata.setAttrHashes(fields.getMetadata().getAttrHashes());
+
+      return storageClient.setFieldsIfAbsent(
+          session.getIdInternal(),
+          getSessionTimeoutSeconds(),
+          fields.getFields()
+      ).get();
     }
-    return sessionId;
+
+    final EncodedSession encoded = serializer.encode(session, false, !doSaveAlways());
+    metadata.setAttrHashes(encoded.getAttrHashes());
+
+    return storageClient.setIfAbsent(
+        session.getIdInternal(),
+        getSessionTimeoutSeconds(),
+        serializer.serialize(encoded, metadata)
+    ).get();
   }
 
   @Override
@@ -257,15 +478,16 @@ public class RedisSessionManager
       return currentSession.get();
 
     } else {
-      final byte[] data;
+      final DeserializedSessionContainer container;
       try {
-        data = loadSessionDataFromRedis(id);
+        container = loadSession(id);
+      } catch (IOException e) {
+        throw e;
       } catch (Exception e) {
         throw new IOException(e);
       }
 
-      if (data != null) {
-        final DeserializedSessionContainer container = sessionFromSerializedData(id, data);
+      if (container != null) {
         final RedisSession session = container.session;
         currentSessionIsPersisted.set(true);
         currentSession.set(session);
@@ -283,24 +505,89 @@ public class RedisSessionManager
     }
   }
 
-  private byte[] loadSessionDataFromRedis(String id) throws Exception {
+  /**
+   * Starts loading session data for the requested session ID, so that Redis round trip
+   * overlaps with the request processing preceding {@link #findSession(String)} call.
+   */
+  void prefetchSession(String id) {
+    if (!prefetch || id == null) {
+      return;
+    }
+
+    if (nearCache != null && nearCache.get(id) != null) {
+      return;
+    }
+
+    if (log.isTraceEnabled()) {
+      log.trace("Prefetching session " + id);
+    }
+
+    prefetchedSessionId.set(id);
+    prefetchedSessionData.set(startLoading(id));
+  }
+
+  /**
+   * @return Session or {@code null} if not found.
+   */
+  private DeserializedSessionContainer loadSession(String id) throws Exception {
+    final SessionLoad prefetched =
+        id.equals(prefetchedSessionId.get()) ? prefetchedSessionData.get() : null;
+    prefetchedSessionId.remove();
+    prefetchedSessionData.remove();
+
+    final WriteBehindQueue.PendingWrite pending =
+        writeBehindQueue != null ? writeBehindQueue.pending(id) : null;
+    if (pending != null) {
+      if (log.isTraceEnabled()) {
+        log.trace("Session " + id + " has a pending write");
+      }
+
+      return pending.isDelete() ? null : sessionFromPendingWrite(id, pending.getPayload());
+    }
+
+    final SessionSnapshot cached = nearCache != null ? nearCache.get(id) : null;
+    if (cached != null) {
+      if (log.isTraceEnabled()) {
+        log.trace("Session " + id + " found in near cache");
+      }
+
+      return sessionFromSnapshot(id, cached);
+    }
+
     if (log.isTraceEnabled()) {
       log.trace("Attempting to load session " + id + " from Redis");
     }
 
-    final byte[] data = storageClient.get(id).get();
-    if (data == null) {
+    final SessionLoad load = prefetched != null ? prefetched : startLoading(id);
+
+    final byte[] data = load.data != null ? load.data.get() : null;
+    final Map<String, byte[]> fields = load.fields != null ? load.fields.get() : null;
+    if (data == null && fields == null) {
       if (log.isTraceEnabled()) {
         log.trace("Session " + id + " not found in Redis");
       }
+      return null;
+    }
+
+    return data != null ?
+        sessionFromSerializedData(id, data, load.nearCacheStamp) :
+        sessionFromFields(id, fields);
+  }
+
+  private SessionLoad startLoading(String id) {
+    if (storageLayout == StorageLayout.HASH) {
+      return new SessionLoad(null, storageClient.getFields(id), 0);
     }
 
-    return data;
+    // Stamp is taken before the request, so that concurrent updates are not missed.
+    final long stamp = nearCache != null ? nearCache.stamp() : 0;
+    return new SessionLoad(storageClient.get(id), null, stamp);
   }
 
   private DeserializedSessionContainer sessionFromSerializedData(
       String id,
-      byte[] data) throws IOException {
+      byte[] data,
+      long nearCacheStamp) throws IOException {
 
     if (log.isTraceEnabled()) {
       log.trace("Reading session " + id + " from Redis");
@@ -313,8 +600,63 @@ public class RedisSessionManager
     final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
     final RedisSession session = createEmptySession();
 
+    if (nearCache != null) {
+      final SessionSnapshot snapshot = serializer.snapshot(data);
+      nearCache.loaded(snapshot, nearCacheStamp);
+      serializer.restore(snapshot, session, metadata);
+
+    } else {
+      serializer.deserialize(data, session, metadata);
+    }
+
+    return initializeLoadedSession(id, session, metadata);
+  }
+
+  private DeserializedSessionContainer sessionFromFields(
+      String id,
+      Map<String, byte[]> fields) throws IOException {
+
+    if (log.isTraceEnabled()) {
+      log.trace("Reading session " + id + " from Redis, fields: " + fields.keySet());
+    }
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final RedisSession session = createEmptySession();
+
+    serializer.deserializeFields(fields, session, metadata);
+
+    return initializeLoadedSession(id, session, metadata);
+  }
+
+  private DeserializedSessionContainer sessionFromPendingWrite(
+      String id,
+      byte[] data) throws IOException {
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final RedisSession session = createEmptySession();
+
     serializer.deserialize(data, session, metadata);
 
+    return initializeLoadedSession(id, session, metadata);
+  }
+
+  private DeserializedSessionContainer sessionFromSnapshot(
+      String id,
+      SessionSnapshot snapshot) throws IOException {
+
+    final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+    final RedisSession session = createEmptySession();
+
+    serializer.restore(snapshot, session, metadata);
+
+    return initializeLoadedSession(id, session, metadata);
+  }
+
+  private DeserializedSessionContainer initializeLoadedSession(
+      String id,
+      RedisSession session,
+      PersistedSessionMetadata metadata) {
+
     session.setId(id);
     session.setNew(false);
     session.setMaxInactiveInterval(getSessionTimeoutSeconds());
@@ -344,40 +686,57 @@ public class RedisSessionManager
           " ID = [" + session.getIdInternal() + "], contents: " + redisSession.dump());
     }
 
-    final Boolean isCurrentSessionPersisted;
+    if (storageLayout == StorageLayout.HASH) {
+      saveFields(redisSession, forceSave);
+      return;
+    }
+
+    final PersistedSessionMetadata metadata =
+        Optional.ofNullable(currentSessionSerializationMetadata.get()).orElse(new PersistedSessionMetadata());
 
-    // XXX
-    final PersistedSessionMetadata metadata = Optional.ofNullable(currentSessionSerializationMetadata.get()).orElse(new PersistedSessionMetadata());
-    final long originalSessionAttributesHash = metadata.getAttrHash();
-    Long sessionAttributesHash = null;
+    // In-place modifications are only possible for the attributes handed out by getAttribute,
+    // so only those are re-encoded to compare with the hashes captured on load.
+    final Boolean isCurrentSessionPersisted;
     if (
         forceSave
             || redisSession.isDirty()
             || null == (isCurrentSessionPersisted = this.currentSessionIsPersisted.get())
             || !isCurrentSessionPersisted
-            || (originalSessionAttributesHash != (sessionAttributesHash = serializer.getAttributesHash(redisSession)))
+            || serializer.attributesChanged(
+                metadata, redisSession.getAccessedAttributes(), redisSession::getPersistableAttribute)
         ) {
 
       if (log.isTraceEnabled()) {
         log.trace("Save was determined to be necessary");
       }
 
-      if (sessionAttributesHash == null) {
-        sessionAttributesHash = serializer.getAttributesHash(redisSession);
-      }
+      // Hashes are kept for the case of saving again while handling the same request.
+      final EncodedSession encoded = serializer.encode(redisSession, false, !doSaveAlways());
 
       final PersistedSessionMetadata updatedSerializationMetadata = new PersistedSessionMetadata();
-      updatedSerializationMetadata.setAttrHash(sessionAttributesHash);
+      updatedSerializationMetadata.setAttrHashes(encoded.getAttrHashes());
 
-      try {
-        storageClient.set(
-            redisSession.getId(),
-            getSessionTimeoutSeconds(),
-            serializer.serialize(redisSession, updatedSerializationMetadata)
-        ).get();
+      final String id = redisSession.getId();
+      final byte[] data = serializer.serialize(encoded, updatedSerializationMetadata);
 
-      } catch (InterruptedException | ExecutionException e) {
-        throw new IOException(e);
+      final SessionSnapshot snapshot = nearCache != null ? serializer.snapshot(data) : null;
+      final Runnable onWritten = () -> {
+        touchThrottle.refreshed(id);
+        if (snapshot != null) {
+          nearCache.saved(snapshot);
+        }
+      };
+
+      if (writeBehindQueue == null ||
+          !writeBehindQueue.set(id, getSessionTimeoutSeconds(), data, onWritten)) {
+        try {
+          storageClient.set(id, getSessionTimeoutSeconds(), data).get();
+
+        } catch (InterruptedException | ExecutionException e) {
+          throw new IOException(e);
+        }
+
+        onWritten.run();
       }
 
       redisSession.resetDirtyTracking();
@@ -385,11 +744,95 @@ public class RedisSessionManager
       currentSessionIsPersisted.set(true);
 
     } else {
-      // XXX: should we set entry lifetime in Redis here?
       log.trace("Save was determined to be unnecessary");
+      touch(redisSession);
     }
   }
 
+  /**
+   * Saves the session stored {@linkplain StorageLayout#HASH field-wise}, writing only the changes.
+   */
+  private void saveFields(RedisSession session,
+                          boolean forceSave) throws IOException {
+
+    final Boolean isCurrentSessionPersisted = this.currentSessionIsPersisted.get();
+    final boolean persisted = isCurrentSessionPersisted != null && isCurrentSessionPersisted;
+
+    SessionFields fields = serializer.serializeFields(
+        session,
+        persisted ? currentSessionSerializationMetadata.get() : null,
+        session.getChangedAttributes(),
+        session.getAccessedAttributes());
+
+    if (!forceSave && !doSaveAlways() && persisted && !session.isDirty() && !fields.hasAttributeChanges()) {
+      log.trace("Save was determined to be unnecessary");
+      touch(session);
+      return;
+    }
+
+    final String id = session.getId();
+    try {
+      boolean updated = false;
+      if (!fields.isComplete()) {
+        if (log.isTraceEnabled()) {
+          log.trace("Updating session fields: " + fields.getFields().keySet() + "," +
+              " removing: " + fields.getRemoved());
+        }
+
+        updated = storageClient.updateFields(
+            id, getSessionTimeoutSeconds(), fields.getFields(), fields.getRemoved()).get();
+
+        if (!updated) {
+          // E.g. expired or saved under a new ID.
+          fields = serializer.serializeFields(session, null, Collections.emptySet());
+        }
+      }
+
+      if (!updated) {
+        storageClient.setFields(id, getSessionTimeoutSeconds(), fields.getFields()).get();
+      }
+
+    } catch (InterruptedException | ExecutionException e) {
+      throw new IOException(e);
+    }
+
+    session.resetDirtyTracking();
+    currentSessionSerializationMetadata.set(fields.getMetadata());
+    currentSessionIsPersisted.set(true);
+    touchThrottle.refreshed(id);
+  }
+
+  /**
+   * Refreshes lifetime of the unchanged session, at most once per {@code touchInterval}.
+   */
+  private void touch(RedisSession session) {
+    if (getSessionTimeoutSeconds() <= 0) {
+      // Session never expires.
+      return;
+    }
+
+    final String id = session.getId();
+    if (!touchThrottle.tryTouch(id)) {
+      return;
+    }
+
+    if (log.isTraceEnabled()) {
+      log.trace("Touching session: " + id);
+    }
+
+    storageClient
+        .touch(id, getSessionTimeoutSeconds())
+        .whenComplete((found, e) -> {
+          if (e != null) {
+            touchThrottle.forget(id);
+            log.warn("Failed refreshing session lifetime, ID = [" + id + "]", e);
+
+          } else if (!found && log.isDebugEnabled()) {
+            log.debug("Session to refresh not found, ID = [" + id + "]");
+          }
+        });
+  }
+
   @Override
   public void remove(Session session) {
     remove(session, false);
@@ -406,7 +849,18 @@ public class RedisSessionManager
       log.trace("Removing session ID: " + session.getIdInternal());
     }
 
-    storageClient.delete(session.getId());
+    final String id = session.getId();
+    touchThrottle.forget(id);
+
+    final Runnable onDeleted = () -> {
+      if (nearCache != null) {
+        nearCache.removed(id);
+      }
+    };
+
+    if (writeBehindQueue == null || !writeBehindQueue.delete(id, onDeleted)) {
+      storageClient.delete(id).thenRun(onDeleted);
+    }
   }
 
   void afterRequest() {
@@ -443,6 +897,92 @@ public class RedisSessionManager
       currentSessionId.remove();
       currentSessionSerializationMetadata.remove();
       currentSessionIsPersisted.remove();
+      prefetchedSessionId.remove();
+      prefetchedSessionData.remove();
+    }
+  }
+
+  //
+  //  Session inspection, e.g. by the Tomcat manager application.
+  //  Only the fields required are read for sessions stored field-wise.
+  //
+
+  @Override
+  public long getCreationTimestamp(String sessionId) {
+    final PersistedSession session = readSession(sessionId, false);
+    return session == null ? -1 : session.creationTime;
+  }
+
+  @Override
+  public long getLastAccessedTimestamp(String sessionId) {
+    final PersistedSession session = readSession(sessionId, false);
+    return session == null ? -1 : session.lastAccessedTime;
+  }
+
+  @Override
+  public long getThisAccessedTimestamp(String sessionId) {
+    final PersistedSession session = readSession(sessionId, false);
+    return session == null ? -1 : session.thisAccessedTime;
+  }
+
+  @Override
+  public String getSessionAttribute(String sessionId, String key) {
+    try {
+      final Object value;
+      if (storageLayout == StorageLayout.HASH) {
+        final List<byte[]> fields = storageClient
+            .getFields(sessionId, SessionSerializer.ATTRIBUTE_FIELD_PREFIX + key)
+            .get();
+        value = fields.get(0) == null ? null : serializer.deserializeAttribute(fields.get(0));
+
+      } else {
+        final PersistedSession session = readSession(sessionId, true);
+        value = session == null || session.attributes == null ? null : session.attributes.get(key);
+      }
+
+      return value == null ? null : value.toString();
+
+    } catch (Exception e) {
+      log.warn("Failed reading session attribute, ID = [" + sessionId + "], key = [" + key + "]", e);
+      return null;
+    }
+  }
+
+  /**
+   * @param withAttributes Whether attributes are required, otherwise only the header may be read.
+   * @return Session as stored, {@code null} if not found.
+   */
+  private PersistedSession readSession(String id, boolean withAttributes) {
+    try {
+      final PersistedSessionMetadata metadata = new PersistedSessionMetadata();
+
+      if (storageLayout == StorageLayout.HASH && !withAttributes) {
+        final byte[] header =
+            storageClient.getFields(id, SessionSerializer.HEADER_FIELD).get().get(0);
+        return header == null ? null : serializer.deserializeHeader(header, metadata);
+      }
+
+      final PersistedSession session = new PersistedSession();
+      if (storageLayout == StorageLayout.HASH) {
+        final Map<String, byte[]> fields = storageClient.getFields(id).get();
+        if (fields == null) {
+          return null;
+        }
+        serializer.deserializeFields(fields, session, metadata);
+
+      } else {
+        final byte[] data = storageClient.get(id).get();
+        if (data == null) {
+          return null;
+        }
+        serializer.deserialize(data, session, metadata);
+      }
+
+      return session;
+
+    } catch (Exception e) {
+      log.warn("Failed reading session, ID = [" + id + "]", e);
+      return null;
     }
   }
 
@@ -452,16 +992,51 @@ public class RedisSessionManager
   }
 
   private void initializeDatabaseConnection() throws LifecycleException {
-    log.info("Using Redis connection: dbUrl = [" + dbUrl + "], timeout = [" + timeout + "]");
+    log.info("Using Redis connection:" +
+        " dbUrl = [" + dbUrl + "], timeout = [" + timeout + "], ioThreads = [" + ioThreads + "]," +
+        " readFromReplicas = [" + readFromReplicas + "], hedgePercentile = [" + hedgePercentile + "]");
     try {
-      storageClient = new RedisStorageClient(dbUrl, timeout);
+      hedgedReads = hedgePercentile > 0 ? new HedgedReads(hedgePercentile, hedgeMaxPercent) : null;
+      storageClient = StorageClients.create(dbUrl, timeout, ioThreads, pipelining, readFromReplicas, hedgedReads);
 
     } catch (Exception e) {
       throw new LifecycleException("Failed initializing Redis connection", e);
     }
   }
 
-  private RedisSessionSerializer initializeSerializer() {
+  private NearCache initializeNearCache() {
+    if (nearCacheSize <= 0) {
+      return null;
+    }
+
+    log.info("Using near cache:" +
+        " nearCacheSize = [" + nearCacheSize + "], nearCacheTtl = [" + nearCacheTtl + "]");
+
+    final NearCache nearCache =
+        new NearCache(storageClient, nearCacheSize, TimeUnit.SECONDS.toMillis(nearCacheTtl));
+    nearCache.start();
+    return nearCache;
+  }
+
+  private WriteBehindQueue initializeWriteBehindQueue() {
+    if (!doSaveAsync()) {
+      return null;
+    }
+
+    log.info("Using write-behind queue:" +
+        " writeBehindQueueSize = [" + writeBehindQueueSize + "]," +
+        " writeBehindOverflow = [" + writeBehindOverflow + "]");
+
+    return new WriteBehindQueue(storageClient, writeBehindQueueSize, writeBehindOverflow);
+  }
+
+  private TouchThrottle initializeTouchThrottle() {
+    // Keep at least two touches per session lifetime.
+    final int intervalSeconds = Math.min(touchInterval, getSessionTimeoutSeconds() / 2);
+    return new TouchThrottle(TimeUnit.SECONDS.toMillis(intervalSeconds));
+  }
+
+  private SessionSerializer initializeSerializer() throws LifecycleException {
     ClassLoader classLoader = null;
     {
       Loader contextLoader = null;
@@ -474,8 +1049,51 @@ public class RedisSessionManager
       }
     }
 
-    return new RedisSessionSerializer(classLoader);
+    final Compression compression;
+    try {
+      compression = Compression.create(compressionThreshold, compressionDictionary);
+
+    } catch (IOException e) {
+      throw new LifecycleException("Failed reading compression dictionary", e);
+    }
+
+    if (compression.getThreshold() > 0) {
+      log.info("Using payload compression:" +
+          " compressionThreshold = [" + compressionThreshold + "]," +
+          " compressionDictionary = [" + compressionDictionary + "]");
+    }
+
+    NameTable names = NameTable.NONE;
+    if (sharedAttributeNames) {
+      log.info("Using shared attribute names");
+
+      final SharedNameTable sharedNames = new SharedNameTable(storageClient);
+      sharedNames.start();
+      names = sharedNames;
+    }
+
+    return new SessionSerializer(classLoader, lazyAttributes, compression, names);
   }
 
-}
+  /**
+   * Pending session data request.
+   */
+  private static class SessionLoad {
+
+    /** Serialized session, unless stored field-wise. */
+    final CompletableFuture<byte[]> data;
+    final CompletableFuture<Map<String, byte[]>> fields;
+
+    /** {@link NearCache#stamp()} taken before the request. */
+    final long nearCacheStamp;
+
+    SessionLoad(CompletableFuture<byte[]> data,
+                CompletableFuture<Map<String, byte[]>> fields,
+                long nearCacheStamp) {
+      this.data = data;
+      this.fields = fields;
+      this.nearCacheStamp = nearCacheStamp;
+    }
+  }
 
+}
\ No newline at end of file